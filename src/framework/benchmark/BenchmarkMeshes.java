@@ -0,0 +1,38 @@
+package framework.benchmark;
+
+import framework.io.Mesh;
+
+import java.util.Random;
+
+/**
+ * The generated meshes the mesh benchmarks run on, so they measure the same data: random positions
+ * in a 10 unit cube, texture coordinates and normals, and twice as many triangles as vertices.
+ */
+class BenchmarkMeshes
+{
+    private BenchmarkMeshes() {}
+
+    static Mesh generate(String name, int vertexCount, long seed)
+    {
+        Random random = new Random(seed);
+        float[] positions = new float[vertexCount * 3];
+        float[] textures = new float[vertexCount * 2];
+        float[] normals = new float[vertexCount * 3];
+        int[] indices = new int[vertexCount * 2 * 3];
+        for(int i = 0; i < positions.length; i++)
+            positions[i] = random.nextFloat() * 10f;
+        for(int i = 0; i < textures.length; i++)
+            textures[i] = random.nextFloat();
+        for(int i = 0; i < normals.length; i++)
+            normals[i] = random.nextFloat() * 2f - 1f;
+        for(int i = 0; i < indices.length; i++)
+            indices[i] = random.nextInt(vertexCount);
+
+        Mesh mesh = new Mesh(name);
+        mesh.setPositions(positions);
+        mesh.setTextures(textures);
+        mesh.setNormals(normals);
+        mesh.setIndices(indices);
+        return mesh;
+    }
+}
@@ -0,0 +1,119 @@
+package framework.benchmark;
+
+import framework.loader.TextureLoader;
+import framework.textures.BlockCompressor;
+import framework.textures.TextureData;
+import framework.util.Buffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Quality and throughput of {@link BlockCompressor} over a directory of PNGs, no GPU needed: every
+ * image is encoded in each format, decoded back on the CPU and compared with the original.
+ * <pre>
+ *     java framework.benchmark.BlockCompressionBenchmark [directory, searched recursively] [runs]
+ * </pre>
+ * PSNR is over the channels the format keeps (RGB for BC1/BC3, R for BC4, RG for BC5) and the
+ * average of the per-image values. BC1 stores texels under half alpha as transparent black, their
+ * color isn't counted.
+ */
+public class BlockCompressionBenchmark
+{
+    private static final int[] MASKS = {0b0111, 0b0111, 0b0001, 0b0011};
+
+    public static void main(String... args) throws IOException
+    {
+        Path directory = Path.of(args.length > 0 ? args[0]
+                : System.getProperty("user.home") + File.separator + "framework" + File.separator + "images");
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        List<int[]> images = new ArrayList<>();
+        List<int[]> sizes = new ArrayList<>();
+        long pixels = 0;
+        try(Stream<Path> files = Files.walk(directory))
+        {
+            for(Path file : (Iterable<Path>) files.filter(p -> p.toString().toLowerCase().endsWith(".png"))::iterator)
+            {
+                TextureData data;
+                try(InputStream in = Files.newInputStream(file))
+                {
+                    data = TextureLoader.decodePNG(in, false);
+                }
+                catch(IOException e)
+                {
+                    System.out.println("Skipping " + file.getFileName() + ": " + e.getMessage());
+                    continue;
+                }
+                int[] image = new int[data.getWidth() * data.getHeight()];
+                data.getBuffer().duplicate().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(image);
+                Buffer.release(data.getBuffer());
+                images.add(image);
+                sizes.add(new int[] {data.getWidth(), data.getHeight()});
+                pixels += image.length;
+            }
+        }
+        if(images.isEmpty())
+        {
+            System.out.println("No PNG files in: " + directory);
+            return;
+        }
+
+        System.out.printf("%d images, %.1f MP%n", images.size(), pixels / 1e6);
+        BlockCompressor.Format[] formats = BlockCompressor.Format.values();
+        for(int f = 0; f < formats.length; f++)
+        {
+            BlockCompressor.Format format = formats[f];
+            double psnr = 0;
+            double worst = Double.POSITIVE_INFINITY;
+            long bytes = 0;
+            long encode = Long.MAX_VALUE;
+            long decode = Long.MAX_VALUE;
+            for(int run = 0; run < runs; run++)
+            {
+                long encodeTime = 0;
+                long decodeTime = 0;
+                psnr = 0;
+                bytes = 0;
+                for(int i = 0; i < images.size(); i++)
+                {
+                    int width = sizes.get(i)[0];
+                    int height = sizes.get(i)[1];
+                    long start = System.nanoTime();
+                    byte[] compressed = BlockCompressor.encode(images.get(i), width, height, format);
+                    encodeTime += System.nanoTime() - start;
+                    start = System.nanoTime();
+                    int[] decoded = BlockCompressor.decode(compressed, width, height, format);
+                    decodeTime += System.nanoTime() - start;
+
+                    int[] expected = images.get(i);
+                    if(format == BlockCompressor.Format.BC1)
+                    {
+                        expected = expected.clone();
+                        for(int p = 0; p < expected.length; p++)
+                        {
+                            if(expected[p] >>> 24 < 128)
+                                expected[p] = decoded[p];
+                        }
+                    }
+                    double value = Math.min(99, BlockCompressor.psnr(expected, decoded, MASKS[f]));
+                    psnr += value;
+                    worst = Math.min(worst, value);
+                    bytes += compressed.length;
+                }
+                encode = Math.min(encode, encodeTime);
+                decode = Math.min(decode, decodeTime);
+            }
+            System.out.printf("    %s: %5.2f dB average, %5.2f dB worst, %4.1f%% of RGBA8, encode %6.1f MP/s, decode %6.1f MP/s%n",
+                    format, psnr / images.size(), worst, 100.0 * bytes / (pixels * 4),
+                    pixels / (encode / 1e3), pixels / (decode / 1e3));
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package framework.benchmark;
+
+import framework.renderer.GLState;
+import framework.renderer.HeadlessGLBackend;
+
+import java.util.Random;
+
+import static org.lwjgl.opengl.GL46.*;
+
+/**
+ * Checks {@link GLState} against {@link HeadlessGLBackend}, no context needed. First a random
+ * stream of binds, enables and deletes: after every call the backend has to be in the state the
+ * call asked for, whether it was sent or left out. Fails with an exception when it isn't. Then
+ * frames shaped like the render queue's, sorted draws of a few programs, textures and vaos, with
+ * the calls sent and left out per frame and the time per call.
+ * <pre>
+ *     java framework.benchmark.GLStateBenchmark [random calls] [draws per frame]
+ * </pre>
+ */
+public class GLStateBenchmark
+{
+    private static final int FRAMES = 200;
+    private static final int[] BUFFER_TARGETS = {GL_ARRAY_BUFFER, GL_UNIFORM_BUFFER, GL_ELEMENT_ARRAY_BUFFER};
+    private static final int[] TEXTURE_TARGETS = {GL_TEXTURE_2D, GL_TEXTURE_CUBE_MAP};
+    private static final int[] CAPABILITIES = {GL_DEPTH_TEST, GL_CULL_FACE, GL_BLEND, GL_POLYGON_OFFSET_FILL};
+
+    // deletes always reach the backend, they aren't counted as issued
+    private static long deletes;
+
+    public static void main(String... args)
+    {
+        int calls = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int draws = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+        HeadlessGLBackend backend = new HeadlessGLBackend();
+        GLState.setBackend(backend);
+        GLState.resetCounts();
+        random(backend, calls, new Random(1));
+        System.out.printf("%d random calls consistent, %d sent, %d left out%n", calls,
+                GLState.getIssuedCount(), GLState.getElidedCount());
+        if(backend.getCallCount() != GLState.getIssuedCount() + deletes)
+            throw new IllegalStateException("Backend saw " + backend.getCallCount() + " calls, the cache sent "
+                    + (GLState.getIssuedCount() + deletes));
+
+        // from an unknown state again, like a fresh context
+        GLState.setBackend(backend);
+        long best = Long.MAX_VALUE;
+        long issued = 0;
+        long elided = 0;
+        for(int frame = 0; frame < FRAMES; frame++)
+        {
+            GLState.resetCounts();
+            long start = System.nanoTime();
+            frame(draws);
+            best = Math.min(best, System.nanoTime() - start);
+            issued = GLState.getIssuedCount();
+            elided = GLState.getElidedCount();
+        }
+        System.out.printf("frame of %d sorted draws: %d calls sent, %d left out (%.0f%%), %.1f ns per call%n",
+                draws, issued, elided, 100.0 * elided / (issued + elided), best / (double) (issued + elided));
+        GLState.setBackend(null);
+    }
+
+    private static void random(HeadlessGLBackend backend, int calls, Random random)
+    {
+        for(int i = 0; i < calls; i++)
+        {
+            int name = random.nextInt(6);
+            switch(random.nextInt(13))
+            {
+                case 0 ->
+                {
+                    GLState.useProgram(name);
+                    check(backend.getProgram() == name, "program", i);
+                }
+                case 1 ->
+                {
+                    GLState.bindVertexArray(name);
+                    check(backend.getVertexArray() == name, "vao", i);
+                }
+                case 2 ->
+                {
+                    int target = BUFFER_TARGETS[random.nextInt(BUFFER_TARGETS.length)];
+                    GLState.bindBuffer(target, name);
+                    check(backend.getBuffer(target) == name, "buffer", i);
+                }
+                case 3 ->
+                {
+                    int unit = random.nextInt(4);
+                    int target = TEXTURE_TARGETS[random.nextInt(TEXTURE_TARGETS.length)];
+                    GLState.bindTexture(unit, target, name);
+                    check(backend.getActiveTexture() == GL_TEXTURE0 + unit && backend.getTexture(unit, target) == name, "texture", i);
+                }
+                case 4 ->
+                {
+                    int capability = CAPABILITIES[random.nextInt(CAPABILITIES.length)];
+                    boolean enabled = random.nextBoolean();
+                    GLState.setCapability(capability, enabled);
+                    check(backend.isEnabled(capability) == enabled, "capability", i);
+                }
+                case 5 ->
+                {
+                    int mode = random.nextBoolean() ? GL_BACK : GL_FRONT;
+                    GLState.cullFace(mode);
+                    check(backend.getCullFace() == mode, "cull face", i);
+                }
+                case 6 ->
+                {
+                    boolean flag = random.nextBoolean();
+                    GLState.depthMask(flag);
+                    check(backend.getDepthMask() == flag, "depth mask", i);
+                }
+                case 7 ->
+                {
+                    int function = random.nextBoolean() ? GL_LESS : GL_LEQUAL;
+                    GLState.depthFunc(function);
+                    check(backend.getDepthFunc() == function, "depth func", i);
+                }
+                case 8 ->
+                {
+                    int source = random.nextBoolean() ? GL_ONE : GL_SRC_ALPHA;
+                    GLState.blendFunc(source, GL_ONE_MINUS_SRC_ALPHA);
+                    check(backend.getBlendSource() == source && backend.getBlendDestination() == GL_ONE_MINUS_SRC_ALPHA, "blend func", i);
+                }
+                case 9 ->
+                {
+                    int index = random.nextInt(4);
+                    GLState.bindBufferBase(GL_UNIFORM_BUFFER, index, name);
+                    check(backend.getBuffer(GL_UNIFORM_BUFFER, index) == name, "uniform binding", i);
+                }
+                case 10 ->
+                {
+                    // a deleted name may come back as a new object, binding it must reach GL
+                    GLState.deleteTexture(name);
+                    deletes++;
+                }
+                case 11 ->
+                {
+                    GLState.deleteBuffer(name);
+                    deletes++;
+                }
+                default ->
+                {
+                    GLState.deleteVertexArray(name);
+                    deletes++;
+                }
+            }
+        }
+    }
+
+    // what the render queue does, 4 programs, 50 textures and 200 vaos in key order
+    private static void frame(int draws)
+    {
+        GLState.enable(GL_DEPTH_TEST);
+        GLState.enable(GL_CULL_FACE);
+        GLState.cullFace(GL_BACK);
+        GLState.disable(GL_BLEND);
+        GLState.depthMask(true);
+        for(int i = 0; i < draws; i++)
+        {
+            GLState.useProgram(1 + i * 4 / draws);
+            GLState.bindTexture(0, GL_TEXTURE_2D, 1 + i * 50 / draws);
+            GLState.bindVertexArray(1 + i * 200 / draws);
+        }
+    }
+
+    private static void check(boolean condition, String state, int call)
+    {
+        if(!condition)
+            throw new IllegalStateException("Backend " + state + " differs from the cache after call " + call);
+    }
+}
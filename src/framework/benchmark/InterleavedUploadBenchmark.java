@@ -0,0 +1,150 @@
+package framework.benchmark;
+
+import framework.io.Mesh;
+import framework.io.MeshFile;
+import framework.loader.ModelLoader;
+import framework.model.Model;
+import framework.util.Buffer;
+import framework.util.HandleRegistry;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.lwjgl.glfw.GLFW.*;
+import static org.lwjgl.opengl.GL.createCapabilities;
+import static org.lwjgl.opengl.GL11.GL_FALSE;
+import static org.lwjgl.opengl.GL11.GL_TRUE;
+import static org.lwjgl.opengl.GL11.glFinish;
+
+/**
+ * One vertex buffer per attribute against one interleaved vertex buffer, for float arrays and for
+ * {@link MeshFile}s in both the float and the quantized layout. Every layout is decoded back on the
+ * CPU and compared first, then uploaded through {@link ModelLoader} in a hidden window, timed up to
+ * {@code glFinish}, with the buffers every model ends up owning. Without a display only the CPU part runs.
+ * <pre>
+ *     java framework.benchmark.InterleavedUploadBenchmark [mesh count] [vertices per mesh]
+ * </pre>
+ */
+public class InterleavedUploadBenchmark
+{
+    private static final int RUNS = 5;
+
+    private interface Upload
+    {
+        Model load(int mesh);
+    }
+
+    public static void main(String... args) throws IOException
+    {
+        int meshCount = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int vertexCount = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+
+        Mesh[] meshes = new Mesh[meshCount];
+        MeshFile[][] files = new MeshFile[4][meshCount];
+        String[] names = {"float, separate", "float, interleaved", "quantized, separate", "quantized, interleaved"};
+        for(int i = 0; i < meshCount; i++)
+        {
+            meshes[i] = BenchmarkMeshes.generate("mesh" + i, vertexCount, i);
+            for(int layout = 0; layout < files.length; layout++)
+                files[layout][i] = MeshFile.read(MeshFile.encode(meshes[i], layout >= 2, (layout & 1) != 0));
+        }
+        // an obj without vt and vn lines leaves those attributes empty
+        Mesh bare = BenchmarkMeshes.generate("bare", vertexCount, meshCount);
+        bare.setTextures(new float[0]);
+        bare.setNormals(new float[0]);
+        for(int layout = 0; layout < files.length; layout += 2)
+        {
+            compare(names[layout + 1], files[layout][0], files[layout + 1][0]);
+            compare(names[layout + 1] + " without texture coordinates and normals",
+                    MeshFile.read(MeshFile.encode(bare, layout >= 2, false)),
+                    MeshFile.read(MeshFile.encode(bare, layout >= 2, true)));
+        }
+        System.out.printf("%d meshes x %d vertices%n", meshCount, vertexCount);
+        for(int layout = 0; layout < files.length; layout++)
+        {
+            MeshFile file = files[layout][0];
+            System.out.printf("    %-24s %5.1f bytes per vertex%s%n", names[layout] + ":",
+                    file.getVertexByteLength() / (double) vertexCount,
+                    file.isInterleaved() ? ", stride " + file.getStride() : "");
+        }
+
+        if(!glfwInit())
+        {
+            System.out.println("No display, skipping the upload");
+            return;
+        }
+        glfwWindowHint(GLFW_VISIBLE, GL_FALSE);
+        glfwWindowHint(GLFW_CONTEXT_VERSION_MAJOR, 4);
+        glfwWindowHint(GLFW_CONTEXT_VERSION_MINOR, 6);
+        glfwWindowHint(GLFW_OPENGL_PROFILE, GLFW_OPENGL_CORE_PROFILE);
+        glfwWindowHint(GLFW_OPENGL_FORWARD_COMPAT, GL_TRUE);
+        long window = glfwCreateWindow(64, 64, "InterleavedUploadBenchmark", 0, 0);
+        if(window == 0)
+        {
+            glfwTerminate();
+            System.out.println("No OpenGL 4.6 context, skipping the upload");
+            return;
+        }
+        glfwMakeContextCurrent(window);
+        createCapabilities();
+
+        try
+        {
+            System.out.println("upload, best of " + RUNS + ":");
+            run("arrays, separate", meshCount, i -> ModelLoader.loadToVaoInt(meshes[i].getPositions(),
+                    meshes[i].getTextures(), meshes[i].getNormals(), meshes[i].getIndices()));
+            run("arrays, interleaved", meshCount, i -> ModelLoader.loadToVaoInterleaved(meshes[i].getPositions(),
+                    meshes[i].getTextures(), meshes[i].getNormals(), meshes[i].getIndices()));
+            for(int layout = 0; layout < files.length; layout++)
+            {
+                MeshFile[] layoutFiles = files[layout];
+                run("file, " + names[layout], meshCount, i -> ModelLoader.loadToVaoInt(layoutFiles[i]));
+            }
+        }
+        finally
+        {
+            ModelLoader.destroy();
+            glfwDestroyWindow(window);
+            glfwTerminate();
+        }
+    }
+
+    private static void compare(String name, MeshFile separateFile, MeshFile interleavedFile) throws IOException
+    {
+        Mesh separate = separateFile.toMesh();
+        Mesh interleaved = interleavedFile.toMesh();
+        if(!interleavedFile.isInterleaved()
+                || !Arrays.equals(separate.getPositions(), interleaved.getPositions())
+                || !Arrays.equals(separate.getTextures(), interleaved.getTextures())
+                || !Arrays.equals(separate.getNormals(), interleaved.getNormals())
+                || !Arrays.equals(separate.getIndices(), interleaved.getIndices()))
+            throw new IllegalStateException(name + " doesn't decode to the same mesh");
+    }
+
+    private static void run(String name, int meshCount, Upload upload)
+    {
+        Model[] models = new Model[meshCount];
+        long best = Long.MAX_VALUE;
+        int buffers = 0;
+        for(int run = 0; run < RUNS; run++)
+        {
+            glFinish();
+            long start = System.nanoTime();
+            for(int i = 0; i < meshCount; i++)
+            {
+                models[i] = upload.load(i);
+                // the staged copies of the array uploads, nothing else holds on to them
+                Buffer.endFrame();
+            }
+            glFinish();
+            best = Math.min(best, System.nanoTime() - start);
+
+            buffers = ModelLoader.getBufferCount(models[0]);
+            for(Model model : models)
+                ModelLoader.deleteModel(model);
+            for(int frame = 0; frame < HandleRegistry.DELETE_DELAY; frame++)
+                ModelLoader.flushDeletions();
+        }
+        System.out.printf("    %-34s %8.2f ms, %d buffers per model%n", name + ":", best / 1e6, buffers);
+    }
+}
@@ -0,0 +1,110 @@
+package framework.benchmark;
+
+import framework.io.Mesh;
+import framework.io.MeshFile;
+import framework.util.Buffer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Startup cost of the mesh part of the resource pool: serialized {@link Mesh} files against
+ * mapped {@link MeshFile}s. Both sides stop where the data is ready for {@code glBufferData},
+ * and the mapped side touches every page so the file is really faulted in.
+ * <pre>
+ *     java framework.benchmark.MeshFormatBenchmark [mesh count] [vertices per mesh]
+ * </pre>
+ */
+public class MeshFormatBenchmark
+{
+    private static final int RUNS = 5;
+
+    public static void main(String... args) throws IOException, ClassNotFoundException
+    {
+        int meshCount = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int vertexCount = args.length > 1 ? Integer.parseInt(args[1]) : 50_000;
+
+        File directory = Files.createTempDirectory("meshes").toFile();
+        File[] serialized = new File[meshCount];
+        File[] binary = new File[meshCount];
+        long serializedBytes = 0;
+        long binaryBytes = 0;
+        for(int i = 0; i < meshCount; i++)
+        {
+            Mesh mesh = BenchmarkMeshes.generate("mesh" + i, vertexCount, i);
+            serialized[i] = new File(directory, mesh.getName() + ".ser");
+            binary[i] = new File(directory, mesh.getName() + MeshFile.EXTENSION);
+            try(ObjectOutputStream stream = new ObjectOutputStream(new FileOutputStream(serialized[i])))
+            {
+                stream.writeObject(mesh);
+            }
+            MeshFile.write(mesh, binary[i]);
+            serializedBytes += serialized[i].length();
+            binaryBytes += binary[i].length();
+            serialized[i].deleteOnExit();
+            binary[i].deleteOnExit();
+
+            if(i == 0 && !Arrays.equals(MeshFile.map(binary[i]).toMesh().getPositions(), mesh.getPositions()))
+                throw new IllegalStateException("Mesh file round trip failed");
+        }
+        directory.deleteOnExit();
+
+        long checksum = 0;
+        long legacy = Long.MAX_VALUE;
+        long mapped = Long.MAX_VALUE;
+        for(int run = 0; run < RUNS; run++)
+        {
+            long start = System.nanoTime();
+            for(File file : serialized)
+                checksum += loadSerialized(file);
+            legacy = Math.min(legacy, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for(File file : binary)
+                checksum += loadMapped(file);
+            mapped = Math.min(mapped, System.nanoTime() - start);
+        }
+
+        System.out.printf("%d meshes x %d vertices (checksum %d)%n", meshCount, vertexCount, checksum);
+        System.out.printf("    serialized: %9.2f ms  %8.1f MB on disk%n", legacy / 1e6, serializedBytes / 1048576.0);
+        System.out.printf("    mapped:     %9.2f ms  %8.1f MB on disk  (%.1fx)%n", mapped / 1e6, binaryBytes / 1048576.0, legacy / (double) mapped);
+    }
+
+    // what Resources did before: deserialize, then copy every array into a fresh direct buffer
+    private static long loadSerialized(File file) throws IOException, ClassNotFoundException
+    {
+        Mesh mesh;
+        try(ObjectInputStream stream = new ObjectInputStream(new FileInputStream(file)))
+        {
+            mesh = (Mesh) stream.readObject();
+        }
+        return Buffer.createFloatBuffer(mesh.getPositions()).limit()
+                + Buffer.createFloatBuffer(mesh.getTextures()).limit()
+                + Buffer.createFloatBuffer(mesh.getNormals()).limit()
+                + Buffer.createIntBuffer(mesh.getIndices()).get(mesh.getIndices().length - 1);
+    }
+
+    private static long loadMapped(File file) throws IOException
+    {
+        MeshFile mesh = MeshFile.map(file);
+        long sum = 0;
+        for(MeshFile.Attribute attribute : mesh.getAttributes())
+            sum += sum(mesh.getData(attribute));
+        return sum + sum(mesh.getIndices());
+    }
+
+    private static long sum(ByteBuffer buffer)
+    {
+        long sum = 0;
+        for(int i = 0; i + 8 <= buffer.limit(); i += 4096)
+            sum += buffer.getLong(i);
+        return sum;
+    }
+}
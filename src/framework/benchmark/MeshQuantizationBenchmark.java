@@ -0,0 +1,170 @@
+package framework.benchmark;
+
+import framework.io.Mesh;
+import framework.io.MeshFile;
+import framework.io.VertexQuantization;
+import framework.loader.MeshOptimizer;
+import framework.loader.ObjectParser;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Encodes meshes in the quantized {@link MeshFile} layout, decodes them again on the CPU the way the
+ * GPU reads them and checks every attribute against the error bounds of {@link VertexQuantization}.
+ * Fails with an exception when one is exceeded or the indices changed, and prints the vertex
+ * memory of both layouts. Meshes too large to quantize keep float positions, which is printed
+ * per mesh. Pass OBJ files as arguments, or nothing for generated meshes.
+ * <pre>
+ *     java framework.benchmark.MeshQuantizationBenchmark [file.obj ...]
+ * </pre>
+ */
+public class MeshQuantizationBenchmark
+{
+    public static void main(String... args) throws IOException
+    {
+        List<Mesh> meshes = new ArrayList<>();
+        if(args.length == 0)
+        {
+            meshes.add(generate("small", 5_000, 1, false, 1));
+            meshes.add(generate("tiled uvs", 50_000, 250, true, 2));
+            meshes.add(generate("32 bit indices", 200_000, 4000, false, 3));
+        }
+        for(String arg : args)
+        {
+            File file = new File(arg);
+            Mesh mesh = ObjectParser.parse(file.toPath(), file.getName());
+            MeshOptimizer.optimize(mesh);
+            meshes.add(mesh);
+        }
+
+        long floatBytes = 0;
+        long quantizedBytes = 0;
+        for(Mesh mesh : meshes)
+        {
+            ByteBuffer floats = MeshFile.encode(mesh, false);
+            ByteBuffer quantized = MeshFile.encode(mesh, true);
+            long start = System.nanoTime();
+            MeshFile file = MeshFile.read(quantized);
+            Mesh decoded = file.toMesh();
+            long decode = System.nanoTime() - start;
+
+            float[] transform = new float[6];
+            System.arraycopy(file.getPositionOffset(), 0, transform, 0, 3);
+            System.arraycopy(file.getPositionScale(), 0, transform, 3, 3);
+            float positionError = maxDifference(mesh.getPositions(), decoded.getPositions());
+            float positionBound = VertexQuantization.positionError(transform);
+
+            float largest = 0;
+            for(float value : mesh.getTextures())
+                largest = Math.max(largest, Math.abs(value));
+            boolean unit = VertexQuantization.isUnitRange(mesh.getTextures());
+            float textureError = maxDifference(mesh.getTextures(), decoded.getTextures());
+            float textureBound = VertexQuantization.textureError(unit, largest);
+
+            float normalError = maxAngle(mesh.getNormals(), decoded.getNormals());
+
+            check(mesh, "position", positionError, positionBound);
+            check(mesh, "texture", textureError, textureBound);
+            check(mesh, "normal", normalError, VertexQuantization.NORMAL_ERROR);
+            if(!Arrays.equals(mesh.getIndices(), decoded.getIndices()))
+                throw new IllegalStateException(mesh.getName() + ": indices changed");
+
+            int vertices = mesh.getPositions().length / 3;
+            long before = vertexBytes(MeshFile.read(floats));
+            long after = vertexBytes(file);
+            floatBytes += before;
+            quantizedBytes += after;
+            boolean floatPositions = file.getAttribute(MeshFile.POSITION).type == MeshFile.GL_FLOAT;
+            System.out.printf("%s: %d vertices, %s, %s indices, %s uvs%n", mesh.getName(), vertices,
+                    floatPositions ? "float positions (too large to quantize)" : "snorm16 positions",
+                    file.getIndexType() == MeshFile.GL_UNSIGNED_SHORT ? "16 bit" : "32 bit", unit ? "unorm16" : "half");
+            System.out.printf("    position error %.3g (bound %.3g), uv error %.3g (bound %.3g), normal error %.3g rad (bound %.3g)%n",
+                    positionError, positionBound, textureError, textureBound, normalError, VertexQuantization.NORMAL_ERROR);
+            System.out.printf("    %.1f -> %.1f bytes per vertex with indices (%.0f%%), decoded in %.2f ms%n",
+                    before / (double) vertices, after / (double) vertices, 100.0 * after / before, decode / 1e6);
+        }
+        System.out.printf("total vertex memory %.2f MB -> %.2f MB (%.0f%%)%n", floatBytes / 1048576.0,
+                quantizedBytes / 1048576.0, 100.0 * quantizedBytes / floatBytes);
+    }
+
+    private static void check(Mesh mesh, String attribute, float error, float bound)
+    {
+        if(!(error <= bound))
+            throw new IllegalStateException(mesh.getName() + ": " + attribute + " error " + error + " over " + bound);
+    }
+
+    // what goes into GL buffers: every attribute and the indices
+    private static long vertexBytes(MeshFile file)
+    {
+        return (long) file.getIndexByteLength() + file.getVertexByteLength();
+    }
+
+    private static float maxDifference(float[] expected, float[] actual)
+    {
+        float max = 0;
+        for(int i = 0; i < expected.length; i++)
+            max = Math.max(max, Math.abs(expected[i] - actual[i]));
+        return max;
+    }
+
+    // atan2 of cross and dot product in double, acos of a float dot product can't resolve 1e-4
+    private static float maxAngle(float[] expected, float[] actual)
+    {
+        double max = 0;
+        for(int i = 0; i + 2 < expected.length; i += 3)
+        {
+            double ax = expected[i], ay = expected[i + 1], az = expected[i + 2];
+            double bx = actual[i], by = actual[i + 1], bz = actual[i + 2];
+            if(ax == 0 && ay == 0 && az == 0)
+                continue;
+            double cx = ay * bz - az * by;
+            double cy = az * bx - ax * bz;
+            double cz = ax * by - ay * bx;
+            double angle = Math.atan2(Math.sqrt(cx * cx + cy * cy + cz * cz), ax * bx + ay * by + az * bz);
+            max = Math.max(max, angle);
+        }
+        return (float) max;
+    }
+
+    // a noisy sphere, uvs in 0 to 1 or tiled far past it
+    private static Mesh generate(String name, int vertexCount, float radius, boolean tiled, long seed)
+    {
+        Random random = new Random(seed);
+        float[] positions = new float[vertexCount * 3];
+        float[] textures = new float[vertexCount * 2];
+        float[] normals = new float[vertexCount * 3];
+        int[] indices = new int[vertexCount * 2 * 3];
+        for(int i = 0; i < vertexCount; i++)
+        {
+            double z = random.nextDouble() * 2 - 1;
+            double angle = random.nextDouble() * Math.PI * 2;
+            double r = Math.sqrt(1 - z * z);
+            float x = (float) (r * Math.cos(angle));
+            float y = (float) (r * Math.sin(angle));
+            normals[i * 3] = x;
+            normals[i * 3 + 1] = y;
+            normals[i * 3 + 2] = (float) z;
+            float distance = radius * (1 + random.nextFloat() * 0.1f);
+            positions[i * 3] = 100 + x * distance;
+            positions[i * 3 + 1] = -20 + y * distance;
+            positions[i * 3 + 2] = (float) z * distance;
+            textures[i * 2] = tiled ? random.nextFloat() * 64 - 16 : random.nextFloat();
+            textures[i * 2 + 1] = tiled ? random.nextFloat() * 64 - 16 : random.nextFloat();
+        }
+        for(int i = 0; i < indices.length; i++)
+            indices[i] = random.nextInt(vertexCount);
+
+        Mesh mesh = new Mesh(name);
+        mesh.setPositions(positions);
+        mesh.setTextures(textures);
+        mesh.setNormals(normals);
+        mesh.setIndices(indices);
+        return mesh;
+    }
+}
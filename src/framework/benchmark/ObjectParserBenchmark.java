@@ -0,0 +1,151 @@
+package framework.benchmark;
+
+import framework.io.Mesh;
+import framework.loader.ObjectLoader;
+import framework.loader.ObjectParser;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Compares the regex OBJ path ({@link ObjectLoader#parseObjFromFile(String, String)}) with the
+ * mapped byte parser ({@link ObjectParser}), on one chunk and split over every core. Pass OBJ files
+ * as arguments, or nothing to run on a generated grid mesh.
+ * <pre>
+ *     java framework.benchmark.ObjectParserBenchmark [file.obj ...]
+ * </pre>
+ */
+public class ObjectParserBenchmark
+{
+    private static final int WARMUP = 2;
+    private static final int RUNS = 5;
+
+    public static void main(String... args) throws IOException
+    {
+        File[] files;
+        if(args.length == 0)
+        {
+            File generated = File.createTempFile("benchmark", ".obj");
+            generated.deleteOnExit();
+            writeGrid(generated.toPath(), 600);
+            files = new File[] {generated};
+        }
+        else
+        {
+            files = new File[args.length];
+            for(int i = 0; i < args.length; i++)
+                files[i] = new File(args[i]);
+        }
+
+        for(File file : files)
+            run(file);
+    }
+
+    private static void run(File file) throws IOException
+    {
+        String path = file.getAbsolutePath();
+        Mesh expected = ObjectLoader.parseObjFromFile(path, "regex");
+        Mesh actual = parseMapped(file, 1);
+        if(!sameMesh(expected, actual))
+            throw new IllegalStateException("The mapped parser doesn't match the regex parser for " + path);
+        int chunks = Runtime.getRuntime().availableProcessors() * 4;
+        if(!sameMesh(actual, parseMapped(file, chunks)))
+            throw new IllegalStateException("The chunked parser doesn't match the single chunk parser for " + path);
+
+        for(int i = 0; i < WARMUP; i++)
+        {
+            ObjectLoader.parseObjFromFile(path, "regex");
+            parseMapped(file, 1);
+            parseMapped(file, chunks);
+        }
+
+        long regex = 0;
+        long mapped = 0;
+        long chunked = 0;
+        for(int i = 0; i < RUNS; i++)
+        {
+            long start = System.nanoTime();
+            ObjectLoader.parseObjFromFile(path, "regex");
+            regex += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            parseMapped(file, 1);
+            mapped += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            parseMapped(file, chunks);
+            chunked += System.nanoTime() - start;
+        }
+
+        double megabytes = file.length() / (1024.0 * 1024.0);
+        double regexMs = regex / 1e6 / RUNS;
+        double mappedMs = mapped / 1e6 / RUNS;
+        double chunkedMs = chunked / 1e6 / RUNS;
+        System.out.printf("%s (%.1f MB, %d vertices)%n", file.getName(), megabytes, actual.getIndices().length);
+        System.out.printf("    regex:   %9.2f ms  %7.1f MB/s%n", regexMs, megabytes / (regexMs / 1000));
+        System.out.printf("    mapped:  %9.2f ms  %7.1f MB/s  (%.1fx)%n", mappedMs, megabytes / (mappedMs / 1000), regexMs / mappedMs);
+        System.out.printf("    chunked: %9.2f ms  %7.1f MB/s  (%.1fx)%n", chunkedMs, megabytes / (chunkedMs / 1000), regexMs / chunkedMs);
+    }
+
+    private static Mesh parseMapped(File file, int chunks) throws IOException
+    {
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return ObjectParser.parse(buffer, file.getName(), file.getAbsolutePath(), chunks);
+        }
+    }
+
+    static boolean sameMesh(Mesh a, Mesh b)
+    {
+        return Arrays.equals(a.getPositions(), b.getPositions())
+                && Arrays.equals(a.getTextures(), b.getTextures())
+                && Arrays.equals(a.getNormals(), b.getNormals())
+                && Arrays.equals(a.getIndices(), b.getIndices());
+    }
+
+    /**
+     * writes a size x size quad grid with jittered heights, the way a scanned asset would look
+     */
+    static void writeGrid(Path path, int size) throws IOException
+    {
+        Random random = new Random(42);
+        try(BufferedWriter writer = Files.newBufferedWriter(path))
+        {
+            writer.write("# generated benchmark grid\n");
+            for(int z = 0; z < size; z++)
+                for(int x = 0; x < size; x++)
+                    writer.write(String.format(Locale.ROOT, "v %.6f %.6f %.6f%n", x * 0.01f, random.nextFloat() - 0.5f, z * -0.01f));
+            for(int z = 0; z < size; z++)
+                for(int x = 0; x < size; x++)
+                    writer.write(String.format(Locale.ROOT, "vt %.6f %.6f%n", x / (float) size, z / (float) size));
+            for(int i = 0; i < size; i++)
+            {
+                float angle = random.nextFloat();
+                writer.write(String.format(Locale.ROOT, "vn %.6f %.6f %.6f%n", (float) Math.sin(angle), (float) Math.cos(angle), 0f));
+            }
+            for(int z = 0; z < size - 1; z++)
+            {
+                for(int x = 0; x < size - 1; x++)
+                {
+                    int a = z * size + x + 1;
+                    int b = a + 1;
+                    int c = a + size + 1;
+                    int d = a + size;
+                    int n = x + 1;
+                    writer.write("f " + a + "/" + a + "/" + n + " " + b + "/" + b + "/" + n + " "
+                            + c + "/" + c + "/" + n + " " + d + "/" + d + "/" + n + "\n");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package framework.benchmark;
+
+import framework.util.Buffer;
+import framework.util.PNGDecoder;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Decode throughput of {@link PNGDecoder} (behind {@link framework.loader.TextureLoader#decodePNG}) against
+ * {@link ImageIO} (what the texture loaders used before) over a directory of real
+ * textures. The files are read into memory first, so only decoding is timed, and every image is
+ * checked pixel for pixel against ImageIO before anything is measured.
+ * <pre>
+ *     java framework.benchmark.PNGDecoderBenchmark [directory, searched recursively] [runs]
+ * </pre>
+ */
+public class PNGDecoderBenchmark
+{
+    public static void main(String... args) throws IOException
+    {
+        Path directory = Path.of(args.length > 0 ? args[0]
+                : System.getProperty("user.home") + File.separator + "framework" + File.separator + "images");
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        List<byte[]> corpus = new ArrayList<>();
+        long pixels = 0;
+        try(Stream<Path> files = Files.walk(directory))
+        {
+            for(Path file : (Iterable<Path>) files.filter(p -> p.toString().toLowerCase().endsWith(".png"))::iterator)
+            {
+                byte[] bytes = Files.readAllBytes(file);
+                PNGDecoder decoder;
+                try
+                {
+                    decoder = new PNGDecoder(new ByteArrayInputStream(bytes));
+                }
+                catch(IOException e)
+                {
+                    System.out.println("Skipping " + file.getFileName() + ": " + e.getMessage());
+                    continue;
+                }
+                if(decoder.decideTextureFormat(PNGDecoder.Format.RGBA) != PNGDecoder.Format.RGBA)
+                {
+                    System.out.println("Skipping " + file.getFileName() + ": no RGBA conversion for this color type");
+                    continue;
+                }
+                verify(file, bytes);
+                corpus.add(bytes);
+                pixels += (long) decoder.getWidth() * decoder.getHeight();
+            }
+        }
+        if(corpus.isEmpty())
+        {
+            System.out.println("No PNG files in: " + directory);
+            return;
+        }
+
+        long checksum = 0;
+        long imageIO = Long.MAX_VALUE;
+        long decoder = Long.MAX_VALUE;
+        for(int run = 0; run < runs; run++)
+        {
+            long start = System.nanoTime();
+            for(byte[] bytes : corpus)
+                checksum += ImageIO.read(new ByteArrayInputStream(bytes)).getRGB(0, 0);
+            imageIO = Math.min(imageIO, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for(byte[] bytes : corpus)
+                checksum += decodeRGBA(bytes);
+            decoder = Math.min(decoder, System.nanoTime() - start);
+        }
+
+        long parallel = Long.MAX_VALUE;
+        for(int run = 0; run < runs; run++)
+        {
+            long start = System.nanoTime();
+            checksum += corpus.parallelStream().mapToLong(bytes -> {
+                try
+                {
+                    return decodeRGBA(bytes);
+                }
+                catch(IOException e)
+                {
+                    throw new RuntimeException(e);
+                }
+            }).sum();
+            parallel = Math.min(parallel, System.nanoTime() - start);
+        }
+
+        double megabytes = pixels * 4 / 1048576.0;
+        System.out.printf("%d images, %.1f MP, %.1f MB of RGBA (checksum %d)%n", corpus.size(), pixels / 1e6, megabytes, checksum);
+        System.out.printf("    ImageIO:              %8.2f ms  %7.1f MB/s%n", imageIO / 1e6, megabytes / (imageIO / 1e9));
+        System.out.printf("    PNGDecoder:           %8.2f ms  %7.1f MB/s  (%.1fx)%n", decoder / 1e6, megabytes / (decoder / 1e9), imageIO / (double) decoder);
+        System.out.printf("    PNGDecoder, parallel: %8.2f ms  %7.1f MB/s%n", parallel / 1e6, megabytes / (parallel / 1e9));
+    }
+
+    // decodes into pooled staging memory, like the loaders do, and returns the first pixel
+    private static int decodeRGBA(byte[] bytes) throws IOException
+    {
+        PNGDecoder decoder = new PNGDecoder(new ByteArrayInputStream(bytes));
+        ByteBuffer buffer = Buffer.acquire(decoder.getWidth() * decoder.getHeight() * 4);
+        try
+        {
+            decoder.decode(buffer, decoder.getWidth() * 4, PNGDecoder.Format.RGBA);
+            return buffer.getInt(0);
+        }
+        finally
+        {
+            Buffer.release(buffer);
+        }
+    }
+
+    private static void verify(Path file, byte[] bytes) throws IOException
+    {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(bytes));
+        PNGDecoder decoder = new PNGDecoder(new ByteArrayInputStream(bytes));
+        ByteBuffer decoded = ByteBuffer.allocate(decoder.getWidth() * decoder.getHeight() * 4);
+        decoder.decode(decoded, decoder.getWidth() * 4, PNGDecoder.Format.RGBA);
+        int width = image.getWidth();
+        for(int y = 0; y < image.getHeight(); y++)
+        {
+            for(int x = 0; x < width; x++)
+            {
+                int argb = image.getRGB(x, y);
+                int i = (y * width + x) * 4;
+                int rgba = (decoded.get(i) & 255) << 16 | (decoded.get(i + 1) & 255) << 8 | (decoded.get(i + 2) & 255) | (decoded.get(i + 3) & 255) << 24;
+                if(argb != rgba)
+                    throw new IllegalStateException(file.getFileName() + " differs from ImageIO at " + x + "," + y
+                            + ": " + Integer.toHexString(argb) + " != " + Integer.toHexString(rgba));
+            }
+        }
+    }
+}
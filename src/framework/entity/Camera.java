@@ -151,6 +151,21 @@ public class Camera
         posZ = z;
     }
 
+    public float getPosX()
+    {
+        return posX;
+    }
+
+    public float getPosY()
+    {
+        return posY;
+    }
+
+    public float getPosZ()
+    {
+        return posZ;
+    }
+
     public Mat4 getViewMatrix()
     {
         return viewMatrix;
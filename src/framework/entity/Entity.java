@@ -15,6 +15,7 @@ public class Entity
     public Entity(TexturedModel model)
     {
         this.model = model;
+        model.retain();
     }
 
     public TexturedModel getModel()
@@ -117,9 +118,19 @@ public class Entity
 
     public void setModel(TexturedModel model)
     {
+        model.retain();
+        this.model.release();
         this.model = model;
     }
 
+    /**
+     * Lets go of the model, its mesh and texture can be evicted once no other entity uses them.
+     */
+    public void destroy()
+    {
+        model.release();
+    }
+
     public Mat4 getTransformationMatrix()
     {
         return transformationMatrix;
@@ -89,6 +89,16 @@ public class Light
         this.b = b;
     }
 
+    public float getIntensity()
+    {
+        return intensity;
+    }
+
+    public void setIntensity(float intensity)
+    {
+        this.intensity = intensity;
+    }
+
     public float getDistance()
     {
         return distance;
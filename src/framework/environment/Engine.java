@@ -6,7 +6,7 @@ import framework.loader.ModelLoader;
 import framework.main.Main;
 import framework.renderer.MasterRenderer;
 import framework.shader.GLShader;
-import framework.shader.GLShader.EntityShader;
+import framework.util.Buffer;
 
 import java.util.Queue;
 import java.util.concurrent.BlockingQueue;
@@ -24,6 +24,7 @@ public final class Engine
     public static ExecutorService background;
     public static ExecutorService physics;
     private static Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private static long taskBudget = TimeUnit.MILLISECONDS.toNanos(4);
     public static Scene scene;
     public static Camera test;
 
@@ -90,19 +91,38 @@ public final class Engine
             test.move();
 
             MasterRenderer.prepare();
-            GLShader.bind(EntityShader.program);
-            MasterRenderer.render(Main.ent);
-            GLShader.unbind();
+            MasterRenderer.processEntity(Main.ent);
+            MasterRenderer.render();
 
             Display.updateDisplay();
+            ModelLoader.flushDeletions();
+            Buffer.endFrame();
         }
         exit();
     }
 
+    /**
+     * Runs queued main thread tasks until the queue is empty or the frame's task budget is used up,
+     * at least one per frame. The rest waits for the next frame.
+     */
     private static void runAllScripts()
     {
-        if(!tasks.isEmpty())
-            tasks.remove().run();
+        long deadline = System.nanoTime() + taskBudget;
+        Runnable task;
+        while((task = tasks.poll()) != null)
+        {
+            task.run();
+            if(System.nanoTime() - deadline >= 0)
+                break;
+        }
+    }
+
+    /**
+     * How long the main thread may spend on {@link #mainExecute} tasks (resource uploads and the like) per frame.
+     */
+    public static void setTaskBudget(double millis)
+    {
+        taskBudget = (long) (millis * 1_000_000);
     }
 
 
@@ -1,7 +1,7 @@
 package framework.hardware;
 
+import framework.renderer.GLState;
 import framework.renderer.MasterRenderer;
-import framework.shader.GLShader;
 import org.lwjgl.glfw.GLFWVidMode;
 import org.lwjgl.glfw.GLFWWindowSizeCallback;
 
@@ -124,9 +124,6 @@ public final class Display implements Hardware
                 // Update OpenGL viewport to match new window size
                 glViewport(0, 0, newWidth, newHeight);
                 MasterRenderer.updateProjectionMatrix();
-                GLShader.bind(GLShader.EntityShader.program);
-                GLShader.loadUniform("projectionMatrix", MasterRenderer.getProjectionMatrix());
-                GLShader.unbind();
             }
         };
         glfwSetWindowSizeCallback(window, windowSizeCallback);
@@ -139,7 +136,7 @@ public final class Display implements Hardware
         glfwSwapInterval(0);
 
         lastFrameTime = getCurrentTime();
-        glEnable(GL_MULTISAMPLE);
+        GLState.enable(GL_MULTISAMPLE);
     }
 
     public static void updateDisplay()
@@ -225,6 +222,13 @@ public final class Display implements Hardware
         return (float) deltaInSeconds;
     }
 
+    /**
+     * Seconds since GLFW was initialized.
+     */
+    public static float getTimeInSeconds() {
+        return (float) glfwGetTime();
+    }
+
     private static double getCurrentTime() {
         return glfwGetTime() * 1000;
     }
@@ -0,0 +1,330 @@
+package framework.io;
+
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Keeps the GPU side of loaded assets within a memory budget.
+ * <p>
+ * Every asset has a handle that never changes (a {@link framework.model.Model} or
+ * {@link framework.textures.Texture}) and is filled in and emptied again by its {@link Loader}.
+ * Assets are counted by their estimated bytes on the GPU. When the resident total goes over the
+ * budget the least recently used assets without references are unloaded until it fits again; the
+ * next access loads them back. References come from {@link #retain}/{@link #release}, an asset that
+ * is referenced is never evicted, even if that means staying over the budget.
+ * <p>
+ * Unloading deletes GL objects, so it always runs through the executor given to the constructor,
+ * the GL thread's task queue.
+ * <p>
+ * An asset that failed to load stays failed: accessing it gives the failed future and loads
+ * nothing, until {@link #retry} or a {@link #register} with another source.
+ */
+public final class AssetCache
+{
+    /**
+     * Loads and unloads one kind of asset. {@link #load} may go off to other threads but has to end
+     * in {@link AssetCache#loaded} or {@link AssetCache#failed}, {@link #unload} runs on the GL thread.
+     */
+    public interface Loader<T>
+    {
+        void load(AssetCache cache, Entry<T> entry);
+
+        void unload(T handle);
+    }
+
+    public static final class Entry<T>
+    {
+        private final String key;
+        private final T handle;
+        private Object source;
+        private final Loader<T> loader;
+        private CompletableFuture<T> future = new CompletableFuture<>();
+        private long bytes;
+        private int references;
+        private boolean resident;
+        private boolean loading;
+        private boolean failed;
+
+        private Entry(String key, T handle, Object source, Loader<T> loader)
+        {
+            this.key = key;
+            this.handle = handle;
+            this.source = source;
+            this.loader = loader;
+        }
+
+        public String getKey()
+        {
+            return key;
+        }
+
+        public T getHandle()
+        {
+            return handle;
+        }
+
+        @SuppressWarnings("unchecked")
+        public <S> S getSource()
+        {
+            return (S) source;
+        }
+
+        /**
+         * Whether the last load failed, the future holds why.
+         */
+        public boolean isFailed()
+        {
+            return failed;
+        }
+    }
+
+    private final Executor glThread;
+    // access ordered, the first entry is the least recently used
+    private final LinkedHashMap<String, Entry<?>> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final Map<Object, Entry<?>> handles = new IdentityHashMap<>();
+    private long budget = Long.MAX_VALUE;
+    private long residentBytes;
+    private int pending;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private boolean trimQueued;
+
+    public AssetCache(Executor glThread)
+    {
+        this.glThread = glThread;
+    }
+
+    /**
+     * Adds an asset and starts loading it. Registering a key again replaces nothing and returns the
+     * entry that is already there, except that a failed asset given another source loads again from it.
+     */
+    public synchronized <T> Entry<T> register(String key, T handle, Object source, Loader<T> loader)
+    {
+        @SuppressWarnings("unchecked")
+        Entry<T> entry = (Entry<T>) entries.get(key);
+        if(entry != null)
+        {
+            if(entry.failed && !Objects.equals(entry.source, source))
+            {
+                entry.source = source;
+                startLoad(entry);
+            }
+            return entry;
+        }
+        entry = new Entry<>(key, handle, source, loader);
+        entries.put(key, entry);
+        handles.put(handle, entry);
+        startLoad(entry);
+        return entry;
+    }
+
+    /**
+     * The handle of an asset, null for an unknown key. An asset that isn't resident starts loading
+     * and the handle stays empty until it is back.
+     */
+    public synchronized <T> T get(String key)
+    {
+        Entry<T> entry = touch(key);
+        return entry == null ? null : entry.handle;
+    }
+
+    /**
+     * Completes with the handle once the asset is resident, null for an unknown key.
+     */
+    public synchronized <T> CompletableFuture<T> getFuture(String key)
+    {
+        Entry<T> entry = touch(key);
+        return entry == null ? null : entry.future;
+    }
+
+    /**
+     * Loads a failed asset again, for when what made it fail is fixed. Returns its future, null for
+     * an unknown key; assets that didn't fail are left as they are.
+     */
+    public synchronized <T> CompletableFuture<T> retry(String key)
+    {
+        @SuppressWarnings("unchecked")
+        Entry<T> entry = (Entry<T>) entries.get(key);
+        if(entry == null)
+            return null;
+        if(entry.failed)
+            startLoad(entry);
+        return entry.future;
+    }
+
+    public synchronized void retain(Object handle)
+    {
+        Entry<?> entry = handles.get(handle);
+        if(entry == null)
+            return;
+        entry.references++;
+        touch(entry.key);
+    }
+
+    public synchronized void release(Object handle)
+    {
+        Entry<?> entry = handles.get(handle);
+        if(entry == null || entry.references == 0)
+            return;
+        if(--entry.references == 0)
+        {
+            // released counts as the last use
+            entries.get(entry.key);
+            queueTrim();
+        }
+    }
+
+    /**
+     * Called by a {@link Loader} on the GL thread once the asset is uploaded.
+     */
+    public <T> void loaded(Entry<T> entry, long bytes)
+    {
+        // the one this load was for, a later load swaps in its own once the lock is released
+        CompletableFuture<T> future;
+        synchronized(this)
+        {
+            future = entry.future;
+            entry.loading = false;
+            entry.resident = true;
+            entry.bytes = bytes;
+            residentBytes += bytes;
+            pending--;
+        }
+        // never straight back out again, whoever asked for it is about to use it
+        trim(entry);
+        future.complete(entry.handle);
+    }
+
+    public <T> void failed(Entry<T> entry, Throwable cause)
+    {
+        CompletableFuture<T> future;
+        synchronized(this)
+        {
+            future = entry.future;
+            entry.loading = false;
+            entry.failed = true;
+            pending--;
+        }
+        System.err.println(cause.getMessage());
+        future.completeExceptionally(cause);
+    }
+
+    public synchronized void setBudget(long bytes)
+    {
+        budget = bytes;
+        queueTrim();
+    }
+
+    /**
+     * Unloads unreferenced assets, least recently used first, until the resident bytes are within
+     * the budget. GL thread only.
+     */
+    public void trim()
+    {
+        trim(null);
+    }
+
+    private synchronized void trim(Entry<?> keep)
+    {
+        trimQueued = false;
+        Iterator<Entry<?>> iterator = entries.values().iterator();
+        while(residentBytes > budget && iterator.hasNext())
+        {
+            Entry<?> entry = iterator.next();
+            if(entry != keep && entry.resident && entry.references == 0)
+                evict(entry);
+        }
+    }
+
+    public synchronized long getBudget()
+    {
+        return budget;
+    }
+
+    public synchronized long getResidentBytes()
+    {
+        return residentBytes;
+    }
+
+    public synchronized int getPendingCount()
+    {
+        return pending;
+    }
+
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    public synchronized long getEvictions()
+    {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return String.format("%d assets, %.1f / %s MB resident, %d pending, %d hits, %d misses, %d evictions",
+                entries.size(), residentBytes / 1048576.0, budget == Long.MAX_VALUE ? "-" : String.format("%.1f", budget / 1048576.0),
+                pending, hits, misses, evictions);
+    }
+
+    private <T> void evict(Entry<T> entry)
+    {
+        entry.loader.unload(entry.handle);
+        entry.resident = false;
+        residentBytes -= entry.bytes;
+        entry.bytes = 0;
+        entry.future = new CompletableFuture<>();
+        evictions++;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> Entry<T> touch(String key)
+    {
+        Entry<T> entry = (Entry<T>) entries.get(key);
+        if(entry == null)
+            return null;
+        if(entry.resident)
+        {
+            hits++;
+        }
+        else if(!entry.failed)
+        {
+            misses++;
+            if(!entry.loading)
+                startLoad(entry);
+        }
+        return entry;
+    }
+
+    private <T> void startLoad(Entry<T> entry)
+    {
+        entry.loading = true;
+        // a failed future may still be about to complete, the new load gets its own
+        if(entry.future.isDone() || entry.failed)
+            entry.future = new CompletableFuture<>();
+        entry.failed = false;
+        pending++;
+        entry.loader.load(this, entry);
+    }
+
+    private void queueTrim()
+    {
+        if(trimQueued || residentBytes <= budget)
+            return;
+        trimQueued = true;
+        glThread.execute(this::trim);
+    }
+}
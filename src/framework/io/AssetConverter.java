@@ -0,0 +1,80 @@
+package framework.io;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Rewrites the serialized {@code .ser} assets as the binary formats next to them: meshes of
+ * {@link Mesh#MESH_DIRECTORY} as {@link MeshFile}s (quantized where the bounds allow, see {@link VertexQuantization}) and textures of {@link BufferTexture#TEXTURE_DIR}
+ * as {@link TextureFile}s (with their mip chain baked and compressed, see
+ * {@link BufferTexture#writeTextureFile}). Both directories can be given as arguments.
+ * The {@code .ser} files are left alone, delete them once the new ones load.
+ */
+public final class AssetConverter
+{
+    private AssetConverter() {}
+
+    public static void main(String... args)
+    {
+        File meshes = new File(args.length > 0 ? args[0] : Mesh.MESH_DIRECTORY);
+        File textures = new File(args.length > 1 ? args[1] : BufferTexture.TEXTURE_DIR);
+        int converted = convertSerializedMeshes(meshes);
+        System.out.println("Converted " + converted + " mesh(es) in: " + meshes.getAbsolutePath());
+        converted = convertSerializedTextures(textures);
+        System.out.println("Converted " + converted + " texture(s) in: " + textures.getAbsolutePath());
+    }
+
+    public static int convertSerializedMeshes(File directory)
+    {
+        File[] files = listSerialized(directory);
+        for (File file : files) {
+            Mesh mesh = Mesh.importSerialized(file);
+            File target = target(file, MeshFile.EXTENSION);
+            try
+            {
+                MeshFile.write(mesh, target, true, Mesh.isInterleaving());
+            }
+            catch(IOException e)
+            {
+                throw new RuntimeException("Failed to convert mesh: " + file.getName(), e);
+            }
+            System.out.println("Converted: " + file.getName() + " -> " + target.getName());
+        }
+        return files.length;
+    }
+
+    public static int convertSerializedTextures(File directory)
+    {
+        File[] files = listSerialized(directory);
+        for (File file : files) {
+            BufferTexture texture = BufferTexture.importSerialized(file);
+            File target = target(file, TextureFile.EXTENSION);
+            try
+            {
+                BufferTexture.writeTextureFile(texture.getName(), texture.getArray(), texture.getWidth(), texture.getHeight(), target);
+            }
+            catch(IOException e)
+            {
+                throw new RuntimeException("Failed to convert texture: " + file.getName(), e);
+            }
+            System.out.println("Converted: " + file.getName() + " -> " + target.getName());
+        }
+        return files.length;
+    }
+
+    private static File[] listSerialized(File directory)
+    {
+        File[] files = directory.listFiles((dir, name) -> name.toLowerCase().endsWith(".ser"));
+        if (files == null || files.length == 0) {
+            System.out.println("No serialized assets found in: " + directory.getAbsolutePath());
+            return new File[0];
+        }
+        return files;
+    }
+
+    private static File target(File file, String extension)
+    {
+        String fileName = file.getName();
+        return new File(file.getParentFile(), fileName.substring(0, fileName.lastIndexOf('.')) + extension);
+    }
+}
@@ -0,0 +1,245 @@
+package framework.io;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers which source asset produced which output, so an import only reconverts what changed.
+ * <p>
+ * Every entry holds the source size, modification time and SHA-256, the converter version and the
+ * output file name. A source is up to date when its output exists, the converter version is the
+ * same and either size and mtime match (no hashing) or, after a touch or a checkout, the content
+ * hash still matches. The manifest is a text file in the output directory; deleting it forces a
+ * full rebuild. Checking and recording can run on several threads at once.
+ */
+public final class AssetManifest
+{
+    public static final String FILE_NAME = ".manifest";
+
+    private static final String HEADER = "# asset manifest 1";
+    private static final int MAX_MAPPED_CHUNK = 1 << 30;
+
+    private final File directory;
+    private final File file;
+    private final int converterVersion;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * What is known about one source, keyed by the source file name.
+     */
+    public static final class Entry
+    {
+        public final String source;
+        public final long size;
+        public final long lastModified;
+        public final int converterVersion;
+        public final String hash;
+        public final String output;
+
+        Entry(String source, long size, long lastModified, int converterVersion, String hash, String output)
+        {
+            this.source = source;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.converterVersion = converterVersion;
+            this.hash = hash;
+            this.output = output;
+        }
+    }
+
+    private AssetManifest(File directory, int converterVersion)
+    {
+        this.directory = directory;
+        this.file = new File(directory, FILE_NAME);
+        this.converterVersion = converterVersion;
+    }
+
+    /**
+     * Loads the manifest of an output directory, an empty one if there is none yet or it can't be read.
+     */
+    public static AssetManifest load(File directory, int converterVersion)
+    {
+        AssetManifest manifest = new AssetManifest(directory, converterVersion);
+        if (!manifest.file.exists()) {
+            return manifest;
+        }
+
+        try(BufferedReader reader = Files.newBufferedReader(manifest.file.toPath(), StandardCharsets.UTF_8))
+        {
+            String line = reader.readLine();
+            if(!HEADER.equals(line))
+            {
+                System.err.println("Ignoring asset manifest with an unknown header: " + manifest.file);
+                return manifest;
+            }
+            while((line = reader.readLine()) != null)
+            {
+                String[] parts = line.split("\t");
+                if(parts.length != 6)
+                    continue;
+                Entry entry = new Entry(parts[0], Long.parseLong(parts[1]), Long.parseLong(parts[2]),
+                        Integer.parseInt(parts[3]), parts[4], parts[5]);
+                manifest.entries.put(entry.source, entry);
+            }
+        }
+        catch(IOException | NumberFormatException e)
+        {
+            System.err.println("Ignoring unreadable asset manifest: " + manifest.file + " (" + e.getMessage() + ")");
+            manifest.entries.clear();
+        }
+        return manifest;
+    }
+
+    /**
+     * Checks a source against its entry. Returns null when the output is up to date, otherwise the
+     * entry to {@link #record} once the output has been written.
+     */
+    public Entry check(File source, String output)
+    {
+        long size = source.length();
+        long lastModified = source.lastModified();
+        Entry entry = entries.get(source.getName());
+        boolean current = entry != null
+                && entry.converterVersion == converterVersion
+                && entry.output.equals(output)
+                && new File(directory, output).exists();
+        if(current && entry.size == size && entry.lastModified == lastModified)
+            return null;
+
+        String hash = hash(source);
+        if(current && entry.size == size && entry.hash.equals(hash))
+        {
+            // touched but not changed, only the timestamp is new
+            entries.put(entry.source, new Entry(entry.source, size, lastModified, converterVersion, hash, output));
+            return null;
+        }
+        return new Entry(source.getName(), size, lastModified, converterVersion, hash, output);
+    }
+
+    public void record(Entry entry)
+    {
+        Entry previous = entries.put(entry.source, entry);
+        if(previous != null && !previous.output.equals(entry.output))
+            delete(previous.output);
+    }
+
+    /**
+     * Deletes the outputs of every entry whose source is no longer in {@code sources} and drops
+     * those entries. Returns the deleted output names.
+     */
+    public List<String> removeOrphans(Set<String> sources)
+    {
+        List<String> removed = new ArrayList<>();
+        for(Entry entry : entries.values())
+        {
+            if(sources.contains(entry.source))
+                continue;
+            entries.remove(entry.source);
+            delete(entry.output);
+            removed.add(entry.output);
+        }
+        return removed;
+    }
+
+    /**
+     * Writes the manifest next to itself and moves it over the old one, so a crash mid-write
+     * leaves the previous manifest behind instead of half a file.
+     */
+    public void save()
+    {
+        if (!directory.exists()) {
+            directory.mkdirs();
+        }
+
+        File temporary = new File(directory, FILE_NAME + ".tmp");
+        try
+        {
+            try(BufferedWriter writer = Files.newBufferedWriter(temporary.toPath(), StandardCharsets.UTF_8))
+            {
+                writer.write(HEADER);
+                writer.newLine();
+                for(Entry entry : entries.values())
+                {
+                    writer.write(entry.source + "\t" + entry.size + "\t" + entry.lastModified + "\t"
+                            + entry.converterVersion + "\t" + entry.hash + "\t" + entry.output);
+                    writer.newLine();
+                }
+            }
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch(IOException e)
+        {
+            throw new RuntimeException("Failed to save asset manifest: " + file, e);
+        }
+    }
+
+    public Entry getEntry(String source)
+    {
+        return entries.get(source);
+    }
+
+    public int size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * The line a converter prints after a run. Files that were neither converted, up to date nor
+     * failed weren't reached, the run stopped at a failure first.
+     */
+    public static String summary(String kind, int files, int converted, int upToDate, int failed, List<String> removed)
+    {
+        int skipped = files - converted - upToDate - failed;
+        return kind + ": " + converted + " converted, " + upToDate + " up to date, " + failed + " failed"
+                + (skipped > 0 ? ", " + skipped + " not reached" : "") + ", " + removed.size() + " removed " + removed;
+    }
+
+    /**
+     * SHA-256 of a file, read through a mapping so big sources don't go through the heap.
+     */
+    public static String hash(File source)
+    {
+        try(FileChannel channel = FileChannel.open(source.toPath(), StandardOpenOption.READ))
+        {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            long size = channel.size();
+            for(long position = 0; position < size; position += MAX_MAPPED_CHUNK)
+            {
+                MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAX_MAPPED_CHUNK, size - position));
+                digest.update(chunk);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        }
+        catch(IOException e)
+        {
+            throw new RuntimeException("Failed to hash asset: " + source.getAbsolutePath(), e);
+        }
+        catch(NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void delete(String output)
+    {
+        File orphan = new File(directory, output);
+        if(orphan.exists() && !orphan.delete())
+            System.err.println("Could not delete orphaned asset: " + orphan.getAbsolutePath());
+    }
+}
@@ -1,11 +1,12 @@
 package framework.io;
 
+import framework.textures.BlockCompressor;
+import framework.textures.MipmapGenerator;
+
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serial;
 import java.io.Serializable;
 
@@ -17,6 +18,7 @@ public class BufferTexture implements Serializable
     private int width;
     private int height;
     private String name;
+    private static boolean compression = true;
     public static final String TEXTURE_DIR = System.getProperty("user.home") + File.separator + "framework" + File.separator + "textures";
 
     public BufferTexture(String name, int width, int height)
@@ -31,6 +33,9 @@ public class BufferTexture implements Serializable
         return array;
     }
 
+    /**
+     * Writes the texture with its baked mip chain as a {@link TextureFile} into {@link #TEXTURE_DIR}.
+     */
     public void exportObject()
     {
         File directory = new File(TEXTURE_DIR);
@@ -38,30 +43,77 @@ public class BufferTexture implements Serializable
             directory.mkdirs();
         }
 
-        File file = new File(directory, name + ".ser");
-        try(ObjectOutputStream stream = new ObjectOutputStream(new FileOutputStream(file)))
+        File file = new File(directory, name + TextureFile.EXTENSION);
+        try
         {
-            stream.writeObject(this);
+            writeTextureFile(name, array, width, height, file);
         }
         catch(IOException e) {
-            throw new RuntimeException("Failed to export mesh: " + name, e);
+            throw new RuntimeException("Failed to export texture: " + name, e);
+        }
+    }
+
+    /**
+     * Bakes the mip chain of RGBA pixels and writes it as a {@link TextureFile}, block compressed
+     * (BC1, or BC3 for partial alpha) unless {@link #setCompression} turned that off.
+     */
+    public static void writeTextureFile(String name, int[] pixels, int width, int height, File file) throws IOException
+    {
+        int[][] levels = MipmapGenerator.generate(pixels, width, height);
+        if (!compression) {
+            TextureFile.write(name, levels, width, height, file);
+            return;
         }
+        BlockCompressor.Format format = BlockCompressor.chooseColorFormat(pixels);
+        byte[][] compressed = new byte[levels.length][];
+        for (int i = 0; i < levels.length; i++) {
+            compressed[i] = BlockCompressor.encode(levels[i], Math.max(1, width >> i), Math.max(1, height >> i), format);
+        }
+        TextureFile.writeCompressed(name, compressed, width, height, format.getInternalFormat(), file);
+    }
+
+    /**
+     * Whether baked textures are block compressed, on by default.
+     */
+    public static void setCompression(boolean compress)
+    {
+        compression = compress;
+    }
+
+    public static boolean isCompression()
+    {
+        return compression;
     }
 
     public static BufferTexture importObject(String fileName)
     {
         File file = new File(fileName);
         if (file.exists()) {
-            try(ObjectInputStream stream = new ObjectInputStream(new FileInputStream(file)))
+            try
             {
-                return (BufferTexture) stream.readObject();
+                return TextureFile.map(file).toBufferTexture();
             }
-            catch(IOException | ClassNotFoundException e)
+            catch(IOException e)
             {
-                throw new RuntimeException("Failed to import mesh from file: " + fileName, e);
+                throw new RuntimeException("Failed to import texture from file: " + fileName, e);
             }
         }
-        throw new RuntimeException("Failed to import mesh from file: " + fileName);
+        throw new RuntimeException("Failed to import texture from file: " + fileName);
+    }
+
+    /**
+     * Reads a texture that was exported with Java serialization, before {@link TextureFile}.
+     */
+    public static BufferTexture importSerialized(File file)
+    {
+        try(ObjectInputStream stream = new ObjectInputStream(new FileInputStream(file)))
+        {
+            return (BufferTexture) stream.readObject();
+        }
+        catch(IOException | ClassNotFoundException e)
+        {
+            throw new RuntimeException("Failed to import texture from file: " + file, e);
+        }
     }
 
     public void setArray(int[] array)
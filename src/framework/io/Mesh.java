@@ -2,10 +2,9 @@ package framework.io;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serial;
 import java.io.Serializable;
 
@@ -14,6 +13,8 @@ public class Mesh implements Serializable
     @Serial
     private static final long serialVersionUID = 1L;
     public static final String MESH_DIRECTORY = System.getProperty("user.home") + File.separator + "framework" + File.separator + "meshes";
+    // exported meshes interleave their attributes into one vertex buffer
+    private static boolean interleaving = true;
     private String name;
     public float[] positions;
     public float[] textures;
@@ -64,6 +65,25 @@ public class Mesh implements Serializable
         this.indices = indices;
     }
 
+    /**
+     * Whether exported meshes interleave their attributes, so {@link framework.loader.ModelLoader}
+     * uploads them into one vertex buffer instead of one per attribute. On by default.
+     */
+    public static void setInterleaving(boolean interleaving)
+    {
+        Mesh.interleaving = interleaving;
+    }
+
+    public static boolean isInterleaving()
+    {
+        return interleaving;
+    }
+
+    /**
+     * Writes the mesh as a {@link MeshFile} into {@link #MESH_DIRECTORY}, quantized where its bounds
+     * allow (see {@link VertexQuantization#MAX_POSITION_ERROR}) and interleaved unless
+     * {@link #setInterleaving} turned that off.
+     */
     public void exportObject()
     {
         File directory = new File(MESH_DIRECTORY);
@@ -71,39 +91,60 @@ public class Mesh implements Serializable
             directory.mkdirs();
         }
 
-        File file = new File(directory, name + ".ser");
-        try(ObjectOutputStream stream = new ObjectOutputStream(new FileOutputStream(file)))
+        File file = new File(directory, name + MeshFile.EXTENSION);
+        try
         {
-            stream.writeObject(this);
+            MeshFile.write(this, file, true, interleaving);
         }
         catch(IOException e) {
             throw new RuntimeException("Failed to export mesh: " + name, e);
         }
     }
 
+    /**
+     * Reads a {@link MeshFile} back into float arrays. The resource pool maps the files and
+     * uploads them directly instead, this is for code that wants to edit the mesh.
+     */
     public static Mesh importObject(String fileName)
     {
         File file = new File(fileName);
         if (file.exists()) {
-            try(ObjectInputStream stream = new ObjectInputStream(new FileInputStream(file)))
+            try
             {
-                return (Mesh) stream.readObject();
+                return MeshFile.map(file).toMesh();
             }
-            catch(IOException | ClassNotFoundException e)
+            catch(IOException e)
             {
                 throw new RuntimeException("Failed to import mesh from file: " + fileName, e);
             }
         }
 
         // Fallback to classpath resource
-        try(ObjectInputStream stream = new ObjectInputStream(Resources.class.getResourceAsStream(
-                "/framework/io/meshes/" + fileName)))
+        InputStream resource = Resources.class.getResourceAsStream("/framework/io/meshes/" + fileName);
+        if(resource == null)
+            throw new RuntimeException("Mesh not found in files or resources: " + fileName);
+        try(InputStream stream = resource)
+        {
+            return MeshFile.read(stream).toMesh();
+        }
+        catch(IOException e)
+        {
+            throw new RuntimeException("Failed to import mesh from resources: " + fileName + "\nCouldn't parse the mesh file.", e);
+        }
+    }
+
+    /**
+     * Reads a mesh that was exported with Java serialization, before {@link MeshFile}.
+     */
+    public static Mesh importSerialized(File file)
+    {
+        try(ObjectInputStream stream = new ObjectInputStream(new FileInputStream(file)))
         {
             return (Mesh) stream.readObject();
         }
         catch(IOException | ClassNotFoundException e)
         {
-            throw new RuntimeException("Failed to import mesh from resources: " + fileName + "\nCouldn't parse the serialized file.", e);
+            throw new RuntimeException("Failed to import mesh from file: " + file, e);
         }
     }
 
@@ -0,0 +1,646 @@
+package framework.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Binary mesh container, the replacement for the serialized {@link Mesh} files.
+ * <p>
+ * Everything is little-endian and every array starts on a {@value #ALIGNMENT} byte boundary, so a
+ * mapped file can be handed to {@code glBufferData} slice by slice without copying. The arrays are
+ * floats, or the 16 bit layout of {@link VertexQuantization} with unsigned short indices. Positions
+ * are {@code offset + position * scale} either way, offset 0 and scale 1 for floats.
+ * <p>
+ * The attributes are either one array each, or interleaved into a single block of {@code stride}
+ * bytes per vertex that goes into one vertex buffer. Interleaved attributes start on 4 byte
+ * boundaries within the vertex, their descriptor offset is the one within the vertex. Version 1
+ * files have no position offset and scale, version 2 files are never interleaved.
+ * <pre>
+ *  0  int    magic "FMSH"
+ *  4  short  version
+ *  6  short  attribute count
+ *  8  int    vertex count
+ * 12  int    index count
+ * 16  int    index type (GL enum)
+ * 20  int    index offset
+ * 24  int    index byte length
+ * 28  int    name byte length
+ * 32  float  position offset x, y, z
+ * 44  float  position scale x, y, z
+ * 56  int    vertex stride, 0 when not interleaved
+ * 60  int    vertex offset
+ * 64  int    vertex byte length
+ * 68  ...    name (UTF-8)
+ *     ...    attribute descriptors, 16 bytes each:
+ *            byte location, byte components, byte normalized, byte reserved,
+ *            int type (GL enum), int offset, int byte length
+ *     ...    aligned arrays
+ * </pre>
+ */
+public final class MeshFile
+{
+    public static final String EXTENSION = ".mesh";
+    public static final int MAGIC = 'F' | 'M' << 8 | 'S' << 16 | 'H' << 24;
+    public static final int VERSION = 3;
+    public static final int ALIGNMENT = 16;
+
+    // attribute locations, the same ones ModelLoader binds
+    public static final int POSITION = 0;
+    public static final int TEXTURE = 1;
+    public static final int NORMAL = 2;
+
+    // the GL enums, without pulling GL into the io package
+    public static final int GL_FLOAT = 0x1406;
+    public static final int GL_UNSIGNED_INT = 0x1405;
+    public static final int GL_SHORT = 0x1402;
+    public static final int GL_UNSIGNED_SHORT = 0x1403;
+    public static final int GL_HALF_FLOAT = 0x140B;
+
+    private static final int HEADER_SIZE = 68;
+    private static final int VERSION_1_HEADER_SIZE = 32;
+    private static final int VERSION_2_HEADER_SIZE = 56;
+    private static final int DESCRIPTOR_SIZE = 16;
+    private static final int MAX_ATTRIBUTES = 16;
+
+    private final ByteBuffer data;
+    private final String name;
+    private final int vertexCount;
+    private final int indexCount;
+    private final int indexType;
+    private final int indexOffset;
+    private final int indexLength;
+    private final int stride;
+    private final int vertexOffset;
+    private final int vertexLength;
+    private final float[] positionOffset = {0, 0, 0};
+    private final float[] positionScale = {1, 1, 1};
+    private final Attribute[] attributes;
+
+    public static final class Attribute
+    {
+        public final int location;
+        public final int components;
+        public final boolean normalized;
+        public final int type;
+        final int offset;
+        final int length;
+
+        Attribute(int location, int components, boolean normalized, int type, int offset, int length)
+        {
+            this.location = location;
+            this.components = components;
+            this.normalized = normalized;
+            this.type = type;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public int getByteLength()
+        {
+            return length;
+        }
+
+        /**
+         * Where the attribute starts within a vertex of an interleaved file.
+         */
+        public int getVertexOffset()
+        {
+            return offset;
+        }
+
+        /**
+         * Bytes of one component, 4 for floats and 2 for the quantized types.
+         */
+        public int getElementSize()
+        {
+            return type == GL_FLOAT || type == GL_UNSIGNED_INT ? 4 : 2;
+        }
+
+        // bytes of the attribute in one vertex
+        int getPackedSize()
+        {
+            return components * getElementSize();
+        }
+    }
+
+    private MeshFile(ByteBuffer data) throws IOException
+    {
+        this.data = data.order(ByteOrder.LITTLE_ENDIAN);
+        if(data.remaining() < HEADER_SIZE || data.getInt(0) != MAGIC)
+            throw new IOException("Not a mesh file");
+        int version = data.getShort(4) & 0xFFFF;
+        if(version < 1 || version > VERSION)
+            throw new IOException("Unsupported mesh version: " + version);
+        int headerSize = version == 1 ? VERSION_1_HEADER_SIZE : version == 2 ? VERSION_2_HEADER_SIZE : HEADER_SIZE;
+
+        int attributeCount = data.getShort(6) & 0xFFFF;
+        vertexCount = data.getInt(8);
+        indexCount = data.getInt(12);
+        indexType = data.getInt(16);
+        indexOffset = data.getInt(20);
+        indexLength = data.getInt(24);
+        int nameLength = data.getInt(28);
+        if(attributeCount > MAX_ATTRIBUTES || nameLength < 0 || headerSize + nameLength > data.limit())
+            throw new IOException("Corrupt mesh header");
+        if(version != 1)
+        {
+            for(int axis = 0; axis < 3; axis++)
+            {
+                positionOffset[axis] = data.getFloat(32 + axis * 4);
+                positionScale[axis] = data.getFloat(44 + axis * 4);
+            }
+        }
+        stride = version < 3 ? 0 : data.getInt(56);
+        vertexOffset = version < 3 ? 0 : data.getInt(60);
+        vertexLength = version < 3 ? 0 : data.getInt(64);
+
+        byte[] nameBytes = new byte[nameLength];
+        data.get(headerSize, nameBytes);
+        name = new String(nameBytes, StandardCharsets.UTF_8);
+
+        attributes = new Attribute[attributeCount];
+        int descriptor = headerSize + nameLength;
+        for(int i = 0; i < attributeCount; i++, descriptor += DESCRIPTOR_SIZE)
+        {
+            attributes[i] = new Attribute(
+                    data.get(descriptor),
+                    data.get(descriptor + 1),
+                    data.get(descriptor + 2) != 0,
+                    data.getInt(descriptor + 4),
+                    data.getInt(descriptor + 8),
+                    data.getInt(descriptor + 12));
+            if(stride == 0)
+                checkRange(attributes[i].offset, attributes[i].length);
+            else if(attributes[i].length != 0 && !inVertex(attributes[i]))
+                throw new IOException("Corrupt mesh file, attribute outside the vertex");
+        }
+        if(stride < 0 || (long) stride * vertexCount != vertexLength)
+            throw new IOException("Corrupt mesh file, vertex stride doesn't match");
+        checkRange(vertexOffset, vertexLength);
+        checkRange(indexOffset, indexLength);
+    }
+
+    // an interleaved attribute lies within the stride and has one element per vertex, empty ones are skipped
+    private boolean inVertex(Attribute attribute)
+    {
+        int packed = attribute.getPackedSize();
+        return attribute.offset >= 0 && attribute.offset + packed <= stride && (long) packed * vertexCount == attribute.length;
+    }
+
+    /**
+     * Maps a mesh file read-only. Nothing but the header is read until the arrays are used.
+     */
+    public static MeshFile map(File file) throws IOException
+    {
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            long size = channel.size();
+            if(size > Integer.MAX_VALUE)
+                throw new IOException("Mesh file is too large to map: " + file);
+            return new MeshFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    public static MeshFile read(ByteBuffer buffer) throws IOException
+    {
+        return new MeshFile(buffer.slice());
+    }
+
+    public static MeshFile read(InputStream stream) throws IOException
+    {
+        byte[] bytes = stream.readAllBytes();
+        return new MeshFile(ByteBuffer.allocateDirect(bytes.length).put(bytes).flip());
+    }
+
+    public static void write(Mesh mesh, File file) throws IOException
+    {
+        write(mesh, file, false, false);
+    }
+
+    public static void write(Mesh mesh, File file, boolean quantize) throws IOException
+    {
+        write(mesh, file, quantize, false);
+    }
+
+    /**
+     * Writes the mesh with float arrays, or in the layout of {@link VertexQuantization} when
+     * {@code quantize} (positions only where they fit {@link VertexQuantization#MAX_POSITION_ERROR}). The attributes are interleaved into one block when {@code interleave}.
+     */
+    public static void write(Mesh mesh, File file, boolean quantize, boolean interleave) throws IOException
+    {
+        ByteBuffer buffer = encode(mesh, quantize, interleave);
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            while(buffer.hasRemaining())
+                channel.write(buffer);
+        }
+    }
+
+    public static ByteBuffer encode(Mesh mesh)
+    {
+        return encode(mesh, false, false);
+    }
+
+    public static ByteBuffer encode(Mesh mesh, boolean quantize)
+    {
+        return encode(mesh, quantize, false);
+    }
+
+    /**
+     * Lays a mesh out in the file format, the returned buffer is flipped and ready to write. A mesh
+     * whose attribute arrays don't all have one entry per vertex isn't interleaved, whatever
+     * {@code interleave} says.
+     */
+    public static ByteBuffer encode(Mesh mesh, boolean quantize, boolean interleave)
+    {
+        byte[] nameBytes = mesh.getName().getBytes(StandardCharsets.UTF_8);
+        float[] positions = orEmpty(mesh.getPositions());
+        float[] textures = orEmpty(mesh.getTextures());
+        float[] normals = orEmpty(mesh.getNormals());
+        int vertexCount = positions.length / 3;
+        int[] indices = mesh.getIndices();
+
+        // float[] or short[] per attribute location
+        Object[] arrays = {positions, textures, normals};
+        int[] components = {3, 2, 3};
+        int[] types = {GL_FLOAT, GL_FLOAT, GL_FLOAT};
+        boolean[] normalized = {false, false, false};
+        float[] transform = {0, 0, 0, 1, 1, 1};
+        if(quantize)
+        {
+            // decided per mesh, one whose bounds are too large for a 16 bit step keeps float positions
+            float[] bounds = VertexQuantization.bounds(positions);
+            if(VertexQuantization.positionError(bounds) <= VertexQuantization.MAX_POSITION_ERROR)
+            {
+                transform = bounds;
+                arrays[POSITION] = VertexQuantization.quantizePositions(positions, transform);
+                types[POSITION] = GL_SHORT;
+                normalized[POSITION] = true;
+            }
+
+            boolean unit = VertexQuantization.isUnitRange(textures);
+            if(unit || VertexQuantization.isHalfRange(textures))
+            {
+                arrays[TEXTURE] = VertexQuantization.quantizeTextures(textures, unit);
+                types[TEXTURE] = unit ? GL_UNSIGNED_SHORT : GL_HALF_FLOAT;
+                normalized[TEXTURE] = unit;
+            }
+
+            arrays[NORMAL] = VertexQuantization.encodeNormals(normals);
+            components[NORMAL] = 2;
+            types[NORMAL] = GL_SHORT;
+            normalized[NORMAL] = true;
+        }
+        boolean shortIndices = quantize && vertexCount <= VertexQuantization.MAX_SHORT_INDEXED;
+        int indexLength = indices.length * (shortIndices ? Short.BYTES : Integer.BYTES);
+
+        int[] lengths = new int[arrays.length];
+        for(int i = 0; i < arrays.length; i++)
+        {
+            lengths[i] = byteLength(arrays[i]);
+            int expected = vertexCount * components[i];
+            if(lengths[i] != 0 && (arrays[i] instanceof short[] shorts ? shorts.length : ((float[]) arrays[i]).length) != expected)
+                interleave = false;
+        }
+
+        int offset = align(HEADER_SIZE + nameBytes.length + arrays.length * DESCRIPTOR_SIZE);
+        int[] offsets = new int[arrays.length];
+        int stride = 0;
+        int vertexOffset = offset;
+        for(int i = 0; i < arrays.length; i++)
+        {
+            if(interleave)
+            {
+                // within the vertex, every attribute on a 4 byte boundary
+                offsets[i] = stride;
+                if(lengths[i] != 0)
+                    stride += (lengths[i] / vertexCount + 3) & -4;
+            }
+            else
+            {
+                offsets[i] = offset;
+                offset = align(offset + lengths[i]);
+            }
+        }
+        int vertexLength = stride * vertexCount;
+        if(interleave)
+            offset = align(vertexOffset + vertexLength);
+        else
+            vertexOffset = 0;
+        int indexOffset = offset;
+        int size = indexOffset + indexLength;
+
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC)
+                .putShort((short) VERSION)
+                .putShort((short) arrays.length)
+                .putInt(vertexCount)
+                .putInt(indices.length)
+                .putInt(shortIndices ? GL_UNSIGNED_SHORT : GL_UNSIGNED_INT)
+                .putInt(indexOffset)
+                .putInt(indexLength)
+                .putInt(nameBytes.length);
+        for(float value : transform)
+            buffer.putFloat(value);
+        buffer.putInt(stride)
+                .putInt(vertexOffset)
+                .putInt(vertexLength);
+        buffer.put(nameBytes);
+        for(int i = 0; i < arrays.length; i++)
+        {
+            buffer.put((byte) i)
+                    .put((byte) components[i])
+                    .put((byte) (normalized[i] ? 1 : 0))
+                    .put((byte) 0)
+                    .putInt(types[i])
+                    .putInt(lengths[i] == 0 ? 0 : offsets[i])
+                    .putInt(lengths[i]);
+        }
+        for(int i = 0; i < arrays.length; i++)
+        {
+            if(interleave)
+            {
+                if(lengths[i] != 0)
+                    interleave(buffer, arrays[i], components[i], vertexOffset + offsets[i], stride);
+            }
+            else if(arrays[i] instanceof short[] shorts)
+                buffer.position(offsets[i]).asShortBuffer().put(shorts);
+            else
+                buffer.position(offsets[i]).asFloatBuffer().put((float[]) arrays[i]);
+        }
+        if(shortIndices)
+        {
+            ShortBuffer target = buffer.position(indexOffset).asShortBuffer();
+            for(int index : indices)
+                target.put((short) index);
+        }
+        else
+            buffer.position(indexOffset).asIntBuffer().put(indices);
+        return buffer.position(0);
+    }
+
+    // one attribute into every vertex, starting at its offset in the first one
+    private static void interleave(ByteBuffer buffer, Object array, int components, int offset, int stride)
+    {
+        if(array instanceof short[] shorts)
+        {
+            for(int i = 0; i < shorts.length; i++)
+                buffer.putShort(offset + i / components * stride + i % components * Short.BYTES, shorts[i]);
+        }
+        else
+        {
+            float[] floats = (float[]) array;
+            for(int i = 0; i < floats.length; i++)
+                buffer.putFloat(offset + i / components * stride + i % components * Float.BYTES, floats[i]);
+        }
+    }
+
+    /**
+     * Faults the whole mapped file into memory, so a later upload doesn't wait on the disk. Meant for
+     * a loader thread, does nothing for a file that wasn't mapped.
+     */
+    public MeshFile load()
+    {
+        if(data instanceof MappedByteBuffer mapped)
+            mapped.load();
+        return this;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public int getVertexCount()
+    {
+        return vertexCount;
+    }
+
+    public int getIndexCount()
+    {
+        return indexCount;
+    }
+
+    public int getIndexByteLength()
+    {
+        return indexLength;
+    }
+
+    public int getIndexType()
+    {
+        return indexType;
+    }
+
+    public Attribute[] getAttributes()
+    {
+        return attributes;
+    }
+
+    public boolean isInterleaved()
+    {
+        return stride != 0;
+    }
+
+    /**
+     * Bytes from one vertex to the next in {@link #getVertexData()}, 0 when not interleaved.
+     */
+    public int getStride()
+    {
+        return stride;
+    }
+
+    /**
+     * What the attributes take in vertex buffers, padding between interleaved attributes included.
+     */
+    public int getVertexByteLength()
+    {
+        if(stride != 0)
+            return vertexLength;
+        int bytes = 0;
+        for(Attribute attribute : attributes)
+            bytes += attribute.length;
+        return bytes;
+    }
+
+    /**
+     * Every vertex of an interleaved file, ready for {@code glBufferData} like {@link #getData}.
+     */
+    public ByteBuffer getVertexData()
+    {
+        if(stride == 0)
+            throw new IllegalStateException("Mesh is not interleaved: " + name);
+        ByteBuffer slice = data.slice(vertexOffset, vertexLength).order(ByteOrder.LITTLE_ENDIAN);
+        if(ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN && slice.isDirect())
+            return slice;
+
+        ByteBuffer copy = ByteBuffer.allocateDirect(vertexLength).order(ByteOrder.nativeOrder());
+        for(Attribute attribute : attributes)
+        {
+            int size = attribute.getElementSize();
+            for(int vertex = 0; vertex < attribute.length / attribute.getPackedSize(); vertex++)
+            {
+                for(int i = vertex * stride + attribute.offset, end = i + attribute.getPackedSize(); i < end; i += size)
+                {
+                    if(size == Short.BYTES)
+                        copy.putShort(i, slice.getShort(i));
+                    else
+                        copy.putInt(i, slice.getInt(i));
+                }
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * What the shader adds to the positions after scaling them, 0 unless the mesh is quantized.
+     */
+    public float[] getPositionOffset()
+    {
+        return positionOffset.clone();
+    }
+
+    /**
+     * What the shader scales the positions by, 1 unless the mesh is quantized.
+     */
+    public float[] getPositionScale()
+    {
+        return positionScale.clone();
+    }
+
+    public Attribute getAttribute(int location)
+    {
+        for(Attribute attribute : attributes)
+        {
+            if(attribute.location == location)
+                return attribute;
+        }
+        return null;
+    }
+
+    /**
+     * The bytes of an attribute, in native order and ready for {@code glBufferData}. On a
+     * little-endian machine this is a slice of the mapped file, for an interleaved file a copy
+     * of the attribute out of every vertex.
+     */
+    public ByteBuffer getData(Attribute attribute)
+    {
+        return toNative(packed(attribute), attribute.getElementSize());
+    }
+
+    public ByteBuffer getIndices()
+    {
+        ByteBuffer slice = data.slice(indexOffset, indexLength).order(ByteOrder.LITTLE_ENDIAN);
+        return toNative(slice, indexType == GL_UNSIGNED_SHORT ? Short.BYTES : Integer.BYTES);
+    }
+
+    /**
+     * Copies the arrays back into a heap {@link Mesh}, for the code that still wants float arrays.
+     * Quantized arrays are decoded the way the GPU reads them.
+     */
+    public Mesh toMesh()
+    {
+        Mesh mesh = new Mesh(name);
+        mesh.setPositions(toFloats(getAttribute(POSITION)));
+        mesh.setTextures(toFloats(getAttribute(TEXTURE)));
+        mesh.setNormals(toFloats(getAttribute(NORMAL)));
+        int[] indices = new int[indexCount];
+        ByteBuffer indexData = data.slice(indexOffset, indexLength).order(ByteOrder.LITTLE_ENDIAN);
+        if(indexType == GL_UNSIGNED_SHORT)
+        {
+            for(int i = 0; i < indexCount; i++)
+                indices[i] = indexData.getShort(i * Short.BYTES) & 0xFFFF;
+        }
+        else
+            indexData.asIntBuffer().get(indices);
+        mesh.setIndices(indices);
+        return mesh;
+    }
+
+    private float[] toFloats(Attribute attribute)
+    {
+        if(attribute == null)
+            return new float[0];
+        ByteBuffer slice = packed(attribute);
+        if(attribute.type == GL_FLOAT)
+        {
+            float[] array = new float[attribute.length / Float.BYTES];
+            slice.asFloatBuffer().get(array);
+            return array;
+        }
+
+        short[] shorts = new short[attribute.length / Short.BYTES];
+        slice.asShortBuffer().get(shorts);
+        if(attribute.location == NORMAL && attribute.components == 2)
+            return VertexQuantization.decodeNormals(shorts);
+        if(attribute.type == GL_SHORT && attribute.normalized)
+        {
+            float[] transform = new float[6];
+            System.arraycopy(positionOffset, 0, transform, 0, 3);
+            System.arraycopy(positionScale, 0, transform, 3, 3);
+            return VertexQuantization.dequantizePositions(shorts, transform);
+        }
+        if(attribute.type == GL_UNSIGNED_SHORT || attribute.type == GL_HALF_FLOAT)
+            return VertexQuantization.dequantizeTextures(shorts, attribute.type == GL_UNSIGNED_SHORT);
+        throw new IllegalStateException("Can't decode attribute " + attribute.location + " of " + name + ", type " + attribute.type);
+    }
+
+    // the attribute on its own and little-endian, gathered out of the vertices when interleaved
+    private ByteBuffer packed(Attribute attribute)
+    {
+        if(stride == 0)
+            return data.slice(attribute.offset, attribute.length).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer packed = ByteBuffer.allocate(attribute.length).order(ByteOrder.LITTLE_ENDIAN);
+        int size = attribute.getPackedSize();
+        for(int vertex = 0; vertex < attribute.length / size; vertex++)
+            packed.put(vertex * size, data, vertexOffset + vertex * stride + attribute.offset, size);
+        return packed;
+    }
+
+    // a little-endian buffer as it is when GL can read it, otherwise swapped into a direct one
+    private static ByteBuffer toNative(ByteBuffer slice, int elementSize)
+    {
+        if(ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN && slice.isDirect())
+            return slice;
+
+        int length = slice.remaining();
+        ByteBuffer copy = ByteBuffer.allocateDirect(length).order(ByteOrder.nativeOrder());
+        for(int i = 0; i < length; i += elementSize)
+        {
+            if(elementSize == Short.BYTES)
+                copy.putShort(i, slice.getShort(i));
+            else
+                copy.putInt(i, slice.getInt(i));
+        }
+        return copy;
+    }
+
+    private void checkRange(int offset, int length) throws IOException
+    {
+        if(offset < 0 || length < 0 || offset + length > data.limit() || offset + length < 0)
+            throw new IOException("Corrupt mesh file, array out of range");
+    }
+
+    private static float[] orEmpty(float[] array)
+    {
+        return array == null ? new float[0] : array;
+    }
+
+    private static int byteLength(Object array)
+    {
+        return array instanceof short[] shorts ? shorts.length * Short.BYTES : ((float[]) array).length * Float.BYTES;
+    }
+
+    private static int align(int offset)
+    {
+        return (offset + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+}
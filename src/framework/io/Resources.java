@@ -1,32 +1,103 @@
 package framework.io;
 
+import framework.environment.Engine;
 import framework.loader.ModelLoader;
 import framework.loader.TextureLoader;
 import framework.model.Model;
 import framework.textures.Texture;
 
 import java.io.File;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static framework.io.BufferTexture.TEXTURE_DIR;
 
+/**
+ * The loaded meshes and textures, by name.
+ * <p>
+ * {@link #createResourcePool()} only lists the asset directories and returns. Every file is read on
+ * its own virtual thread and the finished data is handed to the GL thread through
+ * {@link Engine#mainExecute}, which uploads as much as fits in its per-frame budget. Until then
+ * {@link #getModel} and {@link #getTexture} hand out placeholders (vao 0 / texture 0) that are
+ * filled in place once the upload ran, so they can be put into a {@link framework.model.TexturedModel}
+ * right away. The futures complete on the GL thread after the upload.
+ * <p>
+ * Everything goes through an {@link AssetCache}: with {@link #setMemoryBudget} set, assets that no
+ * {@link framework.model.TexturedModel} in use holds are unloaded least recently used first, and
+ * loaded again the next time they are asked for.
+ */
 public final class Resources
 {
+    private static final String MESH = "mesh/";
+    private static final String TEXTURE = "texture/";
+
     private static Class<?> resourceField = Resources.class;
 
-    private static Map<String, Model> meshTable;
-    private static Map<String, Texture> textureTable;
+    private static final AssetCache cache = new AssetCache(Engine::mainExecute);
+    private static ExecutorService loader;
 
     public static Model getModel(String name)
 
     {
-        return meshTable.get(name);
+        return cache.get(MESH + name);
     }
 
     public static Texture getTexture(String name)
     {
-        return textureTable.get(name);
+        return cache.get(TEXTURE + name);
+    }
+
+    /**
+     * Completes with the model once it is on the GPU, null if there is no mesh of that name.
+     */
+    public static CompletableFuture<Model> getModelFuture(String name)
+    {
+        return cache.getFuture(MESH + name);
+    }
+
+    public static CompletableFuture<Texture> getTextureFuture(String name)
+    {
+        return cache.getFuture(TEXTURE + name);
+    }
+
+    /**
+     * Keeps a model or texture from being evicted until it is released again. Anything that isn't
+     * from the pool (like {@link #emptyTexture()}) is ignored.
+     */
+    public static void retain(Object asset)
+    {
+        cache.retain(asset);
+    }
+
+    public static void release(Object asset)
+    {
+        cache.release(asset);
+    }
+
+    /**
+     * Estimated GPU bytes the pool may keep resident, unlimited by default.
+     */
+    public static void setMemoryBudget(long bytes)
+    {
+        cache.setBudget(bytes);
+    }
+
+    /**
+     * The budget, resident bytes and hit/miss/eviction counters.
+     */
+    public static AssetCache getCache()
+    {
+        return cache;
+    }
+
+    /**
+     * Assets that are still being read or waiting for their upload.
+     */
+    public static int getPendingCount()
+    {
+        return cache.getPendingCount();
     }
 
     public static Class<?> getClassResource()
@@ -36,51 +107,120 @@ public final class Resources
 
     public static void createResourcePool()
     {
-        meshTable = new HashMap<>();
-        textureTable = new HashMap<>();
-
-        File textureDir = new File(System.getProperty("user.home") + File.separator + "framework" + File.separator + "textures");
-        System.out.println(textureDir.getAbsolutePath());
-        if (!textureDir.exists()) {
-            System.out.println("Mesh directory does not exist.");
-            return;
+        if (loader == null) {
+            loader = Executors.newVirtualThreadPerTaskExecutor();
         }
 
-        File[] files = textureDir.listFiles((dir, name) -> name.toLowerCase().endsWith(".ser"));
+        File textureDir = new File(TEXTURE_DIR);
+        System.out.println(textureDir.getAbsolutePath());
+        File[] files = textureDir.listFiles((dir, name) -> name.toLowerCase().endsWith(TextureFile.EXTENSION));
         if (files == null || files.length == 0) {
             System.out.println("No Texture files found in: " + TEXTURE_DIR);
-            return;
+        } else {
+            for (File file : files) {
+                cache.register(TEXTURE + baseName(file), new Texture(0), file, TEXTURES);
+            }
         }
 
-        for (File file : files) {
-            String fileName = file.getName();
-            String meshName = fileName.substring(0, fileName.lastIndexOf('.'));
+        // meshes
 
-            BufferTexture texture = BufferTexture.importObject(file.getAbsolutePath());
-            textureTable.put(texture.getName(), TextureLoader.loadBuffer(texture));
+        File meshDir = new File(Mesh.MESH_DIRECTORY);
+        files = meshDir.listFiles((dir, name) -> name.toLowerCase().endsWith(MeshFile.EXTENSION));
+        if (files == null || files.length == 0) {
+            System.out.println("No mesh files found in: " + Mesh.MESH_DIRECTORY);
+        } else {
+            for (File file : files) {
+                cache.register(MESH + baseName(file), new Model(0, 0), file, MESHES);
+            }
         }
+    }
 
+    private static final AssetCache.Loader<Texture> TEXTURES = new AssetCache.Loader<>()
+    {
+        @Override
+        public void load(AssetCache cache, AssetCache.Entry<Texture> entry)
+        {
+            File file = entry.getSource();
+            loader.execute(() -> {
+                TextureFile texture;
+                try {
+                    texture = TextureFile.map(file).load();
+                } catch (IOException | RuntimeException e) {
+                    cache.failed(entry, new RuntimeException("Failed to import texture from file: " + file.getAbsolutePath(), e));
+                    return;
+                }
+                Engine.mainExecute(() -> {
+                    try {
+                        Texture loaded = TextureLoader.loadTextureFile(texture);
+                        entry.getHandle().setHandles(loaded.getHandles());
+                        entry.getHandle().setTextureID(loaded.getTextureId());
+                    } catch (RuntimeException e) {
+                        cache.failed(entry, e);
+                        return;
+                    }
+                    long bytes = 0;
+                    for (int level = 0; level < TextureLoader.uploadedLevels(texture); level++) {
+                        bytes += texture.getLevel(level).remaining();
+                    }
+                    cache.loaded(entry, bytes);
+                });
+            });
+        }
 
-        // meshes
-
-        File meshDir = new File(System.getProperty("user.home") + File.separator + "framework" + File.separator + "meshes");
-
-        files = meshDir.listFiles((dir, name) -> name.toLowerCase().endsWith(".ser"));
-        if (files == null || files.length == 0) {
-            System.out.println("No OBJ files found in: " + Mesh.MESH_DIRECTORY);
-            return;
+        @Override
+        public void unload(Texture texture)
+        {
+            ModelLoader.deleteTexture(texture);
         }
+    };
 
-        for (File file : files) {
-            String fileName = file.getName();
-            String meshName = fileName.substring(0, fileName.lastIndexOf('.'));
+    private static final AssetCache.Loader<Model> MESHES = new AssetCache.Loader<>()
+    {
+        @Override
+        public void load(AssetCache cache, AssetCache.Entry<Model> entry)
+        {
+            File file = entry.getSource();
+            loader.execute(() -> {
+                MeshFile mesh;
+                try {
+                    mesh = MeshFile.map(file).load();
+                } catch (IOException | RuntimeException e) {
+                    cache.failed(entry, new RuntimeException("Failed to import mesh from file: " + file.getAbsolutePath(), e));
+                    return;
+                }
+                Engine.mainExecute(() -> {
+                    Model model;
+                    try {
+                        model = ModelLoader.loadToVaoInt(mesh);
+                    } catch (RuntimeException e) {
+                        cache.failed(entry, e);
+                        return;
+                    }
+                    // vertex count first, a renderer that sees the vao must also see what to draw
+                    Model placeholder = entry.getHandle();
+                    placeholder.setHandle(model.getHandle());
+                    placeholder.setVertexCount(model.getVertexCount());
+                    placeholder.setIndexType(model.getIndexType());
+                    placeholder.setPositionTransform(model.getPositionOffset(), model.getPositionScale());
+                    placeholder.setVaoId(model.getVaoId());
+
+                    cache.loaded(entry, (long) mesh.getIndexByteLength() + mesh.getVertexByteLength());
+                    System.out.println("Processed and imported: " + mesh.getName() + "\nModel ID: " + model.getVaoId() + " Count: " + model.getVertexCount());
+                });
+            });
+        }
 
-            Mesh mesh = Mesh.importObject(file.getAbsolutePath());
-            Model model;
-            meshTable.put(mesh.getName(), model = ModelLoader.loadToVaoInt(mesh.positions, mesh.textures, mesh.normals, mesh.indices));
-            System.out.println("Processed and imported: " + meshName + "\nModel ID: " + model.getVaoId() + " Count: " + model.getVertexCount());
+        @Override
+        public void unload(Model model)
+        {
+            ModelLoader.deleteModel(model);
         }
+    };
 
+    private static String baseName(File file)
+    {
+        String fileName = file.getName();
+        return fileName.substring(0, fileName.lastIndexOf('.'));
     }
 
     public static Texture emptyTexture()
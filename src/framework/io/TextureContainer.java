@@ -0,0 +1,481 @@
+package framework.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A KTX2 or DDS file made by an external tool (toktx, texconv, compressonator...), mapped and
+ * indexed like a {@link TextureFile}: only the headers are parsed, every image is a slice of the
+ * file that goes to {@code glTexImage2D} or {@code glCompressedTexImage2D} as it is.
+ * <p>
+ * 2D textures and cube maps with their mip chains. Texture arrays, 3D textures and supercompressed
+ * KTX2 files (Basis, zstd) aren't supported, neither are formats without a GL equivalent here.
+ * Cube faces are in GL order, {@code +X, -X, +Y, -Y, +Z, -Z}, whatever order the file keeps them in.
+ * Nothing in here needs GL, the formats are the GL enums.
+ */
+public final class TextureContainer
+{
+    // «KTX 20»\r\n\x1A\n
+    private static final byte[] KTX2_IDENTIFIER = {
+            (byte) 0xAB, 'K', 'T', 'X', ' ', '2', '0', (byte) 0xBB, '\r', '\n', 0x1A, '\n'
+    };
+    private static final int KTX2_HEADER_SIZE = 80;
+    private static final int KTX2_LEVEL_SIZE = 24;
+
+    private static final int DDS_MAGIC = 'D' | 'D' << 8 | 'S' << 16 | ' ' << 24;
+    private static final int DDS_HEADER_SIZE = 128;
+    private static final int DDS_DX10_HEADER_SIZE = 148;
+    private static final int DDSD_MIPMAPCOUNT = 0x20000;
+    private static final int DDPF_ALPHAPIXELS = 0x1;
+    private static final int DDPF_FOURCC = 0x4;
+    private static final int DDPF_RGB = 0x40;
+    private static final int DDSCAPS2_CUBEMAP = 0x200;
+    private static final int DDSCAPS2_CUBEMAP_ALLFACES = 0xFC00;
+    private static final int DDSCAPS2_VOLUME = 0x200000;
+    private static final int DDS_RESOURCE_MISC_TEXTURECUBE = 0x4;
+    private static final int DDS_DIMENSION_TEXTURE2D = 3;
+
+    // the GL enums, without pulling GL into the io package
+    public static final int GL_RED = 0x1903;
+    public static final int GL_RG = 0x8227;
+    public static final int GL_RGB = 0x1907;
+    public static final int GL_RGBA = TextureFile.GL_RGBA;
+    public static final int GL_BGRA = 0x80E1;
+    public static final int GL_UNSIGNED_BYTE = TextureFile.GL_UNSIGNED_BYTE;
+    public static final int GL_HALF_FLOAT = 0x140B;
+    public static final int GL_FLOAT = 0x1406;
+
+    private final ByteBuffer data;
+    private final boolean ktx2;
+    private final int width;
+    private final int height;
+    private final int levels;
+    private final int faces;
+    private final int internalFormat;
+    private final int format;
+    private final int type;
+    // bytes of a 4x4 block when compressed, of a texel otherwise
+    private final int bytes;
+    // offset and byte length of every image, level * faces + face
+    private final int[] offsets;
+    private final int[] lengths;
+
+    private TextureContainer(ByteBuffer data, boolean ktx2, int width, int height, int levels, int faces, int[] glFormat)
+    {
+        this.data = data;
+        this.ktx2 = ktx2;
+        this.width = width;
+        this.height = height;
+        this.levels = levels;
+        this.faces = faces;
+        this.internalFormat = glFormat[0];
+        this.format = glFormat[1];
+        this.type = glFormat[2];
+        this.bytes = glFormat[3];
+        this.offsets = new int[levels * faces];
+        this.lengths = new int[levels * faces];
+    }
+
+    /**
+     * Maps a KTX2 or DDS file read-only, which one it is comes from its first bytes.
+     */
+    public static TextureContainer map(File file) throws IOException
+    {
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            long size = channel.size();
+            if(size > Integer.MAX_VALUE)
+                throw new IOException("Texture file is too large to map: " + file);
+            return wrap(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    /**
+     * Reads a whole stream into a direct buffer, for files that can't be mapped like the ones
+     * inside a jar.
+     */
+    public static TextureContainer read(InputStream in) throws IOException
+    {
+        byte[] bytes = in.readAllBytes();
+        return wrap(ByteBuffer.allocateDirect(bytes.length).put(bytes).flip());
+    }
+
+    /**
+     * Indexes a KTX2 or DDS file that is already in memory, the images stay slices of {@code data}.
+     */
+    public static TextureContainer wrap(ByteBuffer data) throws IOException
+    {
+        data = data.slice().order(ByteOrder.LITTLE_ENDIAN);
+        if(isKTX2(data))
+            return parseKTX2(data);
+        if(data.remaining() >= 4 && data.getInt(0) == DDS_MAGIC)
+            return parseDDS(data);
+        throw new IOException("Neither a KTX2 nor a DDS file");
+    }
+
+    private static boolean isKTX2(ByteBuffer data)
+    {
+        if(data.remaining() < KTX2_IDENTIFIER.length)
+            return false;
+        for(int i = 0; i < KTX2_IDENTIFIER.length; i++)
+        {
+            if(data.get(i) != KTX2_IDENTIFIER[i])
+                return false;
+        }
+        return true;
+    }
+
+    private static TextureContainer parseKTX2(ByteBuffer data) throws IOException
+    {
+        if(data.remaining() < KTX2_HEADER_SIZE)
+            throw new IOException("Corrupt KTX2 header");
+        int vkFormat = data.getInt(12);
+        int width = data.getInt(20);
+        int height = data.getInt(24);
+        int depth = data.getInt(28);
+        int layers = data.getInt(32);
+        int faces = data.getInt(36);
+        // 0 asks the loader to generate the mips, there is level 0 only
+        int levels = Math.max(1, data.getInt(40));
+        int supercompression = data.getInt(44);
+
+        if(supercompression != 0)
+            throw new IOException("Supercompressed KTX2 files aren't supported, scheme " + supercompression);
+        if(depth > 1 || layers > 1)
+            throw new IOException("Only 2D textures and cube maps are supported, not " + width + "x" + height + "x" + depth
+                    + " with " + layers + " layers");
+        if(faces != 1 && faces != 6)
+            throw new IOException("Corrupt KTX2 header, " + faces + " faces");
+        if(width <= 0 || height <= 0 || levels > 32 || KTX2_HEADER_SIZE + levels * KTX2_LEVEL_SIZE > data.limit())
+            throw new IOException("Corrupt KTX2 header");
+        int[] glFormat = vulkanFormat(vkFormat);
+        if(glFormat == null)
+            throw new IOException("Unsupported KTX2 format: VkFormat " + vkFormat);
+
+        TextureContainer container = new TextureContainer(data, true, width, height, levels, faces, glFormat);
+        for(int level = 0; level < levels; level++)
+        {
+            int entry = KTX2_HEADER_SIZE + level * KTX2_LEVEL_SIZE;
+            long offset = data.getLong(entry);
+            long length = data.getLong(entry + 8);
+            int image = container.imageSize(level);
+            if(offset < 0 || length != (long) image * faces || offset + length > data.limit())
+                throw new IOException("Corrupt KTX2 file, level " + level + " out of range");
+            // the faces of a level follow each other without padding
+            for(int face = 0; face < faces; face++)
+                container.setImage(level, face, (int) offset + face * image, image);
+        }
+        return container;
+    }
+
+    private static TextureContainer parseDDS(ByteBuffer data) throws IOException
+    {
+        if(data.remaining() < DDS_HEADER_SIZE || data.getInt(4) != 124)
+            throw new IOException("Corrupt DDS header");
+        int flags = data.getInt(8);
+        int height = data.getInt(12);
+        int width = data.getInt(16);
+        int levels = (flags & DDSD_MIPMAPCOUNT) != 0 ? Math.max(1, data.getInt(28)) : 1;
+        int pixelFlags = data.getInt(80);
+        int fourCC = data.getInt(84);
+        int caps2 = data.getInt(112);
+
+        int faces = 1;
+        int start = DDS_HEADER_SIZE;
+        int[] glFormat;
+        if((pixelFlags & DDPF_FOURCC) != 0 && fourCC == fourCC("DX10"))
+        {
+            if(data.remaining() < DDS_DX10_HEADER_SIZE)
+                throw new IOException("Corrupt DDS DX10 header");
+            int dxgiFormat = data.getInt(128);
+            int dimension = data.getInt(132);
+            int arraySize = data.getInt(140);
+            if(dimension != DDS_DIMENSION_TEXTURE2D || arraySize > 1)
+                throw new IOException("Only 2D textures and cube maps are supported, dimension " + dimension
+                        + ", " + arraySize + " layers");
+            if((data.getInt(136) & DDS_RESOURCE_MISC_TEXTURECUBE) != 0)
+                faces = 6;
+            glFormat = dxgiFormat(dxgiFormat);
+            if(glFormat == null)
+                throw new IOException("Unsupported DDS format: DXGI format " + dxgiFormat);
+            start = DDS_DX10_HEADER_SIZE;
+        }
+        else
+        {
+            if((caps2 & DDSCAPS2_VOLUME) != 0)
+                throw new IOException("3D DDS textures aren't supported");
+            if((caps2 & DDSCAPS2_CUBEMAP) != 0)
+            {
+                if((caps2 & DDSCAPS2_CUBEMAP_ALLFACES) != DDSCAPS2_CUBEMAP_ALLFACES)
+                    throw new IOException("DDS cube maps need all six faces");
+                faces = 6;
+            }
+            glFormat = legacyFormat(pixelFlags, fourCC, data.getInt(88), data.getInt(92), data.getInt(96),
+                    data.getInt(100), data.getInt(104));
+            if(glFormat == null)
+                throw new IOException("Unsupported DDS pixel format, flags " + Integer.toHexString(pixelFlags)
+                        + ", FourCC " + Integer.toHexString(fourCC));
+        }
+        if(width <= 0 || height <= 0 || levels > 32)
+            throw new IOException("Corrupt DDS header");
+
+        // unlike KTX2 the file is face by face, every face with its whole mip chain
+        TextureContainer container = new TextureContainer(data, false, width, height, levels, faces, glFormat);
+        long offset = start;
+        for(int face = 0; face < faces; face++)
+        {
+            for(int level = 0; level < levels; level++)
+            {
+                int image = container.imageSize(level);
+                if(offset + image > data.limit())
+                    throw new IOException("Corrupt DDS file, level " + level + " of face " + face + " out of range");
+                container.setImage(level, face, (int) offset, image);
+                offset += image;
+            }
+        }
+        return container;
+    }
+
+    private void setImage(int level, int face, int offset, int length)
+    {
+        offsets[level * faces + face] = offset;
+        lengths[level * faces + face] = length;
+    }
+
+    // bytes of one face of a level, rows of 4x4 blocks or tightly packed texel rows
+    private int imageSize(int level)
+    {
+        int levelWidth = getLevelWidth(level);
+        int levelHeight = getLevelHeight(level);
+        return isCompressed()
+                ? ((levelWidth + 3) >> 2) * ((levelHeight + 3) >> 2) * getBlockBytes()
+                : levelWidth * levelHeight * getPixelBytes();
+    }
+
+    private static int fourCC(String code)
+    {
+        return code.charAt(0) | code.charAt(1) << 8 | code.charAt(2) << 16 | code.charAt(3) << 24;
+    }
+
+    // internal format, format, type, bytes per 4x4 block (compressed, format 0) or per texel
+    private static int[] compressed(int internalFormat, int blockBytes)
+    {
+        return new int[] {internalFormat, 0, 0, blockBytes};
+    }
+
+    private static int[] texels(int internalFormat, int format, int type, int pixelBytes)
+    {
+        return new int[] {internalFormat, format, type, pixelBytes};
+    }
+
+    private static int[] vulkanFormat(int vkFormat)
+    {
+        return switch(vkFormat)
+        {
+            case 9 -> texels(0x8229, GL_RED, GL_UNSIGNED_BYTE, 1);          // R8_UNORM -> GL_R8
+            case 16 -> texels(0x822B, GL_RG, GL_UNSIGNED_BYTE, 2);          // R8G8_UNORM -> GL_RG8
+            case 23 -> texels(0x8051, GL_RGB, GL_UNSIGNED_BYTE, 3);         // R8G8B8_UNORM -> GL_RGB8
+            case 29 -> texels(0x8C41, GL_RGB, GL_UNSIGNED_BYTE, 3);         // R8G8B8_SRGB -> GL_SRGB8
+            case 37 -> texels(TextureFile.GL_RGBA8, GL_RGBA, GL_UNSIGNED_BYTE, 4);
+            case 43 -> texels(0x8C43, GL_RGBA, GL_UNSIGNED_BYTE, 4);        // R8G8B8A8_SRGB -> GL_SRGB8_ALPHA8
+            case 44 -> texels(TextureFile.GL_RGBA8, GL_BGRA, GL_UNSIGNED_BYTE, 4);
+            case 50 -> texels(0x8C43, GL_BGRA, GL_UNSIGNED_BYTE, 4);
+            case 97 -> texels(0x881A, GL_RGBA, GL_HALF_FLOAT, 8);           // R16G16B16A16_SFLOAT -> GL_RGBA16F
+            case 109 -> texels(0x8814, GL_RGBA, GL_FLOAT, 16);              // R32G32B32A32_SFLOAT -> GL_RGBA32F
+            case 131 -> compressed(0x83F0, 8);                              // BC1_RGB -> GL_COMPRESSED_RGB_S3TC_DXT1
+            case 132 -> compressed(0x8C4C, 8);
+            case 133 -> compressed(0x83F1, 8);                              // BC1_RGBA
+            case 134 -> compressed(0x8C4D, 8);
+            case 135 -> compressed(0x83F2, 16);                             // BC2
+            case 136 -> compressed(0x8C4E, 16);
+            case 137 -> compressed(0x83F3, 16);                             // BC3
+            case 138 -> compressed(0x8C4F, 16);
+            case 139 -> compressed(0x8DBB, 8);                              // BC4 -> GL_COMPRESSED_RED_RGTC1
+            case 140 -> compressed(0x8DBC, 8);
+            case 141 -> compressed(0x8DBD, 16);                             // BC5 -> GL_COMPRESSED_RG_RGTC2
+            case 142 -> compressed(0x8DBE, 16);
+            case 143 -> compressed(0x8E8F, 16);                             // BC6H_UFLOAT
+            case 144 -> compressed(0x8E8E, 16);
+            case 145 -> compressed(0x8E8C, 16);                             // BC7 -> GL_COMPRESSED_RGBA_BPTC_UNORM
+            case 146 -> compressed(0x8E8D, 16);
+            default -> null;
+        };
+    }
+
+    private static int[] dxgiFormat(int dxgiFormat)
+    {
+        return switch(dxgiFormat)
+        {
+            case 2 -> vulkanFormat(109);    // R32G32B32A32_FLOAT
+            case 10 -> vulkanFormat(97);    // R16G16B16A16_FLOAT
+            case 28 -> vulkanFormat(37);    // R8G8B8A8_UNORM
+            case 29 -> vulkanFormat(43);    // R8G8B8A8_UNORM_SRGB
+            case 49 -> vulkanFormat(16);    // R8G8_UNORM
+            case 61 -> vulkanFormat(9);     // R8_UNORM
+            case 71 -> vulkanFormat(133);   // BC1_UNORM
+            case 72 -> vulkanFormat(134);
+            case 74 -> vulkanFormat(135);   // BC2_UNORM
+            case 75 -> vulkanFormat(136);
+            case 77 -> vulkanFormat(137);   // BC3_UNORM
+            case 78 -> vulkanFormat(138);
+            case 80 -> vulkanFormat(139);   // BC4_UNORM
+            case 81 -> vulkanFormat(140);
+            case 83 -> vulkanFormat(141);   // BC5_UNORM
+            case 84 -> vulkanFormat(142);
+            case 87 -> vulkanFormat(44);    // B8G8R8A8_UNORM
+            case 91 -> vulkanFormat(50);    // B8G8R8A8_UNORM_SRGB
+            case 95 -> vulkanFormat(143);   // BC6H_UF16
+            case 96 -> vulkanFormat(144);
+            case 98 -> vulkanFormat(145);   // BC7_UNORM
+            case 99 -> vulkanFormat(146);
+            default -> null;
+        };
+    }
+
+    private static int[] legacyFormat(int pixelFlags, int fourCC, int bits, int red, int green, int blue, int alpha)
+    {
+        if((pixelFlags & DDPF_FOURCC) != 0)
+        {
+            if(fourCC == fourCC("DXT1"))
+                return vulkanFormat(133);
+            if(fourCC == fourCC("DXT2") || fourCC == fourCC("DXT3"))
+                return vulkanFormat(135);
+            if(fourCC == fourCC("DXT4") || fourCC == fourCC("DXT5"))
+                return vulkanFormat(137);
+            if(fourCC == fourCC("ATI1") || fourCC == fourCC("BC4U"))
+                return vulkanFormat(139);
+            if(fourCC == fourCC("ATI2") || fourCC == fourCC("BC5U"))
+                return vulkanFormat(141);
+            return null;
+        }
+        if((pixelFlags & DDPF_RGB) == 0 || bits != 32)
+            return null;
+        // without DDPF_ALPHAPIXELS the fourth byte is padding, GL reads it as alpha all the same
+        boolean hasAlpha = (pixelFlags & DDPF_ALPHAPIXELS) != 0;
+        if(hasAlpha && alpha != 0xFF000000)
+            return null;
+        if(red == 0xFF && green == 0xFF00 && blue == 0xFF0000)
+            return vulkanFormat(37);
+        if(red == 0xFF0000 && green == 0xFF00 && blue == 0xFF)
+            return vulkanFormat(44);
+        return null;
+    }
+
+    /**
+     * Whether this came from a KTX2 file, DDS otherwise.
+     */
+    public boolean isKTX2()
+    {
+        return ktx2;
+    }
+
+    public int getWidth()
+    {
+        return width;
+    }
+
+    public int getHeight()
+    {
+        return height;
+    }
+
+    public int getLevelCount()
+    {
+        return levels;
+    }
+
+    /**
+     * 6 for a cube map, 1 otherwise.
+     */
+    public int getFaceCount()
+    {
+        return faces;
+    }
+
+    public boolean isCubeMap()
+    {
+        return faces == 6;
+    }
+
+    public int getInternalFormat()
+    {
+        return internalFormat;
+    }
+
+    /**
+     * The GL format for {@code glTexImage2D}, 0 when compressed.
+     */
+    public int getFormat()
+    {
+        return format;
+    }
+
+    public int getType()
+    {
+        return type;
+    }
+
+    /**
+     * Whether the images are 4x4 blocks for {@code glCompressedTexImage2D}, like a compressed {@link TextureFile}.
+     */
+    public boolean isCompressed()
+    {
+        return format == 0;
+    }
+
+    /**
+     * Bytes of one 4x4 block, 0 for uncompressed formats.
+     */
+    public int getBlockBytes()
+    {
+        return isCompressed() ? bytes : 0;
+    }
+
+    /**
+     * Bytes of one texel, 0 for compressed formats.
+     */
+    public int getPixelBytes()
+    {
+        return isCompressed() ? 0 : bytes;
+    }
+
+    public int getLevelWidth(int level)
+    {
+        return Math.max(1, width >> level);
+    }
+
+    public int getLevelHeight(int level)
+    {
+        return Math.max(1, height >> level);
+    }
+
+    /**
+     * Offset of one image into the file.
+     */
+    public int getImageOffset(int level, int face)
+    {
+        return offsets[level * faces + face];
+    }
+
+    /**
+     * One face of one level as a slice of the file, ready for {@code glTexImage2D} or
+     * {@code glCompressedTexImage2D} on {@code GL_TEXTURE_CUBE_MAP_POSITIVE_X + face}.
+     */
+    public ByteBuffer getImage(int level, int face)
+    {
+        return data.slice(offsets[level * faces + face], lengths[level * faces + face]);
+    }
+
+    /**
+     * Level {@code level} of a 2D texture.
+     */
+    public ByteBuffer getLevel(int level)
+    {
+        return getImage(level, 0);
+    }
+}
@@ -0,0 +1,285 @@
+package framework.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Binary texture container with the whole mip chain baked in, the replacement for the
+ * serialized {@link BufferTexture} files. Works like {@link MeshFile}: little-endian, every level
+ * on a {@value #ALIGNMENT} byte boundary, and a mapped level goes to {@code glTexImage2D} as is.
+ * Levels can also be block compressed (see {@link #writeCompressed}), format and type are 0 then.
+ * <pre>
+ *  0  int    magic "FTEX"
+ *  4  short  version
+ *  6  short  level count
+ *  8  int    width
+ * 12  int    height
+ * 16  int    internal format (GL enum)
+ * 20  int    format (GL enum)
+ * 24  int    type (GL enum)
+ * 28  int    name byte length
+ * 32  ...    name (UTF-8)
+ *     ...    level descriptors, 16 bytes each: int width, int height, int offset, int byte length
+ *     ...    aligned levels, level 0 first
+ * </pre>
+ */
+public final class TextureFile
+{
+    public static final String EXTENSION = ".tex";
+    public static final int MAGIC = 'F' | 'T' << 8 | 'E' << 16 | 'X' << 24;
+    public static final int VERSION = 1;
+    public static final int ALIGNMENT = 16;
+
+    // the GL enums, without pulling GL into the io package
+    public static final int GL_RGBA = 0x1908;
+    public static final int GL_RGBA8 = 0x8058;
+    public static final int GL_UNSIGNED_BYTE = 0x1401;
+
+    private static final int HEADER_SIZE = 32;
+    private static final int DESCRIPTOR_SIZE = 16;
+    private static final int MAX_LEVELS = 32;
+
+    private final ByteBuffer data;
+    private final String name;
+    private final int width;
+    private final int height;
+    private final int internalFormat;
+    private final int format;
+    private final int type;
+    private final int[] levelWidths;
+    private final int[] levelHeights;
+    private final int[] levelOffsets;
+    private final int[] levelLengths;
+
+    private TextureFile(ByteBuffer data) throws IOException
+    {
+        this.data = data.order(ByteOrder.LITTLE_ENDIAN);
+        if(data.remaining() < HEADER_SIZE || data.getInt(0) != MAGIC)
+            throw new IOException("Not a texture file");
+        int version = data.getShort(4) & 0xFFFF;
+        if(version != VERSION)
+            throw new IOException("Unsupported texture version: " + version);
+
+        int levels = data.getShort(6) & 0xFFFF;
+        width = data.getInt(8);
+        height = data.getInt(12);
+        internalFormat = data.getInt(16);
+        format = data.getInt(20);
+        type = data.getInt(24);
+        int nameLength = data.getInt(28);
+        if(levels == 0 || levels > MAX_LEVELS || nameLength < 0 || HEADER_SIZE + nameLength > data.limit())
+            throw new IOException("Corrupt texture header");
+
+        byte[] nameBytes = new byte[nameLength];
+        data.get(HEADER_SIZE, nameBytes);
+        name = new String(nameBytes, StandardCharsets.UTF_8);
+
+        levelWidths = new int[levels];
+        levelHeights = new int[levels];
+        levelOffsets = new int[levels];
+        levelLengths = new int[levels];
+        int descriptor = HEADER_SIZE + nameLength;
+        for(int i = 0; i < levels; i++, descriptor += DESCRIPTOR_SIZE)
+        {
+            levelWidths[i] = data.getInt(descriptor);
+            levelHeights[i] = data.getInt(descriptor + 4);
+            levelOffsets[i] = data.getInt(descriptor + 8);
+            levelLengths[i] = data.getInt(descriptor + 12);
+            int end = levelOffsets[i] + levelLengths[i];
+            if(levelOffsets[i] < 0 || levelLengths[i] < 0 || end < 0 || end > data.limit())
+                throw new IOException("Corrupt texture file, level " + i + " out of range");
+        }
+    }
+
+    /**
+     * Maps a texture file read-only. Nothing but the header is read until the levels are used.
+     */
+    public static TextureFile map(File file) throws IOException
+    {
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            long size = channel.size();
+            if(size > Integer.MAX_VALUE)
+                throw new IOException("Texture file is too large to map: " + file);
+            return new TextureFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    /**
+     * Writes a mip chain of RGBA8 levels, packed as {@link BufferTexture} packs them
+     * ({@code a << 24 | b << 16 | g << 8 | r}, so the bytes are R, G, B, A).
+     */
+    public static void write(String name, int[][] levels, int width, int height, File file) throws IOException
+    {
+        int[] lengths = new int[levels.length];
+        for(int i = 0; i < levels.length; i++)
+        {
+            int levelWidth = Math.max(1, width >> i);
+            int levelHeight = Math.max(1, height >> i);
+            if(levels[i].length != levelWidth * levelHeight)
+                throw new IllegalArgumentException("Level " + i + " of " + name + " isn't " + levelWidth + "x" + levelHeight);
+            lengths[i] = levels[i].length * Integer.BYTES;
+        }
+        write(name, width, height, GL_RGBA8, GL_RGBA, GL_UNSIGNED_BYTE, lengths, file,
+                (level, buffer) -> buffer.asIntBuffer().put(levels[level]));
+    }
+
+    /**
+     * Writes a mip chain of compressed levels as {@code glCompressedTexImage2D} takes them. Format
+     * and type are stored as 0, that is what {@link #isCompressed()} checks.
+     */
+    public static void writeCompressed(String name, byte[][] levels, int width, int height, int internalFormat, File file) throws IOException
+    {
+        int[] lengths = new int[levels.length];
+        for(int i = 0; i < levels.length; i++)
+            lengths[i] = levels[i].length;
+        write(name, width, height, internalFormat, 0, 0, lengths, file,
+                (level, buffer) -> buffer.put(levels[level]));
+    }
+
+    private interface LevelWriter
+    {
+        void write(int level, ByteBuffer buffer);
+    }
+
+    private static void write(String name, int width, int height, int internalFormat, int format, int type, int[] lengths,
+                              File file, LevelWriter levels) throws IOException
+    {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        int[] offsets = new int[lengths.length];
+        int offset = align(HEADER_SIZE + nameBytes.length + lengths.length * DESCRIPTOR_SIZE);
+        for(int i = 0; i < lengths.length; i++)
+        {
+            offsets[i] = offset;
+            offset = align(offset + lengths[i]);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(offset).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC)
+                .putShort((short) VERSION)
+                .putShort((short) lengths.length)
+                .putInt(width)
+                .putInt(height)
+                .putInt(internalFormat)
+                .putInt(format)
+                .putInt(type)
+                .putInt(nameBytes.length)
+                .put(nameBytes);
+        for(int i = 0; i < lengths.length; i++)
+        {
+            buffer.putInt(Math.max(1, width >> i))
+                    .putInt(Math.max(1, height >> i))
+                    .putInt(offsets[i])
+                    .putInt(lengths[i]);
+        }
+        for(int i = 0; i < lengths.length; i++)
+            levels.write(i, buffer.position(offsets[i]).slice().order(ByteOrder.LITTLE_ENDIAN));
+        buffer.position(0);
+
+        try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            while(buffer.hasRemaining())
+                channel.write(buffer);
+        }
+    }
+
+    /**
+     * Faults the whole mapped file into memory, so a later upload doesn't wait on the disk. Meant for
+     * a loader thread, does nothing for a file that wasn't mapped.
+     */
+    public TextureFile load()
+    {
+        if(data instanceof MappedByteBuffer mapped)
+            mapped.load();
+        return this;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public int getWidth()
+    {
+        return width;
+    }
+
+    public int getHeight()
+    {
+        return height;
+    }
+
+    public int getInternalFormat()
+    {
+        return internalFormat;
+    }
+
+    public int getFormat()
+    {
+        return format;
+    }
+
+    public int getType()
+    {
+        return type;
+    }
+
+    /**
+     * Whether the levels are block compressed ({@link #getInternalFormat()} says how), for
+     * {@code glCompressedTexImage2D} instead of {@code glTexImage2D}.
+     */
+    public boolean isCompressed()
+    {
+        return format == 0 && type == 0;
+    }
+
+    public int getLevelCount()
+    {
+        return levelWidths.length;
+    }
+
+    public int getLevelWidth(int level)
+    {
+        return levelWidths[level];
+    }
+
+    public int getLevelHeight(int level)
+    {
+        return levelHeights[level];
+    }
+
+    /**
+     * The bytes of a level as a slice of the mapped file, ready for {@code glTexImage2D}.
+     * The texels are bytes, so the byte order of the machine doesn't matter.
+     */
+    public ByteBuffer getLevel(int level)
+    {
+        return data.slice(levelOffsets[level], levelLengths[level]);
+    }
+
+    /**
+     * Copies level 0 back into a {@link BufferTexture}. Not for compressed files.
+     */
+    public BufferTexture toBufferTexture()
+    {
+        if(isCompressed())
+            throw new IllegalStateException(name + " is compressed");
+        BufferTexture texture = new BufferTexture(name, width, height);
+        int[] pixels = new int[width * height];
+        getLevel(0).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(pixels);
+        texture.setArray(pixels);
+        return texture;
+    }
+
+    private static int align(int offset)
+    {
+        return (offset + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+}
@@ -0,0 +1,219 @@
+package framework.io;
+
+/**
+ * The compressed vertex layout of {@link MeshFile}: every attribute in 16 bits per component,
+ * decoded by the vertex fetch itself except for the two things the shader has to do.
+ * <ul>
+ *     <li>positions are normalized shorts relative to the mesh bounds,
+ *     {@code p = offset + q / 32767 * scale} per axis, the shader applies offset and scale
+ *     ({@link framework.model.Model#getPositionOffset()}). The error is at most half a step,
+ *     {@code scale / 65534}, see {@link #positionError}. Meshes where that is above
+ *     {@link #MAX_POSITION_ERROR} keep float positions.</li>
+ *     <li>normals are octahedral, two normalized shorts, unfolded and normalized in the shader.
+ *     The direction is off by less than {@link #NORMAL_ERROR} radians.</li>
+ *     <li>texture coordinates are normalized unsigned shorts when they all are in 0 to 1 (off by at
+ *     most {@link #TEXTURE_ERROR}), half floats otherwise (off by at most {@code |uv| / 2048}).
+ *     Coordinates too large for half floats stay floats.</li>
+ * </ul>
+ * 14 bytes per vertex instead of 32, indices are unsigned shorts too when there are at most 65536
+ * vertices. Decoding on the CPU gives what the GPU sees, that is what {@link MeshFile#toMesh()} uses.
+ */
+public final class VertexQuantization
+{
+    public static final float STEPS = 32767;
+    public static final float UNSIGNED_STEPS = 65535;
+
+    public static final float NORMAL_ERROR = 1e-4f;
+    /**
+     * The largest {@link #positionError} a mesh is quantized with, in model units. Larger meshes keep
+     * float positions, a step of their bounds could show.
+     */
+    public static final float MAX_POSITION_ERROR = 0.01f;
+    // half a step plus the rounding of q / 65535
+    public static final float TEXTURE_ERROR = 0.5f / UNSIGNED_STEPS + 0x1p-23f;
+    public static final int MAX_SHORT_INDEXED = 65536;
+
+    private VertexQuantization() {}
+
+    /**
+     * The center of the bounding box and its half extent per axis, {@code offsetX, offsetY, offsetZ,
+     * scaleX, scaleY, scaleZ}. Quantized positions are relative to these.
+     */
+    public static float[] bounds(float[] positions)
+    {
+        float[] min = {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY};
+        float[] max = {Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+        for(int i = 0; i + 2 < positions.length; i += 3)
+        {
+            for(int axis = 0; axis < 3; axis++)
+            {
+                min[axis] = Math.min(min[axis], positions[i + axis]);
+                max[axis] = Math.max(max[axis], positions[i + axis]);
+            }
+        }
+        float[] transform = {0, 0, 0, 1, 1, 1};
+        if(positions.length < 3)
+            return transform;
+        for(int axis = 0; axis < 3; axis++)
+        {
+            transform[axis] = (min[axis] + max[axis]) * 0.5f;
+            // never below the distance of the corners to the center, rounding must not push them past 1
+            transform[3 + axis] = Math.max(max[axis] - transform[axis], transform[axis] - min[axis]);
+        }
+        return transform;
+    }
+
+    public static short[] quantizePositions(float[] positions, float[] transform)
+    {
+        short[] quantized = new short[positions.length];
+        for(int i = 0; i < positions.length; i++)
+        {
+            int axis = i % 3;
+            float scale = transform[3 + axis];
+            quantized[i] = scale == 0 ? 0 : snorm((positions[i] - transform[axis]) / scale);
+        }
+        return quantized;
+    }
+
+    public static float[] dequantizePositions(short[] quantized, float[] transform)
+    {
+        float[] positions = new float[quantized.length];
+        for(int i = 0; i < quantized.length; i++)
+        {
+            int axis = i % 3;
+            positions[i] = transform[axis] + fromSnorm(quantized[i]) * transform[3 + axis];
+        }
+        return positions;
+    }
+
+    /**
+     * Largest distance of a decoded position from the original along any axis.
+     */
+    public static float positionError(float[] transform)
+    {
+        float scale = Math.max(transform[3], Math.max(transform[4], transform[5]));
+        // half a step, plus the float rounding of offset + q * scale
+        float offset = Math.max(Math.abs(transform[0]), Math.max(Math.abs(transform[1]), Math.abs(transform[2])));
+        return scale / (2 * STEPS) + Math.ulp(offset + scale) * 2;
+    }
+
+    /**
+     * Octahedral normals, two shorts per normal. The normals don't have to be unit length, zero
+     * length ones come back as +Z.
+     */
+    public static short[] encodeNormals(float[] normals)
+    {
+        short[] encoded = new short[normals.length / 3 * 2];
+        for(int i = 0, o = 0; i + 2 < normals.length; i += 3, o += 2)
+        {
+            float x = normals[i];
+            float y = normals[i + 1];
+            float z = normals[i + 2];
+            float length = Math.abs(x) + Math.abs(y) + Math.abs(z);
+            if(length == 0)
+                continue;
+            x /= length;
+            y /= length;
+            // the lower half folds over the diagonals onto the outer triangles
+            if(z < 0)
+            {
+                float folded = (1 - Math.abs(y)) * Math.signum(x == 0 ? 1 : x);
+                y = (1 - Math.abs(x)) * Math.signum(y == 0 ? 1 : y);
+                x = folded;
+            }
+            encoded[o] = snorm(x);
+            encoded[o + 1] = snorm(y);
+        }
+        return encoded;
+    }
+
+    /**
+     * Unit normals from octahedral ones, the same as the shader does.
+     */
+    public static float[] decodeNormals(short[] encoded)
+    {
+        float[] normals = new float[encoded.length / 2 * 3];
+        for(int i = 0, o = 0; i + 1 < encoded.length; i += 2, o += 3)
+        {
+            float x = fromSnorm(encoded[i]);
+            float y = fromSnorm(encoded[i + 1]);
+            float z = 1 - Math.abs(x) - Math.abs(y);
+            float t = Math.max(-z, 0);
+            x += x >= 0 ? -t : t;
+            y += y >= 0 ? -t : t;
+            float inverse = (float) (1 / Math.sqrt(x * x + y * y + z * z));
+            normals[o] = x * inverse;
+            normals[o + 1] = y * inverse;
+            normals[o + 2] = z * inverse;
+        }
+        return normals;
+    }
+
+    /**
+     * Whether every coordinate is in 0 to 1, so they fit normalized unsigned shorts.
+     */
+    public static boolean isUnitRange(float[] textures)
+    {
+        for(float value : textures)
+        {
+            if(!(value >= 0 && value <= 1))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Whether every coordinate is a finite half float, below 65504.
+     */
+    public static boolean isHalfRange(float[] textures)
+    {
+        for(float value : textures)
+        {
+            if(!(Math.abs(value) <= 65504))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Texture coordinates as normalized unsigned shorts when {@code unit}, as half floats otherwise.
+     */
+    public static short[] quantizeTextures(float[] textures, boolean unit)
+    {
+        short[] quantized = new short[textures.length];
+        for(int i = 0; i < textures.length; i++)
+        {
+            quantized[i] = unit ? (short) Math.round(textures[i] * UNSIGNED_STEPS)
+                    : Float.floatToFloat16(textures[i]);
+        }
+        return quantized;
+    }
+
+    public static float[] dequantizeTextures(short[] quantized, boolean unit)
+    {
+        float[] textures = new float[quantized.length];
+        for(int i = 0; i < quantized.length; i++)
+            textures[i] = unit ? (quantized[i] & 0xFFFF) / UNSIGNED_STEPS : Float.float16ToFloat(quantized[i]);
+        return textures;
+    }
+
+    /**
+     * Largest error of one coordinate, {@code largest} being the largest absolute one.
+     */
+    public static float textureError(boolean unit, float largest)
+    {
+        // half floats keep 11 significant bits, the smallest ones (subnormal) steps of 2^-24
+        return unit ? TEXTURE_ERROR : Math.max(largest / 2048, 0x1p-25f);
+    }
+
+    private static short snorm(float value)
+    {
+        return (short) Math.round(Math.min(1, Math.max(-1, value)) * STEPS);
+    }
+
+    // the way GL converts normalized shorts, -32768 is -1 as well
+    private static float fromSnorm(short value)
+    {
+        return Math.max(value / STEPS, -1);
+    }
+}
@@ -16,11 +16,22 @@ struct Light {
 // from the vertex shader
 in vec2 passCoord;
 
+// per frame, shared by every program, see framework.renderer.FrameUniforms
+layout(std140) uniform FrameData
+{
+    mat4 viewMatrix;
+    mat4 projectionMatrix;
+    mat4 viewProjectionMatrix;
+    vec3 cameraPosition;
+    float time;
+    int lightCount;
+    Light lights[16];
+};
+
 // uniforms
 uniform vec4 backgroundColor;
 uniform bool hasTexture;
 uniform sampler2D texture;
-uniform Light[] lights;
 
 // output color (final)
 out vec4 outColor;
@@ -0,0 +1,51 @@
+#version 460 core
+
+// structures
+struct Light {
+    vec3 pos;
+    vec3 color;
+    float intensity;
+
+    // attenuation
+    float constant;
+    float linear;
+    float quadratic;
+    float distance; // < 0 means infinite distance
+};
+
+// from the vertex shader
+in vec2 passCoord;
+in vec4 passColor;
+
+// per frame, shared by every program, see framework.renderer.FrameUniforms
+layout(std140) uniform FrameData
+{
+    mat4 viewMatrix;
+    mat4 projectionMatrix;
+    mat4 viewProjectionMatrix;
+    vec3 cameraPosition;
+    float time;
+    int lightCount;
+    Light lights[16];
+};
+
+// uniforms
+uniform bool hasTexture;
+uniform sampler2D texture;
+
+// output color (final)
+out vec4 outColor;
+
+vec4 paint(bool flag)
+{
+    if(flag)
+        return texture(texture, passCoord);
+    else
+        return passColor / 255;
+}
+
+void main(void)
+{
+    outColor = paint(hasTexture);
+    outColor = vec4(1);
+}
@@ -0,0 +1,55 @@
+#version 460 core
+
+// structures
+struct Light {
+    vec3 pos;
+    vec3 color;
+    float intensity;
+
+    // attenuation
+    float constant;
+    float linear;
+    float quadratic;
+    float distance; // < 0 means infinite distance
+};
+
+// initialize the vertex shader
+in vec3 pos;
+in vec2 textCoord;
+
+// per instance, the matrix takes the four locations from 4 and the color the one after
+in mat4 transformationMatrix;
+in vec4 color;
+
+// per frame, shared by every program, see framework.renderer.FrameUniforms
+layout(std140) uniform FrameData
+{
+    mat4 viewMatrix;
+    mat4 projectionMatrix;
+    mat4 viewProjectionMatrix;
+    vec3 cameraPosition;
+    float time;
+    int lightCount;
+    Light lights[16];
+};
+
+// uniforms
+// quantized meshes store positions relative to their bounds, 0 and 1 for float ones
+uniform vec3 positionOffset;
+uniform vec3 positionScale;
+
+// variables for fragment shader
+out vec2 passCoord;
+out vec4 passColor;
+
+vec4 position(void)
+{
+    return viewProjectionMatrix * transformationMatrix * vec4(positionOffset + pos * positionScale, 1);
+}
+
+void main(void)
+{
+    gl_Position = position();
+    passCoord = textCoord;
+    passColor = color;
+}
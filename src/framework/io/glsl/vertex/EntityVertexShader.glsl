@@ -1,20 +1,46 @@
 #version 460 core
 
+// structures
+struct Light {
+    vec3 pos;
+    vec3 color;
+    float intensity;
+
+    // attenuation
+    float constant;
+    float linear;
+    float quadratic;
+    float distance; // < 0 means infinite distance
+};
+
 // initialize the vertex shader
 in vec3 pos;
 in vec2 textCoord;
 
+// per frame, shared by every program, see framework.renderer.FrameUniforms
+layout(std140) uniform FrameData
+{
+    mat4 viewMatrix;
+    mat4 projectionMatrix;
+    mat4 viewProjectionMatrix;
+    vec3 cameraPosition;
+    float time;
+    int lightCount;
+    Light lights[16];
+};
+
 // uniforms
 uniform mat4 transformationMatrix;
-uniform mat4 projectionMatrix;
-uniform mat4 viewMatrix;
+// quantized meshes store positions relative to their bounds, 0 and 1 for float ones
+uniform vec3 positionOffset;
+uniform vec3 positionScale;
 
 // variables for fragment shader
 out vec2 passCoord;
 
 vec4 position(void)
 {
-    return projectionMatrix * viewMatrix * transformationMatrix * vec4(pos, 1);
+    return viewProjectionMatrix * transformationMatrix * vec4(positionOffset + pos * positionScale, 1);
 }
 
 void main(void)
@@ -1,55 +1,153 @@
 package framework.loader;
 
 
+import framework.environment.Engine;
 import framework.model.Model;
-import framework.io.Resources;
-import framework.textures.TextureData;
+import framework.renderer.GLState;
+import framework.io.MeshFile;
+import framework.io.TextureContainer;
+import framework.textures.CubeMapData;
+import framework.textures.Texture;
 import framework.util.Buffer;
-import framework.util.LinkList;
+import framework.util.HandleRegistry;
+import framework.util.IntList;
 import framework.util.PNGDecoder;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.lwjgl.opengl.GL46.*;
 
 public final class ModelLoader
 {
-    private static LinkList<Integer> vaoList = new LinkList<>();
-    private static LinkList<Integer> vboList = new LinkList<>();
-    protected static LinkList<Integer> textureList = new LinkList<>();
+    private static final HandleRegistry vaos = new HandleRegistry("vao", GLState::deleteVertexArray);
+    private static final HandleRegistry buffers = new HandleRegistry("buffer", GLState::deleteBuffer);
+    private static final HandleRegistry textures = new HandleRegistry("texture", GLState::deleteTexture);
+    // the buffer handles every vao owns, by vao slot, so a model can be deleted on its own
+    private static IntList[] vaoBuffers = new IntList[64];
+    private static final int INTERLEAVED_STRIDE = 8 * Float.BYTES;
+    private static int currentVao;
 
     private static int createVao() {
         int vaoId = glGenVertexArrays();
-        vaoList.add(vaoId);
-        glBindVertexArray(vaoId);
+        currentVao = vaos.register(vaoId);
+        int slot = HandleRegistry.index(currentVao);
+        if (slot >= vaoBuffers.length) {
+            vaoBuffers = Arrays.copyOf(vaoBuffers, Math.max(slot + 1, vaoBuffers.length * 2));
+        }
+        if (vaoBuffers[slot] == null) {
+            vaoBuffers[slot] = new IntList(4);
+        }
+        vaoBuffers[slot].clear();
+        GLState.bindVertexArray(vaoId);
         return vaoId;
     }
 
+    private static void addVaoBuffer(int vboId) {
+        vaoBuffers[HandleRegistry.index(currentVao)].add(buffers.register(vboId));
+    }
+
+    // a model of the vao createVao made last
+    private static Model createModel(int vaoId, int vertexCount) {
+        Model model = new Model(vaoId, vertexCount);
+        model.setHandle(currentVao);
+        return model;
+    }
+
+    static int registerTexture(int textureId) {
+        return textures.register(textureId);
+    }
+
     private static void storeDataInAttributeList(int attributeNumber, int vertexLength, float[] data) {
         int vboId = glGenBuffers();
-        vboList.add(vboId);
-        glBindBuffer(GL_ARRAY_BUFFER, vboId);
-        FloatBuffer buffer = Buffer.createFloatBuffer(data);
+        addVaoBuffer(vboId);
+        GLState.bindBuffer(GL_ARRAY_BUFFER, vboId);
+        FloatBuffer buffer = Buffer.stageFloats(data);
         glBufferData(GL_ARRAY_BUFFER, buffer, GL_STATIC_DRAW);
         glVertexAttribPointer(attributeNumber, vertexLength, GL_FLOAT, false, 0, 0);
-        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        glEnableVertexAttribArray(attributeNumber);
+        GLState.bindBuffer(GL_ARRAY_BUFFER, 0);
+    }
+
+    private static void storeDataInAttributeList(int attributeNumber, int vertexLength, int type, boolean normalized, ByteBuffer data) {
+        int vboId = glGenBuffers();
+        addVaoBuffer(vboId);
+        GLState.bindBuffer(GL_ARRAY_BUFFER, vboId);
+        glBufferData(GL_ARRAY_BUFFER, data, GL_STATIC_DRAW);
+        glVertexAttribPointer(attributeNumber, vertexLength, type, normalized, 0, 0);
+        glEnableVertexAttribArray(attributeNumber);
+        GLState.bindBuffer(GL_ARRAY_BUFFER, 0);
+    }
+
+    // one buffer for every attribute, the vertex layout is set up with attributePointer
+    private static void storeVertexData(ByteBuffer data) {
+        int vboId = glGenBuffers();
+        addVaoBuffer(vboId);
+        GLState.bindBuffer(GL_ARRAY_BUFFER, vboId);
+        glBufferData(GL_ARRAY_BUFFER, data, GL_STATIC_DRAW);
+    }
+
+    private static void attributePointer(int attributeNumber, int vertexLength, int type, boolean normalized, int stride, int offset) {
+        glVertexAttribPointer(attributeNumber, vertexLength, type, normalized, stride, offset);
+        glEnableVertexAttribArray(attributeNumber);
     }
 
     private static void unbindVao() {
-        glBindVertexArray(0);
+        GLState.bindVertexArray(0);
     }
 
     private static void bindIndicesBuffer(int[] indices) {
         int vboId = glGenBuffers();
-        vboList.add(vboId);
-        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, vboId);
-        IntBuffer buffer = Buffer.createIntBuffer(indices);
+        addVaoBuffer(vboId);
+        GLState.bindBuffer(GL_ELEMENT_ARRAY_BUFFER, vboId);
+        IntBuffer buffer = Buffer.stageInts(indices);
         glBufferData(GL_ELEMENT_ARRAY_BUFFER, buffer, GL_STATIC_DRAW);
     }
 
+    private static void bindIndicesBuffer(ByteBuffer indices) {
+        int vboId = glGenBuffers();
+        addVaoBuffer(vboId);
+        GLState.bindBuffer(GL_ELEMENT_ARRAY_BUFFER, vboId);
+        glBufferData(GL_ELEMENT_ARRAY_BUFFER, indices, GL_STATIC_DRAW);
+    }
+
+    /**
+     * Uploads a mapped {@link MeshFile}, every buffer goes to GL straight from its slice of the file.
+     */
+    public static Model loadToVaoInt(MeshFile mesh) {
+        int vaoId = createVao();
+        bindIndicesBuffer(mesh.getIndices());
+        if (mesh.isInterleaved()) {
+            storeVertexData(mesh.getVertexData());
+        }
+        for (MeshFile.Attribute attribute : mesh.getAttributes()) {
+            if (attribute.getByteLength() == 0) {
+                continue;
+            }
+            if (mesh.isInterleaved()) {
+                attributePointer(attribute.location, attribute.components, attribute.type, attribute.normalized, mesh.getStride(), attribute.getVertexOffset());
+            } else {
+                storeDataInAttributeList(attribute.location, attribute.components, attribute.type, attribute.normalized, mesh.getData(attribute));
+            }
+        }
+        GLState.bindBuffer(GL_ARRAY_BUFFER, 0);
+        unbindVao();
+        Model model = createModel(vaoId, mesh.getIndexCount());
+        model.setIndexType(mesh.getIndexType());
+        model.setPositionTransform(mesh.getPositionOffset(), mesh.getPositionScale());
+        return model;
+    }
+
     public static Model loadToVaoInt(float[] positions, float[] textureCoords, float[] normals, int[] indices) {
         int vaoId = createVao();
         bindIndicesBuffer(indices);
@@ -57,7 +155,46 @@ public final class ModelLoader
         storeDataInAttributeList(1, 2, textureCoords);
         storeDataInAttributeList(2, 3, normals);
         unbindVao();
-        return new Model(vaoId, indices.length);
+        return createModel(vaoId, indices.length);
+    }
+
+    /**
+     * The same model as {@link #loadToVaoInt(float[], float[], float[], int[])} with the attributes
+     * interleaved into one vertex buffer, 32 bytes per vertex: position, texture coordinates, normal.
+     */
+    public static Model loadToVaoInterleaved(float[] positions, float[] textureCoords, float[] normals, int[] indices) {
+        int vertexCount = positions.length / 3;
+        if (textureCoords.length != vertexCount * 2 || normals.length != vertexCount * 3) {
+            throw new IllegalArgumentException("Attribute arrays of different vertex counts: " + vertexCount + " positions, "
+                    + textureCoords.length / 2 + " texture coordinates, " + normals.length / 3 + " normals");
+        }
+        ByteBuffer vertices = Buffer.stage(vertexCount * INTERLEAVED_STRIDE);
+        FloatBuffer floats = vertices.asFloatBuffer();
+        for (int i = 0; i < vertexCount; i++) {
+            floats.put(positions, i * 3, 3)
+                    .put(textureCoords, i * 2, 2)
+                    .put(normals, i * 3, 3);
+        }
+
+        int vaoId = createVao();
+        bindIndicesBuffer(indices);
+        storeVertexData(vertices);
+        attributePointer(0, 3, GL_FLOAT, false, INTERLEAVED_STRIDE, 0);
+        attributePointer(1, 2, GL_FLOAT, false, INTERLEAVED_STRIDE, 3 * Float.BYTES);
+        attributePointer(2, 3, GL_FLOAT, false, INTERLEAVED_STRIDE, 5 * Float.BYTES);
+        GLState.bindBuffer(GL_ARRAY_BUFFER, 0);
+        unbindVao();
+        return createModel(vaoId, indices.length);
+    }
+
+    /**
+     * Vertex buffers the model's vao owns, the index buffer included.
+     */
+    public static int getBufferCount(Model model) {
+        if (!vaos.isValid(model.getHandle())) {
+            return 0;
+        }
+        return vaoBuffers[HandleRegistry.index(model.getHandle())].size();
     }
 
     // for the GUI rendering system (2D Objects)
@@ -66,93 +203,237 @@ public final class ModelLoader
         int VaoId = createVao();
         storeDataInAttributeList(0, dimensions, positions);
         unbindVao();
-        return new Model(VaoId, positions.length * dimensions);
+        return createModel(VaoId, positions.length * dimensions);
     }
 
     public static int loadTexture(String filename)
     {
+        // comes back with its mip levels and filtering set, and unbound
         int textureId = TextureLoader.loadTexture(filename);
-        glGenerateMipmap(GL_TEXTURE_2D);
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR_MIPMAP_LINEAR);
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR_MIPMAP_LINEAR);
-        glTexParameterf(GL_TEXTURE_2D, GL_TEXTURE_LOD_BIAS, 20f);
-        textureList.add(textureId);
+        registerTexture(textureId);
         return textureId;
     }
 
+    /**
+     * A cube map from six PNGs in {@code skybox/}, decoded in parallel and uploaded at once. See
+     * {@link #preloadCubeMap} for loading one without stalling the frame.
+     */
     public static int loadCubeMap(String[] textureFiles)
     {
-        int textureID = glGenTextures();
-        glActiveTexture(GL_TEXTURE0);
-        glBindTexture(GL_TEXTURE_CUBE_MAP, textureID);
+        return uploadCubeMap(decodeCubeMap(textureFiles));
+    }
 
-        for(int i = 0; i < textureFiles.length; i++)
+    /**
+     * Decodes the next skybox while the current one is still drawn. The faces are decoded in the
+     * background, the upload runs on the GL thread through {@link Engine#mainExecute} and the future
+     * completes there with the registered texture id.
+     */
+    public static CompletableFuture<Integer> preloadCubeMap(String[] textureFiles)
+    {
+        CompletableFuture<Integer> texture = new CompletableFuture<>();
+        CompletableFuture.supplyAsync(() -> decodeCubeMap(textureFiles)).whenComplete((data, error) -> {
+            if(error != null)
+            {
+                texture.completeExceptionally(error instanceof CompletionException ? error.getCause() : error);
+                return;
+            }
+            Engine.mainExecute(() -> {
+                try
+                {
+                    texture.complete(uploadCubeMap(data));
+                }
+                catch(RuntimeException e)
+                {
+                    texture.completeExceptionally(e);
+                }
+            });
+        });
+        return texture;
+    }
+
+    /**
+     * Decodes the six faces ({@code +X, -X, +Y, -Y, +Z, -Z}) of {@code skybox/<name>.png} in parallel,
+     * straight into one pooled buffer. Any thread, {@link #uploadCubeMap} gives the buffer back.
+     */
+    public static CubeMapData decodeCubeMap(String[] textureFiles)
+    {
+        if(textureFiles.length != CubeMapData.FACES)
+            throw new IllegalArgumentException("A cube map has 6 faces, not " + textureFiles.length);
+
+        // the headers first, every face must have the same size before the buffer is taken
+        InputStream[] streams = new InputStream[CubeMapData.FACES];
+        PNGDecoder[] decoders = new PNGDecoder[CubeMapData.FACES];
+        ByteBuffer buffer = null;
+        try
         {
-            TextureData data = decodeTextureFile("skybox/" + textureFiles[i] + ".png");
-            glTexImage2D
-            (
-                GL_TEXTURE_CUBE_MAP_POSITIVE_X + i,
-                0,
-                GL_RGBA,
-                data.getWidth(),
-                data.getHeight(),
-                0,
-                GL_RGBA,
-                GL_UNSIGNED_BYTE,
-                data.getBuffer()
-            );
-        }
-        glTexParameteri(GL_TEXTURE_CUBE_MAP, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
-        glTexParameteri(GL_TEXTURE_CUBE_MAP, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
-        glTexParameteri(GL_TEXTURE_CUBE_MAP, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
-        glTexParameteri(GL_TEXTURE_CUBE_MAP, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
-        textureList.add(textureID);
-        return textureID;
+            for(int i = 0; i < CubeMapData.FACES; i++)
+            {
+                String fileName = "skybox/" + textureFiles[i] + ".png";
+                streams[i] = TextureLoader.openResource(fileName);
+                try
+                {
+                    decoders[i] = new PNGDecoder(streams[i]);
+                }
+                catch(IOException e)
+                {
+                    throw new RuntimeException("Failed to decode cube map face " + fileName, e);
+                }
+                if(decoders[i].getWidth() != decoders[0].getWidth() || decoders[i].getHeight() != decoders[0].getHeight())
+                    throw new RuntimeException("Cube map face " + fileName + " is " + decoders[i].getWidth() + "x"
+                            + decoders[i].getHeight() + ", " + textureFiles[0] + " is " + decoders[0].getWidth() + "x"
+                            + decoders[0].getHeight());
+            }
 
+            CubeMapData data = new CubeMapData(Buffer.acquire(CubeMapData.FACES * decoders[0].getWidth()
+                    * decoders[0].getHeight() * 4), decoders[0].getWidth(), decoders[0].getHeight());
+            buffer = data.getBuffer();
+            // failures are kept instead of thrown, so every face is done with the buffer before it goes back
+            AtomicReference<RuntimeException> failure = new AtomicReference<>();
+            List<ForkJoinTask<?>> tasks = new ArrayList<>(CubeMapData.FACES);
+            for(int i = 0; i < CubeMapData.FACES; i++)
+            {
+                int face = i;
+                tasks.add(ForkJoinTask.adapt(() -> {
+                    try
+                    {
+                        decoders[face].decode(data.getFace(face), data.getWidth() * 4, PNGDecoder.Format.RGBA);
+                    }
+                    catch(IOException | RuntimeException e)
+                    {
+                        failure.compareAndSet(null,
+                                new RuntimeException("Failed to decode cube map face skybox/" + textureFiles[face] + ".png", e));
+                    }
+                }));
+            }
+            ForkJoinTask.invokeAll(tasks);
+            if(failure.get() != null)
+                throw failure.get();
+            buffer = null;
+            return data;
+        }
+        finally
+        {
+            if(buffer != null)
+                Buffer.release(buffer);
+            for(InputStream stream : streams)
+            {
+                if(stream == null)
+                    continue;
+                try
+                {
+                    stream.close();
+                }
+                catch(IOException ignored)
+                {
+                    // read to the end already, nothing is lost
+                }
+            }
+        }
     }
 
-    private static TextureData decodeTextureFile(String fileName) {
-        int width;
-        int height;
-        ByteBuffer buffer;
-        try {
-            InputStream in = Resources.class.getResourceAsStream(fileName);
-            PNGDecoder decoder = new PNGDecoder(in);
-            width = decoder.getWidth();
-            height = decoder.getHeight();
-            buffer = ByteBuffer.allocateDirect(4 * width * height);
-            decoder.decode(buffer, width * 4, PNGDecoder.Format.RGBA);
-            buffer.flip();
-            assert in != null;
-            in.close();
-        } catch (Exception e) {
-            System.err.println("Tried to load texture " + fileName + ", didn't work");
-            throw new RuntimeException();
+    /**
+     * Uploads decoded faces with one call into immutable storage and gives their buffer back to the
+     * pool. GL thread.
+     */
+    public static int uploadCubeMap(CubeMapData data)
+    {
+        try
+        {
+            int textureID = glCreateTextures(GL_TEXTURE_CUBE_MAP);
+            glTextureStorage2D(textureID, 1, GL_RGBA8, data.getWidth(), data.getHeight());
+            // a cube map is 6 layers to the DSA calls, all faces go in at once
+            glTextureSubImage3D(textureID, 0, 0, 0, 0, data.getWidth(), data.getHeight(), CubeMapData.FACES,
+                    GL_RGBA, GL_UNSIGNED_BYTE, data.getBuffer());
+            glTextureParameteri(textureID, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+            glTextureParameteri(textureID, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
+            glTextureParameteri(textureID, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+            glTextureParameteri(textureID, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+            glTextureParameteri(textureID, GL_TEXTURE_WRAP_R, GL_CLAMP_TO_EDGE);
+            registerTexture(textureID);
+            return textureID;
+        }
+        finally
+        {
+            Buffer.release(data.getBuffer());
         }
-        return new TextureData(buffer, width, height);
+    }
+
+    /**
+     * A cube map from one KTX2 or DDS file in {@code skybox/}, with the faces and mip levels baked
+     * into it, instead of six PNGs.
+     */
+    public static int loadCubeMap(String fileName)
+    {
+        TextureContainer container = TextureLoader.openContainer("skybox/" + fileName);
+        if(!container.isCubeMap())
+            throw new RuntimeException("Not a cube map: " + fileName);
+        int textureID = TextureLoader.loadContainer(container);
+        registerTexture(textureID);
+        return textureID;
     }
 
     public static void destroy() {
-        for (int vaoId : vaoList) {
-            glDeleteVertexArrays(vaoId);
-        }
+        vaos.destroy();
+        buffers.destroy();
+        textures.destroy();
+    }
 
-        for (int vboId : vboList) {
-            glDeleteBuffers(vboId);
+    /**
+     * Invalidates the model's handle and queues its vao and buffers for deletion, see
+     * {@link #flushDeletions()}. The model's vao is 0 afterwards.
+     */
+    public static void deleteModel(Model model)
+    {
+        int handle = model.getHandle();
+        if(vaos.release(handle))
+        {
+            IntList owned = vaoBuffers[HandleRegistry.index(handle)];
+            for(int i = 0; i < owned.size(); i++)
+                buffers.release(owned.get(i));
+            owned.clear();
         }
+        model.setHandle(0);
+        model.setVaoId(0);
+        model.setVertexCount(0);
+    }
 
-        for (int textureId : textureList) {
-            glDeleteTextures(textureId);
-        }
+    /**
+     * Queues every map of the texture for deletion, its ids are 0 afterwards.
+     */
+    public static void deleteTexture(Texture texture)
+    {
+        for(int handle : texture.getHandles())
+            textures.release(handle);
+        texture.setHandles();
+        texture.setTextureID(0);
+        texture.setNormalMap(0);
+        if(texture.hasSpecularMap())
+            texture.setSpecularMap(0);
+    }
+
+    /**
+     * Deletes the GL objects released a few frames ago. Called once per frame on the GL thread.
+     */
+    public static void flushDeletions()
+    {
+        vaos.flush();
+        buffers.flush();
+        textures.flush();
+    }
+
+    public static String getHandleStats()
+    {
+        return "vaos " + vaos.size() + " (+" + vaos.getPendingCount() + " pending), buffers " + buffers.size()
+                + " (+" + buffers.getPendingCount() + "), textures " + textures.size() + " (+" + textures.getPendingCount() + ")";
     }
 
     public static int createEmptyVbo(int floatCount)
     {
         int vbo = glGenBuffers();
-        ModelLoader.vboList.add(vbo);
-        glBindBuffer(GL_ARRAY_BUFFER, vbo);
+        buffers.register(vbo);
+        GLState.bindBuffer(GL_ARRAY_BUFFER, vbo);
         glBufferData(GL_ARRAY_BUFFER, floatCount * 4L, GL_STREAM_DRAW);
-        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        GLState.bindBuffer(GL_ARRAY_BUFFER, 0);
         return vbo;
     }
 
@@ -161,20 +442,20 @@ public final class ModelLoader
         buffer.clear();
         buffer.put(data);
         buffer.flip();
-        glBindBuffer(GL_ARRAY_BUFFER, vbo);
+        GLState.bindBuffer(GL_ARRAY_BUFFER, vbo);
         glBufferData(GL_ARRAY_BUFFER, buffer.capacity() * 4L, GL_STREAM_DRAW);
         glBufferSubData(GL_ARRAY_BUFFER, 0, buffer);
-        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        GLState.bindBuffer(GL_ARRAY_BUFFER, 0);
     }
 
     public static void addInstanceAttribs(int vao, int vbo, int attrib, int data, int instanceLength, int offset)
     {
-        glBindBuffer(GL_ARRAY_BUFFER, vbo);
-        glBindVertexArray(vao);
+        GLState.bindBuffer(GL_ARRAY_BUFFER, vbo);
+        GLState.bindVertexArray(vao);
         glVertexAttribPointer(attrib, data, GL_FLOAT, false, instanceLength * 4, offset * 4L);
         glVertexAttribDivisor(attrib, 1);
-        glBindBuffer(GL_ARRAY_BUFFER, 0);
-        glBindVertexArray(0);
+        GLState.bindBuffer(GL_ARRAY_BUFFER, 0);
+        GLState.bindVertexArray(0);
     }
 
     public static Model loadToVaoInt(float[] pos, float[] coords, float[] normals, int[] indices, float[] tangents)
@@ -186,7 +467,7 @@ public final class ModelLoader
         storeDataInAttributeList(2, 3, normals);
         storeDataInAttributeList(3, 3, tangents);
         unbindVao();
-        return new Model(id, indices.length);
+        return createModel(id, indices.length);
     }
 
     public static int loadToVaoInt(float[] vertexPositions, float[] textureCoords)
@@ -205,7 +486,7 @@ public final class ModelLoader
         storeDataInAttributeList(0, 3, vertexPositions);
         storeDataInAttributeList(1, 2, textureCoords);
         unbindVao();
-        return new Model(vaoId, indices.length);
+        return createModel(vaoId, indices.length);
     }
 
     public static Model loadToVao(float[] positions, int[] indices)
@@ -214,17 +495,18 @@ public final class ModelLoader
         bindIndicesBuffer(indices);
         storeDataInAttributeList(0, positions);
         unbindVao();
-        return new Model(vaoId, indices.length);
+        return createModel(vaoId, indices.length);
     }
 
     private static void storeDataInAttributeList(int attributeNumber, float[] data) {
         int vboID = glGenBuffers();
-        vboList.add(vboID);
-        glBindBuffer(GL_ARRAY_BUFFER, vboID);
-        FloatBuffer buffer = Buffer.createFloatBuffer(data);
+        addVaoBuffer(vboID);
+        GLState.bindBuffer(GL_ARRAY_BUFFER, vboID);
+        FloatBuffer buffer = Buffer.stageFloats(data);
         glBufferData(GL_ARRAY_BUFFER, buffer, GL_STATIC_DRAW);
         glVertexAttribPointer(attributeNumber, 3, GL_FLOAT, false,0,0);
-        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        glEnableVertexAttribArray(attributeNumber);
+        GLState.bindBuffer(GL_ARRAY_BUFFER, 0);
     }
 
 }
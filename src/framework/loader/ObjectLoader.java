@@ -7,16 +7,29 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import framework.io.AssetManifest;
 import framework.io.Mesh;
+import framework.io.MeshFile;
 import framework.io.Resources;
 
 public class ObjectLoader {
 
+    // bump when the parser, the optimizer or the file layout changes what ends up in the mesh files, so the manifest rebuilds them
+    public static final int CONVERTER_VERSION = 4;
+
+    /**
+     * Converts every OBJ file in {@code ~/framework/objects} into {@link Mesh#MESH_DIRECTORY}. Files
+     * the {@link AssetManifest} there has already seen unchanged are skipped, meshes whose OBJ is gone are deleted.
+     */
     public static void loadAllObjects() {
         File meshDir = new File(System.getProperty("user.home") + File.separator + "framework" + File.separator + "objects");
         System.out.println(meshDir.getAbsolutePath());
@@ -26,28 +39,62 @@ public class ObjectLoader {
         }
 
         File[] files = meshDir.listFiles((dir, name) -> name.toLowerCase().endsWith(".obj"));
-        if (files == null || files.length == 0) {
+        if (files == null) {
             System.out.println("No OBJ files found in: " + Mesh.MESH_DIRECTORY);
             return;
         }
 
+        AssetManifest manifest = AssetManifest.load(new File(Mesh.MESH_DIRECTORY), CONVERTER_VERSION);
+        Set<String> sources = new HashSet<>();
+        AtomicInteger converted = new AtomicInteger();
+        AtomicInteger upToDate = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+
+        // every file is its own task, big files split further into chunks on the same pool
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(files.length);
         for (File file : files) {
-            try {
-                String fileName = file.getName();
-                String meshName = fileName.substring(0, fileName.lastIndexOf('.'));
-
-                System.out.println(file.getAbsolutePath() + " " + fileName + " " + meshName);
-                Mesh mesh = parseObjFromFile(file.getAbsolutePath(), meshName);
-                mesh.exportObject();
-                System.out.println("Processed and exported: " + meshName);
-            } catch (IOException e) {
-                throw new RuntimeException("Failed to process file: " + file.getName());
-            }
+            sources.add(file.getName());
+            tasks.add(ForkJoinTask.adapt(() -> {
+                try {
+                    String fileName = file.getName();
+                    String meshName = fileName.substring(0, fileName.lastIndexOf('.'));
+
+                    AssetManifest.Entry entry = manifest.check(file, meshName + MeshFile.EXTENSION);
+                    if (entry == null) {
+                        upToDate.incrementAndGet();
+                        return;
+                    }
+
+                    System.out.println(file.getAbsolutePath() + " " + fileName + " " + meshName);
+                    Mesh mesh = ObjectParser.parse(file.toPath(), meshName);
+                    MeshOptimizer.optimize(mesh);
+                    mesh.exportObject();
+                    manifest.record(entry);
+                    converted.incrementAndGet();
+                    System.out.println("Processed and exported: " + meshName);
+                } catch (IOException e) {
+                    failed.incrementAndGet();
+                    throw new RuntimeException("Failed to process file: " + file.getName(), e);
+                } catch (RuntimeException e) {
+                    failed.incrementAndGet();
+                    throw e;
+                }
+            }));
+        }
+        try {
+            ForkJoinTask.invokeAll(tasks);
+        } finally {
+            // keep what did convert even if one file failed
+            List<String> removed = manifest.removeOrphans(sources);
+            manifest.save();
+            System.out.println(AssetManifest.summary("Meshes", files.length, converted.get(), upToDate.get(), failed.get(), removed));
         }
     }
 
     /**
      * Parses an OBJ file from the filesystem and returns a Mesh object.
+     * This is the line by line regex path, {@link ObjectParser#parse(java.nio.file.Path, String)}
+     * gives the same mesh a lot faster and is what {@link #loadAllObjects()} uses.
      */
     public static Mesh parseObjFromFile(String filePath, String meshName) throws IOException {
         List<Float> positions = new ArrayList<>();
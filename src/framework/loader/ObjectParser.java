@@ -0,0 +1,654 @@
+package framework.loader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+
+import framework.io.Mesh;
+import framework.util.IntList;
+
+/**
+ * Byte level Wavefront OBJ parser. The file is memory mapped and the numbers are read straight
+ * out of the mapped bytes into primitive arrays, no lines, no regex and no boxing on the way.
+ * <p>
+ * The output follows {@link ObjectLoader#parseObjFromFile(String, String)}: faces are fan
+ * triangulated, every face corner becomes its own vertex and the indices count up from zero.
+ * On top of that, negative (relative) face indices are resolved like the OBJ spec says, and a
+ * broken {@code v}/{@code vt}/{@code vn} line keeps its slot (as zeros) so the indices after it
+ * still point at the right data.
+ * <p>
+ * Big files are cut into chunks at line boundaries and parsed on the fork-join pool in three
+ * passes: count the records of every chunk, parse every chunk against the global counts before
+ * it, then copy the face corners into the mesh arrays. Every pass only depends on the chunks
+ * before it through prefix sums, so the mesh is the same as the one a single chunk gives.
+ */
+public final class ObjectParser
+{
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+
+    // files below this are parsed on the calling thread
+    private static final int PARALLEL_THRESHOLD = 4 << 20;
+    private static final int CHUNK_SIZE = 2 << 20;
+
+    private static final int OTHER = 0;
+    private static final int POSITION = 1;
+    private static final int TEXTURE = 2;
+    private static final int NORMAL = 3;
+    private static final int FACE = 4;
+
+    // corner has no texture coordinate / normal written at all, because none came before the face
+    private static final int NONE = -2;
+
+    // float fast path: 10^n for n <= 10 is exact in a float, so is any mantissa below 2^24
+    private static final float[] POWERS_OF_TEN = {
+            1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f
+    };
+    private static final long MAX_EXACT_MANTISSA = 1L << 24;
+
+    /**
+     * A line aligned piece of the file. The counts are filled by the first pass, the bases are
+     * the sums of the counts of every chunk before this one.
+     */
+    private static final class Chunk
+    {
+        final int from;
+        final int to;
+
+        int lines;
+        int positionCount, textureCount, normalCount;
+        int firstLine, positionBase, textureBase, normalBase;
+
+        // resolved (v, vt, vn) of every triangle corner, -1 for a bad index
+        IntList corners;
+        int texturedCount, normaledCount;
+        int cornerBase, texturedBase, normaledBase;
+
+        Chunk(int from, int to)
+        {
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    private final ByteBuffer data;
+    private final Chunk chunk;
+    private final float[] rawPositions;
+    private final float[] rawTextures;
+    private final float[] rawNormals;
+
+    // global counts of the records read so far
+    private int positionCount;
+    private int textureCount;
+    private int normalCount;
+
+    // corners of the face being read, 3 ints (v, vt, vn) each
+    private int[] corners = new int[3 * 8];
+
+    private int cursor;
+    private int limit;
+    private int lineNumber;
+
+    private ObjectParser(ByteBuffer data, Chunk chunk, float[] rawPositions, float[] rawTextures, float[] rawNormals)
+    {
+        this.data = data;
+        this.chunk = chunk;
+        this.rawPositions = rawPositions;
+        this.rawTextures = rawTextures;
+        this.rawNormals = rawNormals;
+        positionCount = chunk.positionBase;
+        textureCount = chunk.textureBase;
+        normalCount = chunk.normalBase;
+        lineNumber = chunk.firstLine - 1;
+        cursor = chunk.from;
+        limit = chunk.to;
+        // about 1 triangle corner per 12 bytes of face lines
+        chunk.corners = new IntList(Math.max(64, (chunk.to - chunk.from) / 4));
+    }
+
+    /**
+     * Parses an OBJ file from the filesystem and returns a Mesh object.
+     */
+    public static Mesh parse(Path path, String meshName) throws IOException
+    {
+        try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            long size = channel.size();
+            if(size > Integer.MAX_VALUE)
+                throw new IOException("OBJ file is too large to map: " + path);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return parse(buffer, meshName, path.toString());
+        }
+    }
+
+    /**
+     * Parses OBJ text between the position and the limit of the buffer.
+     */
+    public static Mesh parse(ByteBuffer buffer, String meshName, String source)
+    {
+        return parse(buffer, meshName, source, buffer.remaining() >= PARALLEL_THRESHOLD
+                ? Runtime.getRuntime().availableProcessors() * 4 : 1);
+    }
+
+    /**
+     * Parses OBJ text between the position and the limit of the buffer, split in at most
+     * {@code maxChunks} pieces that are parsed in parallel.
+     */
+    public static Mesh parse(ByteBuffer buffer, String meshName, String source, int maxChunks)
+    {
+        ByteBuffer data = buffer.slice();
+        Chunk[] chunks = split(data, maxChunks);
+
+        run(chunks, chunk -> count(data, chunk));
+
+        Chunk previous = null;
+        for(Chunk chunk : chunks)
+        {
+            if(previous == null)
+                chunk.firstLine = 1;
+            else
+            {
+                chunk.firstLine = previous.firstLine + previous.lines;
+                chunk.positionBase = previous.positionBase + previous.positionCount;
+                chunk.textureBase = previous.textureBase + previous.textureCount;
+                chunk.normalBase = previous.normalBase + previous.normalCount;
+            }
+            previous = chunk;
+        }
+
+        float[] rawPositions = new float[(previous.positionBase + previous.positionCount) * 3];
+        float[] rawTextures = new float[(previous.textureBase + previous.textureCount) * 2];
+        float[] rawNormals = new float[(previous.normalBase + previous.normalCount) * 3];
+
+        run(chunks, chunk -> new ObjectParser(data.duplicate(), chunk, rawPositions, rawTextures, rawNormals).read());
+
+        previous = null;
+        for(Chunk chunk : chunks)
+        {
+            if(previous != null)
+            {
+                chunk.cornerBase = previous.cornerBase + previous.corners.size() / 3;
+                chunk.texturedBase = previous.texturedBase + previous.texturedCount;
+                chunk.normaledBase = previous.normaledBase + previous.normaledCount;
+            }
+            previous = chunk;
+        }
+
+        int cornerCount = previous.cornerBase + previous.corners.size() / 3;
+        float[] positions = new float[cornerCount * 3];
+        float[] textures = new float[(previous.texturedBase + previous.texturedCount) * 2];
+        float[] normals = new float[(previous.normaledBase + previous.normaledCount) * 3];
+        int[] indices = new int[cornerCount];
+
+        run(chunks, chunk -> emit(chunk, rawPositions, rawTextures, rawNormals, positions, textures, normals, indices));
+
+        System.out.println("Parsed OBJ file: " + source + " (" + chunks.length + (chunks.length == 1 ? " chunk)" : " chunks)"));
+        System.out.println("Raw data - Positions: " + rawPositions.length / 3 + ", Textures: " + rawTextures.length / 2 + ", Normals: " + rawNormals.length / 3);
+
+        Mesh mesh = new Mesh(meshName);
+        mesh.setPositions(positions);
+        mesh.setTextures(textures);
+        mesh.setNormals(normals);
+        mesh.setIndices(indices);
+        return mesh;
+    }
+
+    private static Chunk[] split(ByteBuffer data, int maxChunks)
+    {
+        int size = data.limit();
+        int count = Math.max(1, Math.min(maxChunks, size / CHUNK_SIZE));
+        Chunk[] chunks = new Chunk[count];
+        int from = 0;
+        for(int i = 0; i < count; i++)
+        {
+            int to = i == count - 1 ? size : Math.max(from, (int) ((long) size * (i + 1) / count));
+            while(to < size && to > 0 && data.get(to - 1) != LF)
+                to++;
+            chunks[i] = new Chunk(from, to);
+            from = chunks[i].to;
+        }
+        return chunks;
+    }
+
+    private static void run(Chunk[] chunks, Consumer<Chunk> pass)
+    {
+        if(chunks.length == 1)
+        {
+            pass.accept(chunks[0]);
+            return;
+        }
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(chunks.length);
+        for(Chunk chunk : chunks)
+            tasks.add(ForkJoinTask.adapt(() -> pass.accept(chunk)));
+        ForkJoinTask.invokeAll(tasks);
+    }
+
+    /**
+     * first pass, only looks at the start of every line
+     */
+    private static void count(ByteBuffer data, Chunk chunk)
+    {
+        int cursor = chunk.from;
+        int limit = chunk.to;
+        while(cursor < limit)
+        {
+            chunk.lines++;
+            while(cursor < limit && isSpace(data.get(cursor)))
+                cursor++;
+            if(cursor >= limit)
+                break;
+            switch(recordType(data, cursor, limit))
+            {
+                case POSITION -> chunk.positionCount++;
+                case TEXTURE -> chunk.textureCount++;
+                case NORMAL -> chunk.normalCount++;
+                default -> {}
+            }
+            while(cursor < limit && data.get(cursor) != LF)
+                cursor++;
+            cursor++;
+        }
+    }
+
+    private static int recordType(ByteBuffer data, int cursor, int limit)
+    {
+        byte b = data.get(cursor);
+        if(b == 'v')
+        {
+            byte next = cursor + 1 < limit ? data.get(cursor + 1) : LF;
+            if(isSpace(next))
+                return POSITION;
+            if(next == 't' && cursor + 2 < limit && isSpace(data.get(cursor + 2)))
+                return TEXTURE;
+            if(next == 'n' && cursor + 2 < limit && isSpace(data.get(cursor + 2)))
+                return NORMAL;
+        }
+        else if(b == 'f' && cursor + 1 < limit && isSpace(data.get(cursor + 1)))
+            return FACE;
+        return OTHER;
+    }
+
+    /**
+     * second pass, fills this chunk's part of the raw arrays and resolves its faces
+     */
+    private void read()
+    {
+        while(cursor < limit)
+        {
+            lineNumber++;
+            skipSpaces();
+            if(cursor >= limit)
+                break;
+
+            switch(recordType(data, cursor, limit))
+            {
+                case POSITION -> {
+                    cursor += 1;
+                    readPosition();
+                }
+                case TEXTURE -> {
+                    cursor += 2;
+                    readTexture();
+                }
+                case NORMAL -> {
+                    cursor += 2;
+                    readNormal();
+                }
+                case FACE -> {
+                    cursor += 1;
+                    readFace();
+                }
+                default -> {}
+            }
+            skipLine();
+        }
+    }
+
+    private void readPosition()
+    {
+        int start = cursor;
+        float x = readFloat();
+        float y = readFloat();
+        float z = readFloat();
+        int i = positionCount++ * 3;
+        if(Float.isNaN(x) || Float.isNaN(y) || Float.isNaN(z))
+        {
+            warn("Could not parse vertex position", start);
+            return;
+        }
+        rawPositions[i] = x;
+        rawPositions[i + 1] = y;
+        rawPositions[i + 2] = z;
+    }
+
+    private void readTexture()
+    {
+        int start = cursor;
+        float u = readFloat();
+        float v = readFloat();
+        int i = textureCount++ * 2;
+        if(Float.isNaN(u) || Float.isNaN(v))
+        {
+            warn("Could not parse texture coordinate", start);
+            return;
+        }
+        rawTextures[i] = u;
+        rawTextures[i + 1] = v;
+    }
+
+    private void readNormal()
+    {
+        int start = cursor;
+        float x = readFloat();
+        float y = readFloat();
+        float z = readFloat();
+        int i = normalCount++ * 3;
+        if(Float.isNaN(x) || Float.isNaN(y) || Float.isNaN(z))
+        {
+            warn("Could not parse vertex normal", start);
+            return;
+        }
+        rawNormals[i] = x;
+        rawNormals[i + 1] = y;
+        rawNormals[i + 2] = z;
+    }
+
+    private void readFace()
+    {
+        int start = cursor;
+        int count = 0;
+
+        for(;;)
+        {
+            skipSpaces();
+            if(cursor >= limit || isLineEnd(data.get(cursor)) || data.get(cursor) == '#')
+                break;
+
+            int tokenStart = cursor;
+            int position = readIndex(positionCount);
+            int texture = -1;
+            int normal = -1;
+            if(cursor < limit && data.get(cursor) == '/')
+            {
+                cursor++;
+                if(cursor < limit && data.get(cursor) != '/' && !isSpace(data.get(cursor)) && !isLineEnd(data.get(cursor)))
+                    texture = readIndex(textureCount);
+                if(cursor < limit && data.get(cursor) == '/')
+                {
+                    cursor++;
+                    if(cursor < limit && !isSpace(data.get(cursor)) && !isLineEnd(data.get(cursor)))
+                        normal = readIndex(normalCount);
+                }
+            }
+
+            if(position == Integer.MIN_VALUE || texture == Integer.MIN_VALUE || normal == Integer.MIN_VALUE
+                    || (cursor < limit && !isSpace(data.get(cursor)) && !isLineEnd(data.get(cursor))))
+            {
+                warn("Could not parse face indices", tokenStart);
+                skipToken();
+                continue;
+            }
+
+            if(position < 0 || position >= positionCount)
+            {
+                System.err.println("Warning: Invalid position index " + (position + 1) + " at line " + lineNumber);
+                position = -1;
+            }
+            if(textureCount == 0)
+                texture = NONE;
+            else if(texture < 0 || texture >= textureCount)
+                texture = -1;
+            if(normalCount == 0)
+                normal = NONE;
+            else if(normal < 0 || normal >= normalCount)
+                normal = -1;
+
+            if(3 * count + 3 > corners.length)
+                corners = Arrays.copyOf(corners, corners.length * 2);
+            corners[3 * count] = position;
+            corners[3 * count + 1] = texture;
+            corners[3 * count + 2] = normal;
+            count++;
+        }
+
+        if(count < 3)
+        {
+            warn("Face with less than 3 vertices", start);
+            return;
+        }
+
+        // simple fan triangulation: vertex 0, vertex i, vertex i + 1
+        for(int i = 1; i < count - 1; i++)
+        {
+            addCorner(0);
+            addCorner(i);
+            addCorner(i + 1);
+        }
+    }
+
+    private void addCorner(int corner)
+    {
+        int texture = corners[3 * corner + 1];
+        int normal = corners[3 * corner + 2];
+        chunk.corners.add(corners[3 * corner], texture, normal);
+        if(texture != NONE)
+            chunk.texturedCount++;
+        if(normal != NONE)
+            chunk.normaledCount++;
+    }
+
+    /**
+     * third pass, copies the corners of a chunk into its part of the mesh arrays
+     */
+    private static void emit(Chunk chunk, float[] rawPositions, float[] rawTextures, float[] rawNormals,
+                             float[] positions, float[] textures, float[] normals, int[] indices)
+    {
+        int[] corners = chunk.corners.array();
+        int count = chunk.corners.size() / 3;
+        int t = chunk.texturedBase * 2;
+        int n = chunk.normaledBase * 3;
+
+        for(int k = 0; k < count; k++)
+        {
+            int vertex = chunk.cornerBase + k;
+            int position = corners[3 * k];
+            int texture = corners[3 * k + 1];
+            int normal = corners[3 * k + 2];
+
+            if(position >= 0)
+                System.arraycopy(rawPositions, position * 3, positions, vertex * 3, 3);
+
+            if(texture >= 0)
+                System.arraycopy(rawTextures, texture * 2, textures, t, 2);
+            if(texture != NONE)
+                t += 2;
+
+            if(normal >= 0)
+                System.arraycopy(rawNormals, normal * 3, normals, n, 3);
+            else if(normal == -1)
+                normals[n + 2] = 1f;
+            if(normal != NONE)
+                n += 3;
+
+            indices[vertex] = vertex;
+        }
+    }
+
+    /**
+     * reads a 1-based (or negative, relative) OBJ index and returns it 0-based,
+     * {@link Integer#MIN_VALUE} if there is no number
+     */
+    private int readIndex(int count)
+    {
+        boolean negative = false;
+        if(cursor < limit && (data.get(cursor) == '-' || data.get(cursor) == '+'))
+            negative = data.get(cursor++) == '-';
+
+        int start = cursor;
+        long value = 0;
+        while(cursor < limit)
+        {
+            int digit = data.get(cursor) - '0';
+            if(digit < 0 || digit > 9)
+                break;
+            value = value * 10 + digit;
+            if(value > Integer.MAX_VALUE)
+                return Integer.MIN_VALUE;
+            cursor++;
+        }
+        if(cursor == start)
+            return Integer.MIN_VALUE;
+        return negative ? count - (int) value : (int) value - 1;
+    }
+
+    /**
+     * reads the next whitespace separated float, or NaN if there is none
+     */
+    private float readFloat()
+    {
+        skipSpaces();
+        int start = cursor;
+        boolean negative = false;
+        if(cursor < limit && (data.get(cursor) == '-' || data.get(cursor) == '+'))
+            negative = data.get(cursor++) == '-';
+
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean seenDigit = false;
+        boolean overflow = false;
+
+        while(cursor < limit)
+        {
+            int digit = data.get(cursor) - '0';
+            if(digit < 0 || digit > 9)
+                break;
+            seenDigit = true;
+            if(digits < 18)
+            {
+                mantissa = mantissa * 10 + digit;
+                if(mantissa != 0)
+                    digits++;
+            }
+            else
+            {
+                overflow = true;
+                exponent++;
+            }
+            cursor++;
+        }
+        if(cursor < limit && data.get(cursor) == '.')
+        {
+            cursor++;
+            while(cursor < limit)
+            {
+                int digit = data.get(cursor) - '0';
+                if(digit < 0 || digit > 9)
+                    break;
+                seenDigit = true;
+                if(digits < 18)
+                {
+                    mantissa = mantissa * 10 + digit;
+                    if(mantissa != 0)
+                        digits++;
+                    exponent--;
+                }
+                else overflow = true;
+                cursor++;
+            }
+        }
+        if(!seenDigit)
+        {
+            cursor = start;
+            return Float.NaN;
+        }
+        if(cursor < limit && (data.get(cursor) == 'e' || data.get(cursor) == 'E'))
+        {
+            int mark = cursor++;
+            boolean negativeExponent = false;
+            if(cursor < limit && (data.get(cursor) == '-' || data.get(cursor) == '+'))
+                negativeExponent = data.get(cursor++) == '-';
+            int value = 0;
+            int exponentStart = cursor;
+            while(cursor < limit)
+            {
+                int digit = data.get(cursor) - '0';
+                if(digit < 0 || digit > 9)
+                    break;
+                if(value < 10_000)
+                    value = value * 10 + digit;
+                cursor++;
+            }
+            if(cursor == exponentStart)
+                cursor = mark; // "1e" is just "1"
+            else exponent += negativeExponent ? -value : value;
+        }
+
+        float result;
+        if(!overflow && mantissa < MAX_EXACT_MANTISSA && exponent >= -10 && exponent <= 10)
+        {
+            // both operands are exact, so the single rounding matches Float.parseFloat
+            result = exponent < 0
+                    ? (float) mantissa / POWERS_OF_TEN[-exponent]
+                    : (float) mantissa * POWERS_OF_TEN[exponent];
+            return negative ? -result : result;
+        }
+        return slowFloat(start, cursor);
+    }
+
+    private float slowFloat(int from, int to)
+    {
+        byte[] bytes = new byte[to - from];
+        data.get(from, bytes);
+        return Float.parseFloat(new String(bytes, StandardCharsets.ISO_8859_1));
+    }
+
+    private void skipSpaces()
+    {
+        while(cursor < limit && isSpace(data.get(cursor)))
+            cursor++;
+    }
+
+    private void skipToken()
+    {
+        while(cursor < limit && !isSpace(data.get(cursor)) && !isLineEnd(data.get(cursor)))
+            cursor++;
+    }
+
+    private void skipLine()
+    {
+        while(cursor < limit && data.get(cursor) != LF)
+            cursor++;
+        cursor++;
+    }
+
+    private static boolean isSpace(byte b)
+    {
+        return b == ' ' || b == '\t';
+    }
+
+    private static boolean isLineEnd(byte b)
+    {
+        return b == LF || b == CR;
+    }
+
+    private void warn(String message, int from)
+    {
+        int to = from;
+        while(to < limit && !isLineEnd(data.get(to)))
+            to++;
+        byte[] bytes = new byte[to - from];
+        data.get(from, bytes);
+        System.err.println("Warning: " + message + " at line " + lineNumber + ": "
+                + new String(bytes, StandardCharsets.ISO_8859_1).trim());
+    }
+}
@@ -2,17 +2,31 @@ package framework.loader;
 
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.IntBuffer;
-import java.util.Objects;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.IntFunction;
 
+import framework.io.AssetManifest;
 import framework.io.BufferTexture;
-import framework.io.Mesh;
 import framework.io.Resources;
+import framework.io.TextureContainer;
+import framework.io.TextureFile;
+import framework.renderer.GLState;
+import framework.textures.BlockCompressor;
+import framework.textures.ImageKernels;
 import framework.textures.Texture;
+import framework.textures.TextureData;
 import framework.util.Buffer;
-
-import javax.imageio.ImageIO;
+import framework.util.PNGDecoder;
 
 import static org.lwjgl.opengl.EXTTextureFilterAnisotropic.GL_MAX_TEXTURE_MAX_ANISOTROPY_EXT;
 import static org.lwjgl.opengl.EXTTextureFilterAnisotropic.GL_TEXTURE_MAX_ANISOTROPY_EXT;
@@ -21,11 +35,22 @@ import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL12.GL_CLAMP_TO_EDGE;
 import static org.lwjgl.opengl.GL12.GL_TEXTURE_BASE_LEVEL;
 import static org.lwjgl.opengl.GL12.GL_TEXTURE_MAX_LEVEL;
+import static org.lwjgl.opengl.GL12.GL_TEXTURE_WRAP_R;
+import static org.lwjgl.opengl.GL13.GL_TEXTURE_CUBE_MAP;
+import static org.lwjgl.opengl.GL13.GL_TEXTURE_CUBE_MAP_POSITIVE_X;
+import static org.lwjgl.opengl.GL13.glCompressedTexImage2D;
 import static org.lwjgl.opengl.GL14.GL_TEXTURE_LOD_BIAS;
 import static org.lwjgl.opengl.GL30.glGenerateMipmap;
 
 public class TextureLoader
 {
+    // bump when the decoding or the mip generation changes what ends up in the texture files
+    public static final int CONVERTER_VERSION = 3;
+
+    /**
+     * Converts every PNG in {@code ~/framework/images} into {@link BufferTexture#TEXTURE_DIR}, skipping
+     * the ones the {@link AssetManifest} there has already seen unchanged and deleting textures whose PNG is gone.
+     */
     public static void loadAllTextures() {
         File meshDir = new File(System.getProperty("user.home") + File.separator + "framework" + File.separator + "images");
         System.out.println(meshDir.getAbsolutePath());
@@ -35,47 +60,105 @@ public class TextureLoader
         }
 
         File[] files = meshDir.listFiles((dir, name) -> name.toLowerCase().endsWith(".png"));
-        if (files == null || files.length == 0) {
-            System.out.println("No OBJ files found in: " + Mesh.MESH_DIRECTORY);
+        if (files == null) {
+            System.out.println("No PNG files found in: " + meshDir.getAbsolutePath());
             return;
         }
 
-        for (File file : files) {
-            String fileName = file.getName();
-            String meshName = fileName.substring(0, fileName.lastIndexOf('.'));
+        AssetManifest manifest = AssetManifest.load(new File(BufferTexture.TEXTURE_DIR), CONVERTER_VERSION);
+        Set<String> sources = new HashSet<>();
+        int converted = 0;
+        int upToDate = 0;
+        int failed = 0;
+        try {
+            for (File file : files) {
+                sources.add(file.getName());
+                String fileName = file.getName();
+                String meshName = fileName.substring(0, fileName.lastIndexOf('.'));
+
+                AssetManifest.Entry entry = manifest.check(file, meshName + TextureFile.EXTENSION);
+                if (entry == null) {
+                    upToDate++;
+                    continue;
+                }
 
-            BufferTexture texture = loadTexture(file.getAbsolutePath(), meshName);
-            texture.exportObject();
-            System.out.println("Processed and exported: " + meshName);
+                try {
+                    BufferTexture texture = loadTexture(file.getAbsolutePath(), meshName);
+                    texture.exportObject();
+                } catch (RuntimeException e) {
+                    failed++;
+                    throw e;
+                }
+                manifest.record(entry);
+                converted++;
+                System.out.println("Processed and exported: " + meshName);
+            }
+        } finally {
+            List<String> removed = manifest.removeOrphans(sources);
+            manifest.save();
+            System.out.println(AssetManifest.summary("Textures", files.length, converted, upToDate, failed, removed));
         }
     }
 
-    public static BufferTexture loadTexture(String path, String name)
+    /**
+     * Decodes a PNG as RGBA straight into a pooled direct buffer, the one way image files become
+     * texture data. There is no {@link BufferedImage} and no int array in between, the buffer is the
+     * only copy and goes to {@code glTexImage2D} as it is. {@code flip} puts the last row first, for
+     * data that GL should see bottom up. Give the buffer back with {@link Buffer#release} after the upload.
+     */
+    public static TextureData decodePNG(InputStream in, boolean flip) throws IOException
     {
-        byte[] textureData;
-        BufferedImage image;
-        int[] pixels;
+        return decodePNG(in, flip, Buffer::acquire);
+    }
+
+    private static TextureData decodePNG(InputStream in, boolean flip, IntFunction<ByteBuffer> allocate) throws IOException
+    {
+        PNGDecoder decoder = new PNGDecoder(in);
+        int width = decoder.getWidth();
+        int height = decoder.getHeight();
+        if (decoder.decideTextureFormat(PNGDecoder.Format.RGBA) != PNGDecoder.Format.RGBA) {
+            throw new IOException("No RGBA conversion for this PNG");
+        }
+        ByteBuffer buffer = allocate.apply(width * height * 4);
         try {
-            image = ImageIO.read(new File(path));
-            pixels = new int[image.getWidth() * image.getHeight()];
-            int width = image.getWidth();
-            int height = image.getHeight();
-            pixels = image.getRGB(0, 0, width, height, pixels, 0, width);
-
-            //make it RGBA instead
-            for(int i = 0; i < width * height; i++)
-            {
-                int a = (pixels[i] & 0xff000000) >> 24;
-                int r = (pixels[i] & 0xff0000) >> 16;
-                int g = (pixels[i] & 0xff00) >> 8;
-                int b = (pixels[i] & 0xff);
-
-                pixels[i] = a << 24 | b << 16 | g << 8 | r;
+            if (flip) {
+                decoder.decodeFlipped(buffer, width * 4, PNGDecoder.Format.RGBA);
+            } else {
+                decoder.decode(buffer, width * 4, PNGDecoder.Format.RGBA);
             }
+        } catch (IOException | RuntimeException e) {
+            Buffer.release(buffer);
+            throw e;
+        }
+        return new TextureData(buffer.flip(), width, height);
+    }
+
+    /**
+     * A texture PNG from the classpath, next to {@link Resources}.
+     */
+    public static InputStream openResource(String name)
+    {
+        InputStream in = Resources.class.getResourceAsStream(name);
+        if (in == null) {
+            throw new RuntimeException("Texture not found: " + name);
+        }
+        return in;
+    }
+
+    public static BufferTexture loadTexture(String path, String name)
+    {
+        TextureData data;
+        try (InputStream in = new FileInputStream(path)) {
+            data = decodePNG(in, false);
         } catch (IOException e) {
-            throw new RuntimeException(e);
+            throw new RuntimeException("Failed to decode texture: " + path, e);
         }
-        BufferTexture texture = new BufferTexture(name, image.getWidth(), image.getHeight());
+        // RGBA bytes read little-endian are the ABGR ints BufferTexture keeps
+        int[] pixels = new int[data.getWidth() * data.getHeight()];
+        data.getBuffer().duplicate().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(pixels);
+        Buffer.release(data.getBuffer());
+
+        BufferTexture texture = new BufferTexture(name, data.getWidth(), data.getHeight());
         texture.setArray(pixels);
         return texture;
     }
@@ -88,82 +171,36 @@ public class TextureLoader
         int height;
         IntBuffer[] buffers = new IntBuffer[3];
 
-        try {
-            BufferedImage image = ImageIO.read(
-                    Objects.requireNonNull(Resources.class.getResourceAsStream("textures/" + path))
-            );
-            width = image.getWidth();
-            height = image.getHeight();
-            pixels = image.getRGB(0, 0, width, height, null, 0, width);
+        // the texture keeps its diffuse buffer, so that one is owned instead of pooled
+        TextureData data;
+        try (InputStream in = openResource("textures/" + path)) {
+            data = decodePNG(in, false, bytes -> ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder()));
         } catch (IOException e) {
-            throw new RuntimeException(e);
+            throw new RuntimeException("Failed to decode texture: " + path, e);
         }
+        width = data.getWidth();
+        height = data.getHeight();
+        pixels = new int[width * height];
+        data.getBuffer().duplicate().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(pixels);
 
-        int[][] textureData = new int[3][width * height]; // Diffuse, normal, and specular maps
-
-        int[][] sobelX = {
-                {-1, 0, 1},
-                {-2, 0, 2},
-                {-1, 0, 1}
-        };
-
-        int[][] sobelY = {
-                {-1, -2, -1},
-                { 0,  0,  0},
-                { 1,  2,  1}
-        };
-
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int i = y * width + x;
-                int pixel = pixels[i];
-                int a = (pixel >> 24) & 0xFF;
-                int r = (pixel >> 16) & 0xFF;
-                int g = (pixel >> 8) & 0xFF;
-                int b = pixel & 0xFF;
-
-                // Diffuse map
-                textureData[0][i] = ((a << 24) | (r << 16) | (g << 8) | b);
-
-                // Apply Sobel filter to generate a normal map
-                float gx = 0, gy = 0;
-
-                for (int ky = -1; ky <= 1; ky++) {
-                    for (int kx = -1; kx <= 1; kx++) {
-                        int sampleX = Math.min(Math.max(x + kx, 0), width - 1);
-                        int sampleY = Math.min(Math.max(y + ky, 0), height - 1);
-                        int sampleIndex = sampleY * width + sampleX;
-                        int samplePixel = pixels[sampleIndex];
-                        int sampleGray = (int)(0.21f * ((samplePixel >> 16) & 0xFF) +
-                                0.72f * ((samplePixel >> 8) & 0xFF) +
-                                0.07f * (samplePixel & 0xFF)); // Accurate grayscale
-
-                        gx += sampleGray * sobelX[ky + 1][kx + 1];
-                        gy += sampleGray * sobelY[ky + 1][kx + 1];
-                    }
-                }
-
-                // Normalize the gradient to form a normal vector
-                float magnitude = (float) Math.sqrt(gx * gx + gy * gy + 1);
-                int nx = (int) ((gx / magnitude + 1) * 127.5);
-                int ny = (int) ((gy / magnitude + 1) * 127.5);
-                int nz = (int) ((1 / magnitude) * 127.5);
-
-                textureData[1][i] = ((255 << 24) | (nz << 16) | (ny << 8) | nx);
+        // RGBA in memory is red in the low byte of these ints
+        float[] red = ImageKernels.unpack(pixels, width, height, 0);
+        float[] green = ImageKernels.unpack(pixels, width, height, 8);
+        float[] blue = ImageKernels.unpack(pixels, width, height, 16);
 
-                // Specular mapping
-                byte average = (byte) ((r + g + b) / 3);
-                byte spec = average; // Specular
-                byte fake = average; // Fake lighting
+        // Normal map from the Sobel gradients of the luminance
+        float[][] gradients = ImageKernels.sobel(ImageKernels.luminance(pixels, width, height, 0, 8, 16), width, height);
+        float[][] normals = ImageKernels.normals(gradients[0], gradients[1], width, height);
 
-                // Bloom intensity
-                byte bloom = (byte) Math.max(Math.max(r, g), b);
+        // Specular and fake lighting from the average, bloom from the brightest channel
+        float[][] averageAndMax = ImageKernels.averageAndMax(red, green, blue, width, height);
 
-                textureData[2][i] = ((255 << 24) | (bloom << 16) | (fake << 8) | spec);
-            }
-        }
+        int[][] textureData = new int[3][]; // Diffuse, normal, and specular maps
+        textureData[1] = ImageKernels.pack(width, height, normals[0], normals[1], normals[2], null);
+        textureData[2] = ImageKernels.pack(width, height, averageAndMax[0], averageAndMax[0], averageAndMax[1], null);
 
-        buffers[0] = Buffer.createIntBuffer(textureData[0]);
+        // Diffuse map, the decoded RGBA as it is
+        buffers[0] = data.getBuffer().asIntBuffer();
         buffers[1] = Buffer.createIntBuffer(textureData[1]);
         buffers[2] = Buffer.createIntBuffer(textureData[2]);
 
@@ -172,20 +209,18 @@ public class TextureLoader
         // Create textures
         for (int i = 0; i < textures.length; i++) {
             textures[i] = glGenTextures();
-            glBindTexture(GL_TEXTURE_2D, textures[i]);
-            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
-            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
-            glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, width, height, 0, GL_RGBA, GL_UNSIGNED_BYTE,
-                    Buffer.createIntBuffer(textureData[i]));
-            glBindTexture(GL_TEXTURE_2D, 0);
-
-            glGenerateMipmap(GL_TEXTURE_2D);
+            GLState.bindTexture(GL_TEXTURE_2D, textures[i]);
+            // normals stay RGBA with z like the normal buffer, BC5 would need a shader to rebuild z
+            glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, width, height, 0, GL_RGBA, GL_UNSIGNED_BYTE, buffers[i]);
+            generateMipmaps();
             glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR_MIPMAP_LINEAR);
-            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR_MIPMAP_LINEAR);
+            glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
             glTexParameterf(GL_TEXTURE_2D, GL_TEXTURE_LOD_BIAS, -0.4f);
-            ModelLoader.textureList.add(textures[i]);
+            GLState.bindTexture(GL_TEXTURE_2D, 0);
         }
         texture = new Texture();
+        texture.setHandles(ModelLoader.registerTexture(textures[0]), ModelLoader.registerTexture(textures[1]),
+                ModelLoader.registerTexture(textures[2]));
         texture.setTextureID(textures[0]);
         texture.setNormalMap(textures[1]);
         texture.setSpecularMap(textures[2]);
@@ -196,27 +231,48 @@ public class TextureLoader
         return texture;
     }
 
+    /**
+     * Uploads an image that was made in memory, like the maps of {@link framework.textures.BufferedImageMapper}.
+     * Files go through {@link #loadTexture(String)} instead, which never builds a {@link BufferedImage}.
+     */
     public static int loadTexture(BufferedImage img)
     {
         int width = img.getWidth();
         int height = img.getHeight();
-        int[] pixels = new int[width * height];
-        pixels = img.getRGB(0, 0, width, height, pixels, 0, width);
-
-        int[] data = new int[width * height];
+        ByteBuffer staged = Buffer.stage(width * height * 4);
+        IntBuffer rgba = staged.duplicate().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        int[] row = new int[width];
 
-        for(int i = 0; i < width * height; i++) {
-            int a = (pixels[i] & 0xff000000) >> 24;
-            int r = (pixels[i] & 0xff0000) >> 16;
-            int g = (pixels[i] & 0xff00) >> 8;
-            int b = (pixels[i] & 0xff);
+        // ARGB to RGBA in memory, row by row into the staging memory
+        for (int y = 0; y < height; y++) {
+            img.getRGB(0, y, width, 1, row, 0, width);
+            for (int x = 0; x < width; x++) {
+                int argb = row[x];
+                rgba.put(argb & 0xff00ff00 | (argb >> 16) & 0xff | (argb & 0xff) << 16);
+            }
+        }
+        return upload(staged, width, height);
+    }
 
-            data[i] = a << 24 | b << 16 | g << 8 | r;
+    public static int loadTexture(String path) {
+        TextureData data;
+        try (InputStream in = openResource("textures/" + path)) {
+            data = decodePNG(in, false);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to decode texture: " + path, e);
         }
+        try {
+            return upload(data.getBuffer(), data.getWidth(), data.getHeight());
+        } finally {
+            Buffer.release(data.getBuffer());
+        }
+    }
 
+    private static int upload(ByteBuffer rgba, int width, int height)
+    {
         int result = glGenTextures();
 
-        glBindTexture(GL_TEXTURE_2D, result);
+        GLState.bindTexture(GL_TEXTURE_2D, result);
 
         // Wrapping parameters
         glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
@@ -229,16 +285,12 @@ public class TextureLoader
         // LOD bias for sharpness control (0.0f maintains original quality)
         glTexParameterf(GL_TEXTURE_2D, GL_TEXTURE_LOD_BIAS, 0.0f);
 
-        // Set LOD range for better performance
         glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_BASE_LEVEL, 0);
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAX_LEVEL, 4); // Limit mipmap levels
 
         // Upload texture data
-        glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, width, height, 0, GL_RGBA, GL_UNSIGNED_BYTE,
-                Buffer.createIntBuffer(data));
+        glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, width, height, 0, GL_RGBA, GL_UNSIGNED_BYTE, rgba);
 
-        // Generate mipmaps for better performance at distance
-        glGenerateMipmap(GL_TEXTURE_2D);
+        generateMipmaps();
 
         // Enable anisotropic filtering if supported (check for extension availability)
         if (getCapabilities().GL_EXT_texture_filter_anisotropic) {
@@ -247,33 +299,15 @@ public class TextureLoader
             glTexParameterf(GL_TEXTURE_2D, GL_TEXTURE_MAX_ANISOTROPY_EXT, Math.min(4.0f, maxAnisotropy));
         }
 
-        glBindTexture(GL_TEXTURE_2D, 0);
+        GLState.bindTexture(GL_TEXTURE_2D, 0);
         return result;
     }
 
-    public static int loadTexture(String path) {
-        int[] pixels = new int[0];
-        int result;
-        int width = 0;
-        int height = 0;
-        try
-        {
-            BufferedImage image = ImageIO.read(
-                    Objects.requireNonNull(
-                            Resources.class.getResourceAsStream("textures/" + path)));
-            return loadTexture(image);
-        }
-        catch (IOException e)
-        {
-            throw new RuntimeException(e);
-        }
-    }
-
     public static Texture loadBuffer(BufferTexture texture)
     {
         int result = glGenTextures();
 
-        glBindTexture(GL_TEXTURE_2D, result);
+        GLState.bindTexture(GL_TEXTURE_2D, result);
 
         // Wrapping parameters
         glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
@@ -286,16 +320,13 @@ public class TextureLoader
         // LOD bias for sharpness control (0.0f maintains original quality)
         glTexParameterf(GL_TEXTURE_2D, GL_TEXTURE_LOD_BIAS, 0.0f);
 
-        // Set LOD range for better performance
         glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_BASE_LEVEL, 0);
-        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAX_LEVEL, 4); // Limit mipmap levels
 
         // Upload texture data
         glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, texture.getWidth(), texture.getHeight(), 0, GL_RGBA, GL_UNSIGNED_BYTE,
-                Buffer.createIntBuffer(texture.getArray()));
+                Buffer.stageInts(texture.getArray()));
 
-        // Generate mipmaps for better performance at distance
-        glGenerateMipmap(GL_TEXTURE_2D);
+        generateMipmaps();
 
         // Enable anisotropic filtering if supported (check for extension availability)
         if (getCapabilities().GL_EXT_texture_filter_anisotropic) {
@@ -304,9 +335,176 @@ public class TextureLoader
             glTexParameterf(GL_TEXTURE_2D, GL_TEXTURE_MAX_ANISOTROPY_EXT, Math.min(4.0f, maxAnisotropy));
         }
 
-        glBindTexture(GL_TEXTURE_2D, 0);
+        GLState.bindTexture(GL_TEXTURE_2D, 0);
+        Texture tex = new Texture();
+        tex.setHandles(ModelLoader.registerTexture(result));
+        tex.setTextureID(result);
+        return tex;
+    }
+
+    // levels 0 to 4, every upload path sets GL_TEXTURE_MAX_LEVEL to at most 4
+    public static final int MAX_UPLOADED_LEVELS = 5;
+
+    /**
+     * Lets GL filter levels 1 to {@code MAX_UPLOADED_LEVELS - 1} of the bound texture from level 0.
+     * For the paths without baked levels: GL does it in a fraction of the time the Kaiser chain
+     * takes on the CPU, which only runs in the asset step, see {@link BufferTexture#writeTextureFile}.
+     */
+    private static void generateMipmaps()
+    {
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAX_LEVEL, MAX_UPLOADED_LEVELS - 1);
+        glGenerateMipmap(GL_TEXTURE_2D);
+    }
+
+    public static int uploadedLevels(TextureFile file)
+    {
+        return Math.min(file.getLevelCount(), MAX_UPLOADED_LEVELS);
+    }
+
+    /**
+     * Uploads a mapped {@link TextureFile}. Every baked level goes to GL straight from its slice of
+     * the file, nothing is converted or generated at runtime. Compressed levels go through
+     * {@code glCompressedTexImage2D}, or are decompressed first on a GPU without S3TC.
+     */
+    public static Texture loadTextureFile(TextureFile file)
+    {
+        int result = glGenTextures();
+        int levels = uploadedLevels(file);
+
+        GLState.bindTexture(GL_TEXTURE_2D, result);
+
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, levels > 1 ? GL_LINEAR_MIPMAP_LINEAR : GL_LINEAR);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+        glTexParameterf(GL_TEXTURE_2D, GL_TEXTURE_LOD_BIAS, 0.0f);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_BASE_LEVEL, 0);
+        glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAX_LEVEL, levels - 1);
+
+        BlockCompressor.Format compressed = file.isCompressed() ? BlockCompressor.Format.of(file.getInternalFormat()) : null;
+        if (file.isCompressed() && compressed == null) {
+            throw new RuntimeException("Unknown compressed format of " + file.getName() + ": " + file.getInternalFormat());
+        }
+        if (compressed != null && (!compressed.isS3TC() || getCapabilities().GL_EXT_texture_compression_s3tc)) {
+            for (int level = 0; level < levels; level++) {
+                glCompressedTexImage2D(GL_TEXTURE_2D, level, file.getInternalFormat(), file.getLevelWidth(level),
+                        file.getLevelHeight(level), 0, file.getLevel(level));
+            }
+        } else if (compressed != null) {
+            // no S3TC on this GPU, decompress on the CPU
+            for (int level = 0; level < levels; level++) {
+                int width = file.getLevelWidth(level);
+                int height = file.getLevelHeight(level);
+                glTexImage2D(GL_TEXTURE_2D, level, GL_RGBA8, width, height, 0, GL_RGBA, GL_UNSIGNED_BYTE,
+                        decompress(file.getLevel(level), width, height, compressed));
+            }
+        } else {
+            // levels of odd widths aren't 4 byte aligned rows for every format
+            glPixelStorei(GL_UNPACK_ALIGNMENT, 1);
+            for (int level = 0; level < levels; level++) {
+                glTexImage2D(GL_TEXTURE_2D, level, file.getInternalFormat(), file.getLevelWidth(level), file.getLevelHeight(level),
+                        0, file.getFormat(), file.getType(), file.getLevel(level));
+            }
+            glPixelStorei(GL_UNPACK_ALIGNMENT, 4);
+        }
+
+        if (getCapabilities().GL_EXT_texture_filter_anisotropic) {
+            float maxAnisotropy = glGetFloat(GL_MAX_TEXTURE_MAX_ANISOTROPY_EXT);
+            glTexParameterf(GL_TEXTURE_2D, GL_TEXTURE_MAX_ANISOTROPY_EXT, Math.min(4.0f, maxAnisotropy));
+        }
+
+        GLState.bindTexture(GL_TEXTURE_2D, 0);
         Texture tex = new Texture();
+        tex.setHandles(ModelLoader.registerTexture(result));
         tex.setTextureID(result);
         return tex;
     }
+
+    private static IntBuffer decompress(ByteBuffer data, int width, int height, BlockCompressor.Format format)
+    {
+        byte[] blocks = new byte[data.remaining()];
+        data.get(blocks);
+        return Buffer.stageInts(BlockCompressor.decode(blocks, width, height, format));
+    }
+
+    /**
+     * A KTX2 or DDS texture from the classpath, next to {@link Resources}. Mapped when it is a plain
+     * file, read into memory when it is inside a jar.
+     */
+    public static TextureContainer openContainer(String name) {
+        URL url = Resources.class.getResource(name);
+        if (url == null) {
+            throw new RuntimeException("Texture not found: " + name);
+        }
+        try {
+            if ("file".equals(url.getProtocol())) {
+                return TextureContainer.map(new File(url.toURI()));
+            }
+            try (InputStream in = url.openStream()) {
+                return TextureContainer.read(in);
+            }
+        } catch (IOException | URISyntaxException e) {
+            throw new RuntimeException("Failed to read texture: " + name, e);
+        }
+    }
+
+    /**
+     * Uploads a KTX2 or DDS file as a 2D texture, or as a cube map when it has six faces. Every image
+     * goes to GL straight from its slice of the file, compressed ones through
+     * {@code glCompressedTexImage2D} (decompressed on the CPU for BC1/BC3 on a GPU without S3TC).
+     * Returns the texture id, unbound.
+     */
+    public static int loadContainer(TextureContainer container)
+    {
+        int target = container.isCubeMap() ? GL_TEXTURE_CUBE_MAP : GL_TEXTURE_2D;
+        int levels = Math.min(container.getLevelCount(), MAX_UPLOADED_LEVELS);
+        int result = glGenTextures();
+
+        GLState.bindTexture(target, result);
+
+        glTexParameteri(target, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+        glTexParameteri(target, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+        if (container.isCubeMap()) {
+            glTexParameteri(target, GL_TEXTURE_WRAP_R, GL_CLAMP_TO_EDGE);
+        }
+        glTexParameteri(target, GL_TEXTURE_MIN_FILTER, levels > 1 ? GL_LINEAR_MIPMAP_LINEAR : GL_LINEAR);
+        glTexParameteri(target, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+        glTexParameteri(target, GL_TEXTURE_BASE_LEVEL, 0);
+        glTexParameteri(target, GL_TEXTURE_MAX_LEVEL, levels - 1);
+
+        BlockCompressor.Format decoded = container.isCompressed()
+                ? BlockCompressor.Format.of(container.getInternalFormat()) : null;
+        if (decoded != null && (!decoded.isS3TC() || getCapabilities().GL_EXT_texture_compression_s3tc)) {
+            decoded = null;
+        }
+
+        // rows of odd widths aren't 4 byte aligned for every format
+        glPixelStorei(GL_UNPACK_ALIGNMENT, 1);
+        for (int face = 0; face < container.getFaceCount(); face++) {
+            int faceTarget = container.isCubeMap() ? GL_TEXTURE_CUBE_MAP_POSITIVE_X + face : GL_TEXTURE_2D;
+            for (int level = 0; level < levels; level++) {
+                int width = container.getLevelWidth(level);
+                int height = container.getLevelHeight(level);
+                ByteBuffer image = container.getImage(level, face);
+                if (decoded != null) {
+                    glTexImage2D(faceTarget, level, GL_RGBA8, width, height, 0, GL_RGBA, GL_UNSIGNED_BYTE,
+                            decompress(image, width, height, decoded));
+                } else if (container.isCompressed()) {
+                    glCompressedTexImage2D(faceTarget, level, container.getInternalFormat(), width, height, 0, image);
+                } else {
+                    glTexImage2D(faceTarget, level, container.getInternalFormat(), width, height, 0,
+                            container.getFormat(), container.getType(), image);
+                }
+            }
+        }
+        glPixelStorei(GL_UNPACK_ALIGNMENT, 4);
+
+        if (!container.isCubeMap() && getCapabilities().GL_EXT_texture_filter_anisotropic) {
+            float maxAnisotropy = glGetFloat(GL_MAX_TEXTURE_MAX_ANISOTROPY_EXT);
+            glTexParameterf(target, GL_TEXTURE_MAX_ANISOTROPY_EXT, Math.min(4.0f, maxAnisotropy));
+        }
+
+        GLState.bindTexture(target, 0);
+        return result;
+    }
 }
@@ -1,5 +1,6 @@
 package framework.model;
 
+import framework.io.MeshFile;
 import framework.loader.ModelLoader;
 
 public class Model
@@ -64,6 +65,12 @@ public class Model
 
     private int vaoId;
     private int vertexCount;
+    // ModelLoader handle of the vao, 0 for a model that isn't loaded
+    private int handle;
+    private int indexType = MeshFile.GL_UNSIGNED_INT;
+    // positions are offset + position * scale, see VertexQuantization
+    private float[] positionOffset = {0, 0, 0};
+    private float[] positionScale = {1, 1, 1};
 
 
     public Model(int vaoId, int length)
@@ -91,4 +98,43 @@ public class Model
     {
         this.vertexCount = vertexCount;
     }
+
+    public int getHandle()
+    {
+        return handle;
+    }
+
+    public void setHandle(int handle)
+    {
+        this.handle = handle;
+    }
+
+    /**
+     * {@code GL_UNSIGNED_INT}, or {@code GL_UNSIGNED_SHORT} for a quantized mesh, what {@code glDrawElements} gets.
+     */
+    public int getIndexType()
+    {
+        return indexType;
+    }
+
+    public void setIndexType(int indexType)
+    {
+        this.indexType = indexType;
+    }
+
+    public float[] getPositionOffset()
+    {
+        return positionOffset;
+    }
+
+    public float[] getPositionScale()
+    {
+        return positionScale;
+    }
+
+    public void setPositionTransform(float[] offset, float[] scale)
+    {
+        this.positionOffset = offset;
+        this.positionScale = scale;
+    }
 }
@@ -1,6 +1,7 @@
 package framework.model;
 
 
+import framework.io.Resources;
 import framework.lang.Mat4;
 import framework.textures.Texture;
 
@@ -8,6 +9,8 @@ public class TexturedModel
 {
     private final Model model;
     private final Texture texture;
+    private int users;
+
     public TexturedModel(Model model, Texture texture)
     {
         this.model = model;
@@ -23,4 +26,26 @@ public class TexturedModel
     {
         return texture;
     }
+
+    /**
+     * Counts an entity using this model. The mesh and texture stay resident in the resource pool
+     * while at least one does.
+     */
+    public void retain()
+    {
+        if(users++ == 0)
+        {
+            Resources.retain(model);
+            Resources.retain(texture);
+        }
+    }
+
+    public void release()
+    {
+        if(users > 0 && --users == 0)
+        {
+            Resources.release(model);
+            Resources.release(texture);
+        }
+    }
 }
@@ -0,0 +1,129 @@
+package framework.renderer;
+
+import framework.entity.Light;
+import framework.lang.Mat4;
+import framework.loader.ModelLoader;
+import framework.util.Buffer;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.lwjgl.opengl.GL31.*;
+
+/**
+ * The uniforms that are the same for every draw of a frame, in one std140 uniform buffer at
+ * {@link #BINDING} that every program reads: camera matrices, camera position, time and lights.
+ * It's written once per frame instead of being loaded into each program. Programs declare the
+ * block as
+ * <pre>
+ * layout(std140) uniform FrameData
+ * {
+ *     mat4 viewMatrix;             //   0
+ *     mat4 projectionMatrix;       //  64
+ *     mat4 viewProjectionMatrix;   // 128
+ *     vec3 cameraPosition;         // 192
+ *     float time;                  // 204, seconds
+ *     int lightCount;              // 208
+ *     Light lights[16];            // 224, 48 bytes each
+ * };
+ * </pre>
+ * and {@link framework.shader.GLShader} points it at the binding when it links them.
+ */
+public class FrameUniforms
+{
+    public static final String BLOCK_NAME = "FrameData";
+    public static final int BINDING = 0;
+    public static final int MAX_LIGHTS = 16;
+
+    private static final int VIEW_MATRIX = 0;
+    private static final int PROJECTION_MATRIX = 64;
+    private static final int VIEW_PROJECTION_MATRIX = 128;
+    private static final int CAMERA_POSITION = 192;
+    private static final int TIME = 204;
+    private static final int LIGHT_COUNT = 208;
+    private static final int LIGHTS = 224;
+    // vec3 pos, vec3 color then intensity and the attenuation, a vec3 is aligned to 16 bytes
+    private static final int LIGHT_SIZE = 48;
+    public static final int SIZE = LIGHTS + MAX_LIGHTS * LIGHT_SIZE;
+
+    private final Mat4 viewProjection = new Mat4();
+    private int ubo;
+
+    /**
+     * Writes the frame's data and binds it for every program. The first {@value #MAX_LIGHTS} lights
+     * are kept. GL thread only.
+     */
+    public void update(Mat4 view, Mat4 projection, float cameraX, float cameraY, float cameraZ, float time, List<Light> lights)
+    {
+        ByteBuffer data = Buffer.stage(SIZE);
+        Mat4.mul(projection, view, viewProjection);
+        write(data, view, projection, viewProjection, cameraX, cameraY, cameraZ, time, lights);
+
+        if(ubo == 0)
+            ubo = ModelLoader.createEmptyVbo(SIZE / Float.BYTES);
+        GLState.bindBuffer(GL_UNIFORM_BUFFER, ubo);
+        // orphaned, last frame's draws may still read the old storage
+        glBufferData(GL_UNIFORM_BUFFER, SIZE, GL_STREAM_DRAW);
+        glBufferSubData(GL_UNIFORM_BUFFER, 0, data);
+        GLState.bindBufferBase(GL_UNIFORM_BUFFER, BINDING, ubo);
+    }
+
+    /**
+     * Lays the frame's data out in std140 from the buffer's position on, which it leaves where it
+     * was. Unused lights are zeroed.
+     */
+    public static void write(ByteBuffer data, Mat4 view, Mat4 projection, Mat4 viewProjection,
+                             float cameraX, float cameraY, float cameraZ, float time, List<Light> lights)
+    {
+        int base = data.position();
+        putMatrix(data, base + VIEW_MATRIX, view);
+        putMatrix(data, base + PROJECTION_MATRIX, projection);
+        putMatrix(data, base + VIEW_PROJECTION_MATRIX, viewProjection);
+        data.putFloat(base + CAMERA_POSITION, cameraX)
+                .putFloat(base + CAMERA_POSITION + 4, cameraY)
+                .putFloat(base + CAMERA_POSITION + 8, cameraZ)
+                .putFloat(base + TIME, time);
+
+        int count = Math.min(lights.size(), MAX_LIGHTS);
+        data.putInt(base + LIGHT_COUNT, count);
+        for(int i = LIGHT_COUNT + 4; i < LIGHTS; i += 4)
+            data.putInt(base + i, 0);
+        for(int i = 0; i < MAX_LIGHTS; i++)
+        {
+            int offset = base + LIGHTS + i * LIGHT_SIZE;
+            if(i >= count)
+            {
+                for(int j = 0; j < LIGHT_SIZE; j += 4)
+                    data.putInt(offset + j, 0);
+                continue;
+            }
+            Light light = lights.get(i);
+            data.putFloat(offset, light.getPosX())
+                    .putFloat(offset + 4, light.getPosY())
+                    .putFloat(offset + 8, light.getPosZ())
+                    .putFloat(offset + 12, 0)
+                    .putFloat(offset + 16, light.r)
+                    .putFloat(offset + 20, light.g)
+                    .putFloat(offset + 24, light.b)
+                    .putFloat(offset + 28, light.getIntensity())
+                    .putFloat(offset + 32, light.getConstant())
+                    .putFloat(offset + 36, light.getLinear())
+                    .putFloat(offset + 40, light.getQuadratic())
+                    .putFloat(offset + 44, light.getDistance());
+        }
+    }
+
+    // column major, as glUniformMatrix4fv takes them untransposed
+    private static void putMatrix(ByteBuffer data, int offset, Mat4 m)
+    {
+        data.putFloat(offset, m.m00).putFloat(offset + 4, m.m01).putFloat(offset + 8, m.m02).putFloat(offset + 12, m.m03)
+                .putFloat(offset + 16, m.m10).putFloat(offset + 20, m.m11).putFloat(offset + 24, m.m12).putFloat(offset + 28, m.m13)
+                .putFloat(offset + 32, m.m20).putFloat(offset + 36, m.m21).putFloat(offset + 40, m.m22).putFloat(offset + 44, m.m23)
+                .putFloat(offset + 48, m.m30).putFloat(offset + 52, m.m31).putFloat(offset + 56, m.m32).putFloat(offset + 60, m.m33);
+    }
+
+    public int getBuffer()
+    {
+        return ubo;
+    }
+}
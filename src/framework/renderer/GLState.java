@@ -0,0 +1,475 @@
+package framework.renderer;
+
+import java.util.Arrays;
+
+import static org.lwjgl.opengl.GL46.*;
+
+/**
+ * What's bound and enabled in the GL context, so that binds of what is already current are left
+ * out. Everything that changes program, vao, generic buffer bindings, texture units, capabilities,
+ * culling, depth or blend state has to go through here, or call {@link #invalidate()} after it.
+ * Deleting objects goes through here too, GL unbinds a deleted name and a new object may reuse it.
+ * <p>
+ * The GL calls themselves go to a {@link Backend}, OpenGL by default. {@link HeadlessGLBackend}
+ * stands in for it without a context, to check the elision. GL thread only.
+ */
+public final class GLState
+{
+    public static final int MAX_TEXTURE_UNITS = 32;
+    // the guaranteed minimum of uniform buffer bindings
+    public static final int MAX_UNIFORM_BINDINGS = 36;
+
+    /**
+     * The GL calls the state cache makes.
+     */
+    public interface Backend
+    {
+        void useProgram(int program);
+        void bindVertexArray(int vao);
+        void bindBuffer(int target, int buffer);
+        void bindBufferBase(int target, int index, int buffer);
+        void activeTexture(int unit);
+        void bindTexture(int target, int texture);
+        void enable(int capability);
+        void disable(int capability);
+        void cullFace(int mode);
+        void depthMask(boolean flag);
+        void depthFunc(int function);
+        void blendFunc(int source, int destination);
+        void deleteVertexArray(int vao);
+        void deleteBuffer(int buffer);
+        void deleteTexture(int texture);
+    }
+
+    public static final class OpenGLBackend implements Backend
+    {
+        @Override
+        public void useProgram(int program)
+        {
+            glUseProgram(program);
+        }
+
+        @Override
+        public void bindVertexArray(int vao)
+        {
+            glBindVertexArray(vao);
+        }
+
+        @Override
+        public void bindBuffer(int target, int buffer)
+        {
+            glBindBuffer(target, buffer);
+        }
+
+        @Override
+        public void bindBufferBase(int target, int index, int buffer)
+        {
+            glBindBufferBase(target, index, buffer);
+        }
+
+        @Override
+        public void activeTexture(int unit)
+        {
+            glActiveTexture(unit);
+        }
+
+        @Override
+        public void bindTexture(int target, int texture)
+        {
+            glBindTexture(target, texture);
+        }
+
+        @Override
+        public void enable(int capability)
+        {
+            glEnable(capability);
+        }
+
+        @Override
+        public void disable(int capability)
+        {
+            glDisable(capability);
+        }
+
+        @Override
+        public void cullFace(int mode)
+        {
+            glCullFace(mode);
+        }
+
+        @Override
+        public void depthMask(boolean flag)
+        {
+            glDepthMask(flag);
+        }
+
+        @Override
+        public void depthFunc(int function)
+        {
+            glDepthFunc(function);
+        }
+
+        @Override
+        public void blendFunc(int source, int destination)
+        {
+            glBlendFunc(source, destination);
+        }
+
+        @Override
+        public void deleteVertexArray(int vao)
+        {
+            glDeleteVertexArrays(vao);
+        }
+
+        @Override
+        public void deleteBuffer(int buffer)
+        {
+            glDeleteBuffers(buffer);
+        }
+
+        @Override
+        public void deleteTexture(int texture)
+        {
+            glDeleteTextures(texture);
+        }
+    }
+
+    // what the cache hasn't seen set since the last invalidate
+    private static final int UNKNOWN = -1;
+
+    // the generic buffer bindings that are context state, element array buffers belong to the vao
+    private static final int[] BUFFER_TARGETS = {GL_ARRAY_BUFFER, GL_UNIFORM_BUFFER, GL_SHADER_STORAGE_BUFFER,
+            GL_COPY_READ_BUFFER, GL_COPY_WRITE_BUFFER, GL_PIXEL_PACK_BUFFER, GL_PIXEL_UNPACK_BUFFER, GL_DRAW_INDIRECT_BUFFER};
+    private static final int[] TEXTURE_TARGETS = {GL_TEXTURE_2D, GL_TEXTURE_CUBE_MAP, GL_TEXTURE_2D_ARRAY, GL_TEXTURE_3D};
+    private static final int[] CAPABILITIES = {GL_DEPTH_TEST, GL_CULL_FACE, GL_BLEND, GL_MULTISAMPLE,
+            GL_SCISSOR_TEST, GL_STENCIL_TEST, GL_FRAMEBUFFER_SRGB};
+
+    private static Backend backend;
+    private static int program;
+    private static int vao;
+    private static final int[] buffers = new int[BUFFER_TARGETS.length];
+    private static final int[] uniformBindings = new int[MAX_UNIFORM_BINDINGS];
+    private static int activeUnit;
+    private static final int[] textures = new int[MAX_TEXTURE_UNITS * TEXTURE_TARGETS.length];
+    private static final int[] capabilities = new int[CAPABILITIES.length];
+    private static int cullFace;
+    private static int depthMask;
+    private static int depthFunc;
+    private static int blendSource;
+    private static int blendDestination;
+
+    private static long issued;
+    private static long elided;
+
+    static
+    {
+        invalidate();
+    }
+
+    private GLState() {}
+
+    /**
+     * Sends the calls to {@code backend} from now on, with nothing known about its state.
+     */
+    public static void setBackend(Backend backend)
+    {
+        GLState.backend = backend;
+        invalidate();
+    }
+
+    public static Backend getBackend()
+    {
+        if(backend == null)
+            backend = new OpenGLBackend();
+        return backend;
+    }
+
+    /**
+     * Forgets the cached state, the next call of every kind reaches GL. For after code that
+     * changed state behind the cache's back.
+     */
+    public static void invalidate()
+    {
+        program = UNKNOWN;
+        vao = UNKNOWN;
+        Arrays.fill(buffers, UNKNOWN);
+        Arrays.fill(uniformBindings, UNKNOWN);
+        activeUnit = UNKNOWN;
+        Arrays.fill(textures, UNKNOWN);
+        Arrays.fill(capabilities, UNKNOWN);
+        cullFace = UNKNOWN;
+        depthMask = UNKNOWN;
+        depthFunc = UNKNOWN;
+        blendSource = UNKNOWN;
+        blendDestination = UNKNOWN;
+    }
+
+    public static void useProgram(int program)
+    {
+        if(GLState.program == program)
+        {
+            elided++;
+            return;
+        }
+        GLState.program = program;
+        issued++;
+        getBackend().useProgram(program);
+    }
+
+    public static void bindVertexArray(int vao)
+    {
+        if(GLState.vao == vao)
+        {
+            elided++;
+            return;
+        }
+        GLState.vao = vao;
+        issued++;
+        getBackend().bindVertexArray(vao);
+    }
+
+    /**
+     * Binds a buffer to a target. Element array buffers are vao state and always go to GL.
+     */
+    public static void bindBuffer(int target, int buffer)
+    {
+        int index = indexOf(BUFFER_TARGETS, target);
+        if(index != -1)
+        {
+            if(buffers[index] == buffer)
+            {
+                elided++;
+                return;
+            }
+            buffers[index] = buffer;
+        }
+        issued++;
+        getBackend().bindBuffer(target, buffer);
+    }
+
+    /**
+     * Binds a buffer to an indexed binding point of a target, and to the target as GL does. Only
+     * uniform buffer binding points are cached, the others always go to GL.
+     */
+    public static void bindBufferBase(int target, int index, int buffer)
+    {
+        if(target == GL_UNIFORM_BUFFER && index < MAX_UNIFORM_BINDINGS)
+        {
+            if(uniformBindings[index] == buffer)
+            {
+                elided++;
+                return;
+            }
+            uniformBindings[index] = buffer;
+        }
+        int generic = indexOf(BUFFER_TARGETS, target);
+        if(generic != -1)
+            buffers[generic] = buffer;
+        issued++;
+        getBackend().bindBufferBase(target, index, buffer);
+    }
+
+    /**
+     * Makes texture unit {@code unit} (0 for {@code GL_TEXTURE0}) the active one.
+     */
+    public static void activeTexture(int unit)
+    {
+        if(activeUnit == unit)
+        {
+            elided++;
+            return;
+        }
+        activeUnit = unit;
+        issued++;
+        getBackend().activeTexture(GL_TEXTURE0 + unit);
+    }
+
+    /**
+     * Binds a texture to the active unit.
+     */
+    public static void bindTexture(int target, int texture)
+    {
+        int index = indexOf(TEXTURE_TARGETS, target);
+        if(index != -1 && activeUnit != UNKNOWN && activeUnit < MAX_TEXTURE_UNITS)
+        {
+            int slot = activeUnit * TEXTURE_TARGETS.length + index;
+            if(textures[slot] == texture)
+            {
+                elided++;
+                return;
+            }
+            textures[slot] = texture;
+        }
+        issued++;
+        getBackend().bindTexture(target, texture);
+    }
+
+    public static void bindTexture(int unit, int target, int texture)
+    {
+        activeTexture(unit);
+        bindTexture(target, texture);
+    }
+
+    public static void enable(int capability)
+    {
+        setCapability(capability, true);
+    }
+
+    public static void disable(int capability)
+    {
+        setCapability(capability, false);
+    }
+
+    public static void setCapability(int capability, boolean enabled)
+    {
+        int index = indexOf(CAPABILITIES, capability);
+        int value = enabled ? 1 : 0;
+        if(index != -1)
+        {
+            if(capabilities[index] == value)
+            {
+                elided++;
+                return;
+            }
+            capabilities[index] = value;
+        }
+        issued++;
+        if(enabled)
+            getBackend().enable(capability);
+        else
+            getBackend().disable(capability);
+    }
+
+    public static void cullFace(int mode)
+    {
+        if(cullFace == mode)
+        {
+            elided++;
+            return;
+        }
+        cullFace = mode;
+        issued++;
+        getBackend().cullFace(mode);
+    }
+
+    public static void depthMask(boolean flag)
+    {
+        int value = flag ? 1 : 0;
+        if(depthMask == value)
+        {
+            elided++;
+            return;
+        }
+        depthMask = value;
+        issued++;
+        getBackend().depthMask(flag);
+    }
+
+    public static void depthFunc(int function)
+    {
+        if(depthFunc == function)
+        {
+            elided++;
+            return;
+        }
+        depthFunc = function;
+        issued++;
+        getBackend().depthFunc(function);
+    }
+
+    public static void blendFunc(int source, int destination)
+    {
+        if(blendSource == source && blendDestination == destination)
+        {
+            elided++;
+            return;
+        }
+        blendSource = source;
+        blendDestination = destination;
+        issued++;
+        getBackend().blendFunc(source, destination);
+    }
+
+    /**
+     * Deletes a vao, it's unbound if it was bound.
+     */
+    public static void deleteVertexArray(int vao)
+    {
+        if(GLState.vao == vao)
+            GLState.vao = 0;
+        getBackend().deleteVertexArray(vao);
+    }
+
+    /**
+     * Deletes a buffer, the bindings it had revert to 0.
+     */
+    public static void deleteBuffer(int buffer)
+    {
+        for(int i = 0; i < buffers.length; i++)
+        {
+            if(buffers[i] == buffer)
+                buffers[i] = 0;
+        }
+        for(int i = 0; i < uniformBindings.length; i++)
+        {
+            if(uniformBindings[i] == buffer)
+                uniformBindings[i] = 0;
+        }
+        getBackend().deleteBuffer(buffer);
+    }
+
+    /**
+     * Deletes a texture, the units it was bound to revert to 0.
+     */
+    public static void deleteTexture(int texture)
+    {
+        for(int i = 0; i < textures.length; i++)
+        {
+            if(textures[i] == texture)
+                textures[i] = 0;
+        }
+        getBackend().deleteTexture(texture);
+    }
+
+    public static int getProgram()
+    {
+        return program;
+    }
+
+    public static int getVertexArray()
+    {
+        return vao;
+    }
+
+    /**
+     * Calls that reached the backend since the last {@link #resetCounts()}.
+     */
+    public static long getIssuedCount()
+    {
+        return issued;
+    }
+
+    /**
+     * Calls left out since the last {@link #resetCounts()}, the state was current already.
+     */
+    public static long getElidedCount()
+    {
+        return elided;
+    }
+
+    public static void resetCounts()
+    {
+        issued = 0;
+        elided = 0;
+    }
+
+    private static int indexOf(int[] values, int value)
+    {
+        for(int i = 0; i < values.length; i++)
+        {
+            if(values[i] == value)
+                return i;
+        }
+        return -1;
+    }
+}
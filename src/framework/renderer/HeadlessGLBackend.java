@@ -0,0 +1,220 @@
+package framework.renderer;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.lwjgl.opengl.GL46.*;
+
+/**
+ * A {@link GLState.Backend} without a context: it keeps the state the calls would leave GL in,
+ * the way GL would (deleting a bound object unbinds it), and counts the calls. For checking the
+ * state cache headless, see {@link framework.benchmark.GLStateBenchmark}.
+ */
+public class HeadlessGLBackend implements GLState.Backend
+{
+    private int program;
+    private int vao;
+    private final Map<Integer, Integer> buffers = new HashMap<>();
+    // by target and binding point
+    private final Map<Long, Integer> indexedBuffers = new HashMap<>();
+    private int activeUnit = GL_TEXTURE0;
+    // by active unit enum and target
+    private final Map<Long, Integer> textures = new HashMap<>();
+    private final Set<Integer> enabled = new HashSet<>();
+    private int cullFace = GL_BACK;
+    private boolean depthMask = true;
+    private int depthFunc = GL_LESS;
+    private int blendSource = GL_ONE;
+    private int blendDestination = GL_ZERO;
+    private long calls;
+
+    @Override
+    public void useProgram(int program)
+    {
+        calls++;
+        this.program = program;
+    }
+
+    @Override
+    public void bindVertexArray(int vao)
+    {
+        calls++;
+        this.vao = vao;
+    }
+
+    @Override
+    public void bindBuffer(int target, int buffer)
+    {
+        calls++;
+        buffers.put(target, buffer);
+    }
+
+    @Override
+    public void bindBufferBase(int target, int index, int buffer)
+    {
+        calls++;
+        indexedBuffers.put(slot(target, index), buffer);
+        buffers.put(target, buffer);
+    }
+
+    @Override
+    public void activeTexture(int unit)
+    {
+        calls++;
+        activeUnit = unit;
+    }
+
+    @Override
+    public void bindTexture(int target, int texture)
+    {
+        calls++;
+        textures.put(slot(activeUnit, target), texture);
+    }
+
+    @Override
+    public void enable(int capability)
+    {
+        calls++;
+        enabled.add(capability);
+    }
+
+    @Override
+    public void disable(int capability)
+    {
+        calls++;
+        enabled.remove(capability);
+    }
+
+    @Override
+    public void cullFace(int mode)
+    {
+        calls++;
+        cullFace = mode;
+    }
+
+    @Override
+    public void depthMask(boolean flag)
+    {
+        calls++;
+        depthMask = flag;
+    }
+
+    @Override
+    public void depthFunc(int function)
+    {
+        calls++;
+        depthFunc = function;
+    }
+
+    @Override
+    public void blendFunc(int source, int destination)
+    {
+        calls++;
+        blendSource = source;
+        blendDestination = destination;
+    }
+
+    @Override
+    public void deleteVertexArray(int vao)
+    {
+        calls++;
+        if(this.vao == vao)
+            this.vao = 0;
+    }
+
+    @Override
+    public void deleteBuffer(int buffer)
+    {
+        calls++;
+        buffers.replaceAll((target, bound) -> bound == buffer ? 0 : bound);
+        indexedBuffers.replaceAll((slot, bound) -> bound == buffer ? 0 : bound);
+    }
+
+    @Override
+    public void deleteTexture(int texture)
+    {
+        calls++;
+        textures.replaceAll((slot, bound) -> bound == texture ? 0 : bound);
+    }
+
+    public int getProgram()
+    {
+        return program;
+    }
+
+    public int getVertexArray()
+    {
+        return vao;
+    }
+
+    public int getBuffer(int target)
+    {
+        return buffers.getOrDefault(target, 0);
+    }
+
+    /**
+     * The buffer bound to binding point {@code index} of {@code target}.
+     */
+    public int getBuffer(int target, int index)
+    {
+        return indexedBuffers.getOrDefault(slot(target, index), 0);
+    }
+
+    public int getActiveTexture()
+    {
+        return activeUnit;
+    }
+
+    /**
+     * The texture bound to {@code target} of unit {@code unit}, 0 for {@code GL_TEXTURE0}.
+     */
+    public int getTexture(int unit, int target)
+    {
+        return textures.getOrDefault(slot(GL_TEXTURE0 + unit, target), 0);
+    }
+
+    public boolean isEnabled(int capability)
+    {
+        return enabled.contains(capability);
+    }
+
+    public int getCullFace()
+    {
+        return cullFace;
+    }
+
+    public boolean getDepthMask()
+    {
+        return depthMask;
+    }
+
+    public int getDepthFunc()
+    {
+        return depthFunc;
+    }
+
+    public int getBlendSource()
+    {
+        return blendSource;
+    }
+
+    public int getBlendDestination()
+    {
+        return blendDestination;
+    }
+
+    /**
+     * Every call that reached this backend.
+     */
+    public long getCallCount()
+    {
+        return calls;
+    }
+
+    private static long slot(int first, int second)
+    {
+        return (long) first << 32 | second;
+    }
+}
@@ -0,0 +1,154 @@
+package framework.renderer;
+
+import framework.entity.Entity;
+import framework.lang.Mat4;
+import framework.loader.ModelLoader;
+import framework.util.Buffer;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import static org.lwjgl.opengl.GL33.*;
+
+/**
+ * The per instance attributes of a frame's instanced draws in one stream buffer: the transformation
+ * matrix, one column per attribute from {@link #MATRIX_LOCATION}, and the color at
+ * {@link #COLOR_LOCATION}, {@value #INSTANCE_FLOATS} floats per instance. Packing is split over the
+ * common pool for large frames, with tasks and buffers kept from frame to frame so nothing is
+ * allocated once they are large enough.
+ */
+public class InstanceBuffer
+{
+    public static final int MATRIX_LOCATION = 4;
+    public static final int COLOR_LOCATION = 8;
+    public static final int INSTANCE_FLOATS = 20;
+    private static final int STRIDE = INSTANCE_FLOATS * Float.BYTES;
+    // below this many instances a single thread packs faster than the tasks start
+    private static final int PARALLEL_THRESHOLD = 2048;
+
+    private final PackTask[] tasks;
+    private Entity[] entities = new Entity[256];
+    private FloatBuffer data = Buffer.createFloatBuffer(256 * INSTANCE_FLOATS);
+    private int size;
+    private int vbo;
+    private int vboCapacity;
+
+    // packs one range of the instances, reinitialized every frame; never serialized
+    @SuppressWarnings("serial")
+    private final class PackTask extends RecursiveAction
+    {
+        private int from;
+        private int to;
+
+        @Override
+        protected void compute()
+        {
+            for(int i = from; i < to; i++)
+                pack(i);
+        }
+    }
+
+    public InstanceBuffer()
+    {
+        tasks = new PackTask[Math.max(1, ForkJoinPool.getCommonPoolParallelism())];
+        for(int i = 0; i < tasks.length; i++)
+            tasks[i] = new PackTask();
+    }
+
+    /**
+     * Adds an entity as the next instance, returns its index.
+     */
+    public int add(Entity entity)
+    {
+        if(size == entities.length)
+            entities = Arrays.copyOf(entities, size * 2);
+        entities[size] = entity;
+        return size++;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Writes every added instance into the buffer and uploads it, orphaning last frame's storage.
+     * GL thread only.
+     */
+    public void upload()
+    {
+        if(size == 0)
+            return;
+        if(data.capacity() < size * INSTANCE_FLOATS)
+            data = Buffer.createFloatBuffer(Integer.highestOneBit(size * INSTANCE_FLOATS) << 1);
+
+        if(size < PARALLEL_THRESHOLD || tasks.length == 1)
+        {
+            for(int i = 0; i < size; i++)
+                pack(i);
+        }
+        else
+        {
+            int chunk = (size + tasks.length - 1) / tasks.length;
+            for(int i = 0; i < tasks.length; i++)
+            {
+                tasks[i].reinitialize();
+                tasks[i].from = Math.min(size, i * chunk);
+                tasks[i].to = Math.min(size, (i + 1) * chunk);
+            }
+            ForkJoinTask.invokeAll(tasks);
+        }
+
+        if(vbo == 0)
+            vbo = ModelLoader.createEmptyVbo(data.capacity());
+        GLState.bindBuffer(GL_ARRAY_BUFFER, vbo);
+        vboCapacity = Math.max(vboCapacity, data.capacity());
+        glBufferData(GL_ARRAY_BUFFER, (long) vboCapacity * Float.BYTES, GL_STREAM_DRAW);
+        glBufferSubData(GL_ARRAY_BUFFER, 0, data.limit(size * INSTANCE_FLOATS));
+        data.clear();
+    }
+
+    /**
+     * Points the instance attributes of the bound vao at the instances from {@code first} on.
+     */
+    public void bind(int first)
+    {
+        GLState.bindBuffer(GL_ARRAY_BUFFER, vbo);
+        long offset = (long) first * STRIDE;
+        for(int column = 0; column < 4; column++)
+        {
+            glVertexAttribPointer(MATRIX_LOCATION + column, 4, GL_FLOAT, false, STRIDE, offset + column * 4L * Float.BYTES);
+            glVertexAttribDivisor(MATRIX_LOCATION + column, 1);
+            glEnableVertexAttribArray(MATRIX_LOCATION + column);
+        }
+        glVertexAttribPointer(COLOR_LOCATION, 4, GL_FLOAT, false, STRIDE, offset + 16L * Float.BYTES);
+        glVertexAttribDivisor(COLOR_LOCATION, 1);
+        glEnableVertexAttribArray(COLOR_LOCATION);
+    }
+
+    /**
+     * Forgets the instances, for the next frame.
+     */
+    public void clear()
+    {
+        Arrays.fill(entities, 0, size, null);
+        size = 0;
+    }
+
+    // absolute puts only, the tasks share the buffer
+    private void pack(int instance)
+    {
+        Entity entity = entities[instance];
+        Mat4 m = entity.getTransformationMatrix();
+        int i = instance * INSTANCE_FLOATS;
+        data.put(i, m.m00).put(i + 1, m.m01).put(i + 2, m.m02).put(i + 3, m.m03)
+                .put(i + 4, m.m10).put(i + 5, m.m11).put(i + 6, m.m12).put(i + 7, m.m13)
+                .put(i + 8, m.m20).put(i + 9, m.m21).put(i + 10, m.m22).put(i + 11, m.m23)
+                .put(i + 12, m.m30).put(i + 13, m.m31).put(i + 14, m.m32).put(i + 15, m.m33)
+                .put(i + 16, entity.getRed()).put(i + 17, entity.getGreen())
+                .put(i + 18, entity.getBlue()).put(i + 19, entity.getAlpha());
+    }
+}
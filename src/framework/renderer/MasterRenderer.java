@@ -2,17 +2,20 @@ package framework.renderer;
 
 
 
+import framework.entity.Camera;
 import framework.entity.Entity;
+import framework.entity.Light;
 import framework.environment.Engine;
 import framework.hardware.Display;
 import framework.lang.Mat4;
-import framework.model.Model;
 import framework.shader.GLShader;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import static framework.shader.GLShader.EntityShader;
+import static framework.shader.GLShader.InstancedEntityShader;
 import static org.lwjgl.opengl.GL30.*;
-import static org.lwjgl.opengl.GL20.glDisableVertexAttribArray;
-import static org.lwjgl.opengl.GL20.glEnableVertexAttribArray;
 
 public class MasterRenderer {
     public static float fov = 70;
@@ -22,6 +25,9 @@ public class MasterRenderer {
     public static float SKY_GREEN = 0.9f;
     public static float SKY_BLUE = 0.67f;
     private static Mat4 projectionMatrix;
+    private static final RenderQueue queue = new RenderQueue();
+    private static final FrameUniforms frameUniforms = new FrameUniforms();
+    private static final List<Light> lights = new ArrayList<>();
 
 
     public static void setRenderer()
@@ -29,9 +35,7 @@ public class MasterRenderer {
         projectionMatrix = new Mat4();
         updateProjectionMatrix();
         GLShader.initializeShaders();
-        GLShader.bind(EntityShader.program);
-        GLShader.loadUniform("projectionMatrix", projectionMatrix);
-        GLShader.unbind();
+        queue.setInstancedShader(EntityShader.program, InstancedEntityShader.program);
         enableCulling();
         enableDepthTest();
 
@@ -39,44 +43,50 @@ public class MasterRenderer {
 
     private static void enableDepthTest()
     {
-        glEnable(GL_DEPTH_TEST);
+        GLState.enable(GL_DEPTH_TEST);
     }
 
     public static void enableCulling() {
-        glEnable(GL_CULL_FACE);
-        glCullFace(GL_BACK);
+        GLState.enable(GL_CULL_FACE);
+        GLState.cullFace(GL_BACK);
     }
 
     public static void disableCulling() {
-        glDisable(GL_CULL_FACE);
+        GLState.disable(GL_CULL_FACE);
+    }
+
+    /**
+     * Queues the entity for this frame's {@link #render()}, entities still loading are skipped.
+     */
+    public static void processEntity(Entity entity) {
+        queue.submit(entity, EntityShader.program, Engine.test.getViewMatrix());
     }
 
-    public static void processEntity() {
+    /**
+     * Lights the frame drawn by the next {@link #render()}, up to {@value FrameUniforms#MAX_LIGHTS}.
+     */
+    public static void processLight(Light light) {
+        lights.add(light);
+    }
 
+    /**
+     * Draws every entity processed this frame, sorted so state changes only between groups. The
+     * camera, projection and lights are written once for all programs before it.
+     */
+    public static void render() {
+        Camera camera = Engine.test;
+        frameUniforms.update(camera.getViewMatrix(), projectionMatrix, camera.getPosX(), camera.getPosY(), camera.getPosZ(),
+                Display.getTimeInSeconds(), lights);
+        queue.flush();
+        lights.clear();
     }
 
-    public static void render(Entity entity) {
-        Model model = entity.getModel().getModel();
-        glBindVertexArray(model.getVaoId());
-        glEnableVertexAttribArray(0);
-        glEnableVertexAttribArray(1);
-
-        // enable uniforms
-        GLShader.loadUniform("transformationMatrix", entity.getTransformationMatrix());
-        GLShader.loadUniform("viewMatrix", Engine.test.getViewMatrix());
-        GLShader.loadUniform("hasTexture", entity.getModel().getTexture().getTextureId() != 0);
-        GLShader.loadUniform("backgroundColor", entity.getRed(), entity.getGreen(), entity.getBlue(), entity.getAlpha());
-
-        glActiveTexture(GL_TEXTURE0);
-        glBindTexture(GL_TEXTURE_2D, entity.getModel().getTexture().getTextureId());
-        glDrawElements(GL_TRIANGLES, model.getVertexCount(), GL_UNSIGNED_INT, 0);
-        glDisableVertexAttribArray(0);
-        glDisableVertexAttribArray(1);
-        glBindVertexArray(0);
+    public static RenderQueue getQueue() {
+        return queue;
     }
 
     public static void prepare() {
-        glEnable(GL_DEPTH_TEST);    // test which triangles are in front and render them in the correct order
+        GLState.enable(GL_DEPTH_TEST);    // test which triangles are in front and render them in the correct order
         glClearColor(0,0, 0, 1);      // Load selected color into the color buffer
         glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);     // Clear the screen and draw with color in color buffer
     }
@@ -0,0 +1,303 @@
+package framework.renderer;
+
+import framework.entity.Entity;
+import framework.lang.Mat4;
+import framework.model.Model;
+import framework.shader.GLShader;
+import framework.shader.GLShader.ShaderProgram;
+import framework.textures.Texture;
+import framework.util.RadixSort;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import static org.lwjgl.opengl.GL31.*;
+
+/**
+ * The draws of a frame, sorted by a 64 bit key before anything is sent to GL so that state only
+ * changes where the key does. Entities are submitted during the frame, {@link #flush} sorts and
+ * draws them and empties the queue.
+ * <p>
+ * Opaque draws are grouped by shader, texture and vao, front to back inside a group so the depth
+ * test rejects what's hidden. Transparent draws come after all opaque ones, strictly back to
+ * front with blending on, grouped only where their depth ties.
+ * <pre>
+ *  opaque:      pass 2 | shader 6 | texture 16 | vao 16 | depth 24
+ *  transparent: pass 2 | inverted depth 24 | shader 6 | texture 16 | vao 16
+ * </pre>
+ * Shader, texture and vao are the low bits of their GL names. Two names that share them only sort
+ * together, the state changes compare the full names.
+ * <p>
+ * Runs of commands that share shader, texture and vao, typically many entities of one
+ * {@link framework.model.TexturedModel}, are drawn with one {@code glDrawElementsInstanced} when
+ * their shader has an instanced counterpart, see {@link #setInstancedShader}. Their transforms and
+ * colors go through an {@link InstanceBuffer} instead of uniforms.
+ */
+public class RenderQueue
+{
+    public static final int OPAQUE = 0;
+    public static final int TRANSPARENT = 1;
+
+    private static final int DEPTH_BITS = 24;
+    private static final long DEPTH_MASK = (1L << DEPTH_BITS) - 1;
+    private static final long SHADER_MASK = 0x3F;
+    private static final long NAME_MASK = 0xFFFF;
+
+    private static final int HAS_TEXTURE = GLShader.getUniform("hasTexture");
+    private static final int POSITION_OFFSET = GLShader.getUniform("positionOffset");
+    private static final int POSITION_SCALE = GLShader.getUniform("positionScale");
+    private static final int TRANSFORMATION_MATRIX = GLShader.getUniform("transformationMatrix");
+    private static final int BACKGROUND_COLOR = GLShader.getUniform("backgroundColor");
+
+    private long[] keys = new long[256];
+    private int[] commands = new int[256];
+    private long[] keyScratch = new long[256];
+    private int[] commandScratch = new int[256];
+    private final int[] histograms = new int[RadixSort.HISTOGRAM_SIZE];
+    private Entity[] entities = new Entity[256];
+    private ShaderProgram[] shaders = new ShaderProgram[256];
+    private int size;
+    // per sorted command, the length of the instanced run it starts (0 otherwise) and its first instance
+    private int[] runLengths = new int[256];
+    private int[] runStarts = new int[256];
+    private final InstanceBuffer instances = new InstanceBuffer();
+    private final Map<ShaderProgram, ShaderProgram> instancedShaders = new IdentityHashMap<>();
+    private int instancingThreshold = 4;
+
+    private int draws;
+    private int stateChanges;
+
+    /**
+     * The sort key of a draw, {@code depth} being the distance in front of the camera.
+     */
+    public static long key(int pass, int shader, int texture, int vao, float depth)
+    {
+        // positive floats order like their bits, the top 24 of them keep 16 bits of mantissa
+        long depthBits = Float.floatToRawIntBits(Math.max(depth, 0)) >>> (Float.SIZE - 1 - DEPTH_BITS);
+        long key = (long) pass << 62;
+        if(pass == TRANSPARENT)
+        {
+            return key | (~depthBits & DEPTH_MASK) << 38 | (shader & SHADER_MASK) << 32
+                    | (texture & NAME_MASK) << 16 | (vao & NAME_MASK);
+        }
+        return key | (shader & SHADER_MASK) << 56 | (texture & NAME_MASK) << 40
+                | (vao & NAME_MASK) << 24 | depthBits;
+    }
+
+    /**
+     * Queues the entity with the shader to draw it with, {@code viewMatrix} is the camera's. Entities
+     * whose model or transformation isn't there yet are left out.
+     */
+    public void submit(Entity entity, ShaderProgram shader, Mat4 viewMatrix)
+    {
+        Model model = entity.getModel().getModel();
+        Mat4 transformation = entity.getTransformationMatrix();
+        if(model.getVaoId() == 0 || transformation == null)
+            return;
+        Texture texture = entity.getModel().getTexture();
+        int pass = texture.hasTransparency() ? TRANSPARENT : OPAQUE;
+
+        // view space z of the entity's origin, the camera looks down -z
+        float z = viewMatrix.m02 * transformation.m30 + viewMatrix.m12 * transformation.m31
+                + viewMatrix.m22 * transformation.m32 + viewMatrix.m32;
+
+        if(size == keys.length)
+            grow();
+        keys[size] = key(pass, shader.getProgramId(), texture.getTextureId(), model.getVaoId(), -z);
+        commands[size] = size;
+        entities[size] = entity;
+        shaders[size] = shader;
+        size++;
+    }
+
+    /**
+     * Sorts and draws everything submitted since the last flush, then empties the queue. Camera and
+     * lights come from the frame's {@link FrameUniforms}. Blending is off afterwards. The last
+     * program, vao and texture stay bound, {@link GLState} leaves their binds out when the next
+     * frame starts with the same ones. GL thread only.
+     */
+    public void flush()
+    {
+        long[] sortedKeys = keys;
+        int[] order = commands;
+        if(RadixSort.sort(keys, commands, size, keyScratch, commandScratch, histograms))
+        {
+            sortedKeys = keyScratch;
+            order = commandScratch;
+        }
+        batchInstances(sortedKeys, order);
+        instances.upload();
+
+        draws = 0;
+        stateChanges = 0;
+        // opaque state, the cache makes this free unless something left it otherwise
+        GLState.disable(GL_BLEND);
+        GLState.depthMask(true);
+        ShaderProgram bound = null;
+        int pass = OPAQUE;
+        int texture = -1;
+        int vao = -1;
+        for(int i = 0; i < size; i++)
+        {
+            Entity entity = entities[order[i]];
+            Model model = entity.getModel().getModel();
+            Texture entityTexture = entity.getModel().getTexture();
+            int commandPass = (int) (sortedKeys[i] >>> 62);
+            int run = runLengths[i];
+            ShaderProgram shader = run > 0 ? instancedShaders.get(shaders[order[i]]) : shaders[order[i]];
+
+            if(commandPass != pass)
+            {
+                pass = commandPass;
+                GLState.enable(GL_BLEND);
+                GLState.blendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
+                GLState.depthMask(false);
+                stateChanges++;
+            }
+            if(shader != bound)
+            {
+                bound = shader;
+                GLShader.bind(shader);
+                // uniforms are per program, GLShader leaves out the ones this program already has
+                texture = -1;
+                vao = -1;
+                stateChanges++;
+            }
+            if(entityTexture.getTextureId() != texture)
+            {
+                texture = entityTexture.getTextureId();
+                GLState.bindTexture(0, GL_TEXTURE_2D, texture);
+                GLShader.loadUniform(HAS_TEXTURE, texture != 0);
+                stateChanges++;
+            }
+            if(model.getVaoId() != vao)
+            {
+                vao = model.getVaoId();
+                GLState.bindVertexArray(vao);
+                float[] offset = model.getPositionOffset();
+                float[] scale = model.getPositionScale();
+                GLShader.loadUniform(POSITION_OFFSET, offset[0], offset[1], offset[2]);
+                GLShader.loadUniform(POSITION_SCALE, scale[0], scale[1], scale[2]);
+                stateChanges++;
+            }
+
+            if(run > 0)
+            {
+                // the run's transforms and colors come from the instance buffer
+                instances.bind(runStarts[i]);
+                glDrawElementsInstanced(GL_TRIANGLES, model.getVertexCount(), model.getIndexType(), 0, run);
+                i += run - 1;
+            }
+            else
+            {
+                GLShader.loadUniform(TRANSFORMATION_MATRIX, entity.getTransformationMatrix());
+                GLShader.loadUniform(BACKGROUND_COLOR, entity.getRed(), entity.getGreen(), entity.getBlue(), entity.getAlpha());
+                glDrawElements(GL_TRIANGLES, model.getVertexCount(), model.getIndexType(), 0);
+            }
+            draws++;
+        }
+
+        if(pass == TRANSPARENT)
+        {
+            GLState.disable(GL_BLEND);
+            GLState.depthMask(true);
+        }
+        instances.clear();
+        clear();
+    }
+
+    /**
+     * Draws runs of at least {@code threshold} consecutive commands with the same shader, texture and
+     * vao as one instanced draw, with the instanced counterpart of the shader given here. Shaders
+     * without one are never instanced.
+     */
+    public void setInstancedShader(ShaderProgram shader, ShaderProgram instanced)
+    {
+        instancedShaders.put(shader, instanced);
+    }
+
+    /**
+     * The shortest run drawn instanced, {@link Integer#MAX_VALUE} turns instancing off.
+     */
+    public void setInstancingThreshold(int threshold)
+    {
+        instancingThreshold = Math.max(1, threshold);
+    }
+
+    // marks the runs to draw instanced at their first command and adds their entities to the instances
+    private void batchInstances(long[] sortedKeys, int[] order)
+    {
+        if(runLengths.length < size)
+        {
+            runLengths = new int[keys.length];
+            runStarts = new int[keys.length];
+        }
+        for(int i = 0; i < size; )
+        {
+            int first = order[i];
+            int end = i + 1;
+            while(end < size && sameBatch(first, order[end]) && sortedKeys[end] >>> 62 == sortedKeys[i] >>> 62)
+                end++;
+            boolean instanced = end - i >= instancingThreshold && instancedShaders.containsKey(shaders[first]);
+            Arrays.fill(runLengths, i, end, 0);
+            if(instanced)
+            {
+                runLengths[i] = end - i;
+                runStarts[i] = instances.size();
+                for(int j = i; j < end; j++)
+                    instances.add(entities[order[j]]);
+            }
+            i = end;
+        }
+    }
+
+    private boolean sameBatch(int a, int b)
+    {
+        return shaders[a] == shaders[b]
+                && entities[a].getModel().getModel().getVaoId() == entities[b].getModel().getModel().getVaoId()
+                && entities[a].getModel().getTexture().getTextureId() == entities[b].getModel().getTexture().getTextureId();
+    }
+
+    /**
+     * Drops everything submitted without drawing it.
+     */
+    public void clear()
+    {
+        Arrays.fill(entities, 0, size, null);
+        Arrays.fill(shaders, 0, size, null);
+        size = 0;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Draws of the last flush, an instanced draw counts once.
+     */
+    public int getDrawCount()
+    {
+        return draws;
+    }
+
+    /**
+     * Shader, texture, vao and blending changes of the last flush.
+     */
+    public int getStateChanges()
+    {
+        return stateChanges;
+    }
+
+    private void grow()
+    {
+        int capacity = keys.length * 2;
+        keys = Arrays.copyOf(keys, capacity);
+        commands = Arrays.copyOf(commands, capacity);
+        keyScratch = new long[capacity];
+        commandScratch = new int[capacity];
+        entities = Arrays.copyOf(entities, capacity);
+        shaders = Arrays.copyOf(shaders, capacity);
+    }
+}
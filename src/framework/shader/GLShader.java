@@ -2,6 +2,9 @@ package framework.shader;
 
 import framework.lang.Mat4;
 import framework.io.Resources;
+import framework.renderer.FrameUniforms;
+import framework.renderer.GLState;
+import framework.renderer.InstanceBuffer;
 import framework.util.Buffer;
 
 import java.io.BufferedReader;
@@ -9,6 +12,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.FloatBuffer;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
@@ -36,8 +40,10 @@ import static org.lwjgl.opengl.GL20.glUniform2f;
 import static org.lwjgl.opengl.GL20.glUniform3f;
 import static org.lwjgl.opengl.GL20.glUniform4f;
 import static org.lwjgl.opengl.GL20.glUniformMatrix4fv;
-import static org.lwjgl.opengl.GL20.glUseProgram;
 import static org.lwjgl.opengl.GL20.glValidateProgram;
+import static org.lwjgl.opengl.GL31.GL_INVALID_INDEX;
+import static org.lwjgl.opengl.GL31.glGetUniformBlockIndex;
+import static org.lwjgl.opengl.GL31.glUniformBlockBinding;
 
 public final class GLShader
 {
@@ -45,6 +51,10 @@ public final class GLShader
     public static final String fragmentPrefix =  "glsl" + File.separator + "fragment" + File.separator;
     private static FloatBuffer matrix = Buffer.createFloatBuffer(16);
     private static ShaderProgram currentProgram;
+    // uniform names to handles, shared by every program
+    private static final Map<String, Integer> handles = new HashMap<>();
+    private static long uploads;
+    private static long skippedUploads;
 
     public static abstract class ShaderProgram
     {
@@ -63,23 +73,22 @@ public final class GLShader
         private int programId;
         private int vertex;
         private int fragment;
-        Map<String, Integer> uniforms;
+        // by uniform handle: the location in this program (-1 when it has none) and the last upload
+        private int[] locations = {};
+        private int[] values = {};
+        private boolean[] loaded = {};
 
         public ShaderProgram(int id, int vertex, int fragment)
         {
             programId = id;
             this.vertex = vertex;
             this.fragment = fragment;
-            uniforms = new HashMap<>();
         }
 
         protected void addUniform(String name, int index)
         {
             for(int i = 0; i < index; i++)
-            {
-                String uniformName = name + "[" + i + "]";
-                uniforms.put(uniformName, getUniformLocation(uniformName));
-            }
+                addUniform(name + "[" + i + "]");
         }
 
         protected void addUniform(Struct struct, int index)
@@ -91,15 +100,75 @@ public final class GLShader
         protected void addUniform(Struct struct)
         {
             for(String s : struct.fields)
-            {
-                String name = struct.name + "." + s;
-                uniforms.put(name, getUniformLocation(name));
-            }
+                addUniform(struct.name + "." + s);
         }
 
         protected void addUniform(String name)
         {
-            uniforms.put(name, getUniformLocation(name));
+            int handle = getUniform(name);
+            reserve(handle);
+            locations[handle] = getUniformLocation(name);
+            loaded[handle] = false;
+        }
+
+        /**
+         * Where the uniform is in this program, -1 when the program doesn't have it.
+         */
+        public int getLocation(int uniform)
+        {
+            return uniform < locations.length ? locations[uniform] : -1;
+        }
+
+        // stores the values as the uniform's last upload, false when that's what it already was
+        private boolean update(int uniform, int count, int x, int y, int z, int w)
+        {
+            int base = uniform * 16;
+            if(loaded[uniform] && (count < 1 || values[base] == x) && (count < 2 || values[base + 1] == y)
+                    && (count < 3 || values[base + 2] == z) && (count < 4 || values[base + 3] == w))
+                return false;
+            values[base] = x;
+            values[base + 1] = y;
+            values[base + 2] = z;
+            values[base + 3] = w;
+            loaded[uniform] = true;
+            return true;
+        }
+
+        private boolean update(int uniform, Mat4 m)
+        {
+            int base = uniform * 16;
+            boolean same = loaded[uniform];
+            same = store(base, m.m00, same) & store(base + 1, m.m01, same) & store(base + 2, m.m02, same) & store(base + 3, m.m03, same);
+            same = store(base + 4, m.m10, same) & store(base + 5, m.m11, same) & store(base + 6, m.m12, same) & store(base + 7, m.m13, same);
+            same = store(base + 8, m.m20, same) & store(base + 9, m.m21, same) & store(base + 10, m.m22, same) & store(base + 11, m.m23, same);
+            same = store(base + 12, m.m30, same) & store(base + 13, m.m31, same) & store(base + 14, m.m32, same) & store(base + 15, m.m33, same);
+            loaded[uniform] = true;
+            return !same;
+        }
+
+        private boolean store(int index, float value, boolean same)
+        {
+            int bits = Float.floatToRawIntBits(value);
+            boolean equal = same && values[index] == bits;
+            values[index] = bits;
+            return equal;
+        }
+
+        private void reserve(int uniform)
+        {
+            if(uniform < locations.length)
+                return;
+            int size = Math.max(uniform + 1, locations.length * 2);
+            int from = locations.length;
+            locations = Arrays.copyOf(locations, size);
+            Arrays.fill(locations, from, size, -1);
+            values = Arrays.copyOf(values, size * 16);
+            loaded = Arrays.copyOf(loaded, size);
+        }
+
+        public int getProgramId()
+        {
+            return programId;
         }
 
         protected int getUniformLocation(String name)
@@ -120,6 +189,7 @@ public final class GLShader
     public static void initializeShaders()
     {
         EntityShader.initializeShader();
+        InstancedEntityShader.initializeShader();
     }
 
     private static void getAllUniformLocations(ShaderProgram program)
@@ -131,41 +201,166 @@ public final class GLShader
     {
         glLinkProgram(program.programId);
         glValidateProgram(program.programId);
+        bindFrameUniforms(program);
+    }
+
+    // the per frame block is shared, every program reads it from the same binding
+    private static void bindFrameUniforms(ShaderProgram program)
+    {
+        int block = glGetUniformBlockIndex(program.programId, FrameUniforms.BLOCK_NAME);
+        if(block != GL_INVALID_INDEX)
+            glUniformBlockBinding(program.programId, block, FrameUniforms.BINDING);
+    }
+
+    /**
+     * The handle of a uniform name, the same in every program. Resolve it once and load with the
+     * handle instead of the name, a program without the uniform ignores it. GL thread only.
+     */
+    public static int getUniform(String name)
+    {
+        Integer handle = handles.get(name);
+        if(handle == null)
+        {
+            handle = handles.size();
+            handles.put(name, handle);
+        }
+        return handle;
     }
 
     public static void loadUniform(String name, float value)
     {
-        loadFloat(currentProgram.uniforms.get(name), value);
+        loadUniform(getUniform(name), value);
     }
 
     public static void loadUniform(String name, float x, float y)
     {
-        loadVector(currentProgram.uniforms.get(name), x, y);
+        loadUniform(getUniform(name), x, y);
     }
 
     public static void loadUniform(String name, float x, float y, float z)
     {
-        loadVector(currentProgram.uniforms.get(name), x, y, z);
+        loadUniform(getUniform(name), x, y, z);
     }
 
     public static void loadUniform(String name, float x, float y, float z, float w)
     {
-        loadVector(currentProgram.uniforms.get(name), x, y, z, w);
+        loadUniform(getUniform(name), x, y, z, w);
     }
 
     public static void loadUniform(String name, int value)
     {
-        loadInteger(currentProgram.uniforms.get(name), value);
+        loadUniform(getUniform(name), value);
     }
 
     public static void loadUniform(String name, boolean flag)
     {
-        loadBool(currentProgram.uniforms.get(name), flag);
+        loadUniform(getUniform(name), flag);
     }
 
     public static void loadUniform(String name, Mat4 matrix)
     {
-        loadMatrix(currentProgram.uniforms.get(name), matrix);
+        loadUniform(getUniform(name), matrix);
+    }
+
+    /*
+     * The handle versions skip the upload when the bound program's uniform already has the value,
+     * compared bit for bit with what was last uploaded.
+     */
+
+    public static void loadUniform(int uniform, float value)
+    {
+        int location = currentProgram.getLocation(uniform);
+        if(changed(location, uniform, 1, bits(value), 0, 0, 0))
+            loadFloat(location, value);
+    }
+
+    public static void loadUniform(int uniform, float x, float y)
+    {
+        int location = currentProgram.getLocation(uniform);
+        if(changed(location, uniform, 2, bits(x), bits(y), 0, 0))
+            loadVector(location, x, y);
+    }
+
+    public static void loadUniform(int uniform, float x, float y, float z)
+    {
+        int location = currentProgram.getLocation(uniform);
+        if(changed(location, uniform, 3, bits(x), bits(y), bits(z), 0))
+            loadVector(location, x, y, z);
+    }
+
+    public static void loadUniform(int uniform, float x, float y, float z, float w)
+    {
+        int location = currentProgram.getLocation(uniform);
+        if(changed(location, uniform, 4, bits(x), bits(y), bits(z), bits(w)))
+            loadVector(location, x, y, z, w);
+    }
+
+    public static void loadUniform(int uniform, int value)
+    {
+        int location = currentProgram.getLocation(uniform);
+        if(changed(location, uniform, 1, value, 0, 0, 0))
+            loadInteger(location, value);
+    }
+
+    public static void loadUniform(int uniform, boolean flag)
+    {
+        int location = currentProgram.getLocation(uniform);
+        if(changed(location, uniform, 1, bits(flag ? 1 : 0), 0, 0, 0))
+            loadBool(location, flag);
+    }
+
+    public static void loadUniform(int uniform, Mat4 matrix)
+    {
+        int location = currentProgram.getLocation(uniform);
+        if(location == -1)
+            return;
+        if(currentProgram.update(uniform, matrix))
+        {
+            uploads++;
+            loadMatrix(location, matrix);
+        }
+        else
+            skippedUploads++;
+    }
+
+    private static boolean changed(int location, int uniform, int count, int x, int y, int z, int w)
+    {
+        if(location == -1)
+            return false;
+        if(currentProgram.update(uniform, count, x, y, z, w))
+        {
+            uploads++;
+            return true;
+        }
+        skippedUploads++;
+        return false;
+    }
+
+    private static int bits(float value)
+    {
+        return Float.floatToRawIntBits(value);
+    }
+
+    /**
+     * Uniform uploads sent to GL since the last {@link #resetUploadCounts()}.
+     */
+    public static long getUploadCount()
+    {
+        return uploads;
+    }
+
+    /**
+     * Uniform uploads left out since the last {@link #resetUploadCounts()}, the uniform had the value already.
+     */
+    public static long getSkippedUploadCount()
+    {
+        return skippedUploads;
+    }
+
+    public static void resetUploadCounts()
+    {
+        uploads = 0;
+        skippedUploads = 0;
     }
 
     public static void loadInteger(int location, int value)
@@ -208,14 +403,17 @@ public final class GLShader
     
     public static void unbind()
     {
-        glUseProgram(0);
+        GLState.useProgram(0);
         currentProgram = null;
     }
 
+    /**
+     * Makes the program current, nothing reaches GL when it already is, see {@link GLState}.
+     */
     public static void bind(ShaderProgram program)
     {
         currentProgram = program;
-        glUseProgram(currentProgram.programId);
+        GLState.useProgram(currentProgram.programId);
     }
 
     protected static void bindAttributes(ShaderProgram program)
@@ -254,6 +452,7 @@ public final class GLShader
     public static void destroy()
     {
         EntityShader.destroy();
+        InstancedEntityShader.destroy();
     }
 
     /*
@@ -287,11 +486,58 @@ public final class GLShader
                 protected void getAllUniformLocations()
                 {
                     addUniform("transformationMatrix");
-                    addUniform("projectionMatrix");
-                    addUniform("viewMatrix");
+                    addUniform("positionOffset");
+                    addUniform("positionScale");
                     addUniform("hasTexture");
                     addUniform("backgroundColor");
-                    addUniform(new Struct("lights", "pos", "color", "intensity", "constant", "linear", "quadratic", "distance"));
+                }
+            };
+            glAttachShader(id, vert);
+            glAttachShader(id, frag);
+            bindAttributes(program);
+            linkAndValidateProgram(program);
+            getAllUniformLocations(program);
+        }
+
+        public static void destroy()
+        {
+            unbind();
+            destroyShaderProgram(program);
+        }
+    }
+
+    /**
+     * {@link EntityShader} with the transformation and color as per instance attributes, for
+     * instanced draws of many entities of one model.
+     */
+    public static class InstancedEntityShader
+    {
+        private static String vertex = GLShader.vertexPrefix + "EntityInstancedVertexShader.glsl";
+        private static String fragment = GLShader.fragmentPrefix + "EntityInstancedFragmentShader.glsl";
+        public static ShaderProgram program;
+
+        public static void initializeShader()
+        {
+            int vert = loadShader(vertex,GL_VERTEX_SHADER);
+            int frag = loadShader(fragment,GL_FRAGMENT_SHADER);
+            int id = glCreateProgram();
+            program = new ShaderProgram(id, vert, frag)
+            {
+                @Override
+                protected void bindAttributes()
+                {
+                    bindAttribute(0, "pos");
+                    bindAttribute(1, "texCoords");
+                    bindAttribute(InstanceBuffer.MATRIX_LOCATION, "transformationMatrix");
+                    bindAttribute(InstanceBuffer.COLOR_LOCATION, "color");
+                }
+
+                @Override
+                protected void getAllUniformLocations()
+                {
+                    addUniform("positionOffset");
+                    addUniform("positionScale");
+                    addUniform("hasTexture");
                 }
             };
             glAttachShader(id, vert);
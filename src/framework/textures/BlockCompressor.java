@@ -0,0 +1,611 @@
+package framework.textures;
+
+import java.util.Arrays;
+
+/**
+ * BC1, BC3, BC4 and BC5 block compression on the CPU, for baking textures, and the matching
+ * decoder to check what the GPU will show without one.
+ * <p>
+ * Pixels are the RGBA in memory ints of the loaders (red in the low byte, alpha in the top one).
+ * Every 4x4 block is encoded on its own, rows of blocks in parallel bands (see
+ * {@link ImageKernels#forEachBand}). Blocks over the edge of images that aren't a multiple of 4
+ * repeat the last row and column.
+ * <ul>
+ *     <li>BC1: RGB in 4 bits per texel. Principal axis endpoints, refined by least squares. Blocks
+ *     with texels under half alpha use the 3 color mode with a transparent index.</li>
+ *     <li>BC3: BC1 color plus alpha in a BC4 block, 8 bits per texel.</li>
+ *     <li>BC4: red only, 4 bits per texel.</li>
+ *     <li>BC5: red and green as two BC4 blocks, 8 bits per texel. For normal maps, z has to be
+ *     rebuilt in the shader as {@code sqrt(1 - x*x - y*y)}.</li>
+ * </ul>
+ */
+public final class BlockCompressor
+{
+    public enum Format
+    {
+        BC1(0x83F1, 8),  // GL_COMPRESSED_RGBA_S3TC_DXT1_EXT
+        BC3(0x83F3, 16), // GL_COMPRESSED_RGBA_S3TC_DXT5_EXT
+        BC4(0x8DBB, 8),  // GL_COMPRESSED_RED_RGTC1
+        BC5(0x8DBD, 16); // GL_COMPRESSED_RG_RGTC2
+
+        private final int internalFormat;
+        private final int blockBytes;
+
+        Format(int internalFormat, int blockBytes)
+        {
+            this.internalFormat = internalFormat;
+            this.blockBytes = blockBytes;
+        }
+
+        public int getInternalFormat()
+        {
+            return internalFormat;
+        }
+
+        public int getBlockBytes()
+        {
+            return blockBytes;
+        }
+
+        /**
+         * Whether the format comes from {@code EXT_texture_compression_s3tc}, RGTC is core since GL 3.0.
+         */
+        public boolean isS3TC()
+        {
+            return this == BC1 || this == BC3;
+        }
+
+        public int byteLength(int width, int height)
+        {
+            return ((width + 3) >> 2) * ((height + 3) >> 2) * blockBytes;
+        }
+
+        /**
+         * The format of a GL internal format enum, null if it isn't one of these.
+         */
+        public static Format of(int internalFormat)
+        {
+            for(Format format : values())
+            {
+                if(format.internalFormat == internalFormat)
+                    return format;
+            }
+            return null;
+        }
+    }
+
+    private static final int REFINE_PASSES = 2;
+
+    private BlockCompressor() {}
+
+    /**
+     * BC1 if every texel is opaque or fully transparent, BC3 otherwise.
+     */
+    public static Format chooseColorFormat(int[] pixels)
+    {
+        for(int pixel : pixels)
+        {
+            int alpha = pixel >>> 24;
+            if(alpha != 255 && alpha != 0)
+                return Format.BC3;
+        }
+        return Format.BC1;
+    }
+
+    public static byte[] encode(int[] pixels, int width, int height, Format format)
+    {
+        int blocksX = (width + 3) >> 2;
+        int blocksY = (height + 3) >> 2;
+        byte[] data = new byte[blocksX * blocksY * format.blockBytes];
+        ImageKernels.forEachBand(blocksX * 16, blocksY, (y0, y1) -> {
+            int[] block = new int[16];
+            int[] channel = new int[16];
+            for(int by = y0; by < y1; by++)
+            {
+                for(int bx = 0; bx < blocksX; bx++)
+                {
+                    fetch(pixels, width, height, bx, by, block);
+                    int out = (by * blocksX + bx) * format.blockBytes;
+                    switch(format)
+                    {
+                        case BC1 -> encodeColor(block, data, out, true);
+                        case BC3 -> {
+                            encodeChannel(block, 24, channel, data, out);
+                            encodeColor(block, data, out + 8, false);
+                        }
+                        case BC4 -> encodeChannel(block, 0, channel, data, out);
+                        case BC5 -> {
+                            encodeChannel(block, 0, channel, data, out);
+                            encodeChannel(block, 8, channel, data, out + 8);
+                        }
+                    }
+                }
+            }
+        });
+        return data;
+    }
+
+    /**
+     * Back to RGBA ints, the way GL samples it: BC4 is {@code r, 0, 0, 255}, BC5 {@code r, g, 0, 255}.
+     */
+    public static int[] decode(byte[] data, int width, int height, Format format)
+    {
+        int blocksX = (width + 3) >> 2;
+        int blocksY = (height + 3) >> 2;
+        int[] pixels = new int[width * height];
+        ImageKernels.forEachBand(blocksX * 16, blocksY, (y0, y1) -> {
+            int[] block = new int[16];
+            int[] palette = new int[8];
+            for(int by = y0; by < y1; by++)
+            {
+                for(int bx = 0; bx < blocksX; bx++)
+                {
+                    int in = (by * blocksX + bx) * format.blockBytes;
+                    switch(format)
+                    {
+                        case BC1 -> decodeColor(data, in, block, true);
+                        case BC3 -> {
+                            decodeColor(data, in + 8, block, false);
+                            decodeChannel(data, in, palette, block, 24, 0x00FFFFFF);
+                        }
+                        case BC4 -> {
+                            Arrays.fill(block, 0xFF000000);
+                            decodeChannel(data, in, palette, block, 0, 0xFFFFFF00);
+                        }
+                        case BC5 -> {
+                            Arrays.fill(block, 0xFF000000);
+                            decodeChannel(data, in, palette, block, 0, 0xFFFFFF00);
+                            decodeChannel(data, in + 8, palette, block, 8, 0xFFFF00FF);
+                        }
+                    }
+                    store(block, pixels, width, height, bx, by);
+                }
+            }
+        });
+        return pixels;
+    }
+
+    /**
+     * Peak signal to noise ratio in dB over the 8 bit channels in {@code channelMask} (bit 0 red
+     * to bit 3 alpha), infinite for identical images.
+     */
+    public static double psnr(int[] expected, int[] actual, int channelMask)
+    {
+        double sum = 0;
+        long samples = 0;
+        for(int i = 0; i < expected.length; i++)
+        {
+            for(int c = 0; c < 4; c++)
+            {
+                if((channelMask & (1 << c)) == 0)
+                    continue;
+                int difference = ((expected[i] >>> (c << 3)) & 0xFF) - ((actual[i] >>> (c << 3)) & 0xFF);
+                sum += difference * difference;
+                samples++;
+            }
+        }
+        if(sum == 0)
+            return Double.POSITIVE_INFINITY;
+        return 10 * Math.log10(255.0 * 255.0 / (sum / samples));
+    }
+
+    private static void fetch(int[] pixels, int width, int height, int bx, int by, int[] block)
+    {
+        for(int y = 0; y < 4; y++)
+        {
+            int row = Math.min(by * 4 + y, height - 1) * width;
+            for(int x = 0; x < 4; x++)
+                block[y * 4 + x] = pixels[row + Math.min(bx * 4 + x, width - 1)];
+        }
+    }
+
+    private static void store(int[] block, int[] pixels, int width, int height, int bx, int by)
+    {
+        for(int y = 0; y < 4 && by * 4 + y < height; y++)
+        {
+            for(int x = 0; x < 4 && bx * 4 + x < width; x++)
+                pixels[(by * 4 + y) * width + bx * 4 + x] = block[y * 4 + x];
+        }
+    }
+
+    // color blocks
+
+    /**
+     * One BC1 color block at {@code out}. With {@code punchThrough}, texels under half alpha get
+     * the transparent index of the 3 color mode, BC3 color blocks always decode as 4 colors.
+     */
+    private static void encodeColor(int[] block, byte[] data, int out, boolean punchThrough)
+    {
+        int transparent = 0;
+        if(punchThrough)
+        {
+            for(int i = 0; i < 16; i++)
+            {
+                if(block[i] >>> 24 < 128)
+                    transparent |= 1 << i;
+            }
+        }
+        if(transparent == 0xFFFF)
+        {
+            writeColor(data, out, 0, 0, 0xFFFFFFFF);
+            return;
+        }
+
+        float[] axis = principalAxis(block, transparent);
+        float[] mean = mean(block, transparent);
+        float min = Float.MAX_VALUE;
+        float max = -Float.MAX_VALUE;
+        for(int i = 0; i < 16; i++)
+        {
+            if((transparent & (1 << i)) != 0)
+                continue;
+            float t = (red(block[i]) - mean[0]) * axis[0] + (green(block[i]) - mean[1]) * axis[1]
+                    + (blue(block[i]) - mean[2]) * axis[2];
+            min = Math.min(min, t);
+            max = Math.max(max, t);
+        }
+        int c0 = to565(mean[0] + axis[0] * max, mean[1] + axis[1] * max, mean[2] + axis[2] * max);
+        int c1 = to565(mean[0] + axis[0] * min, mean[1] + axis[1] * min, mean[2] + axis[2] * min);
+
+        boolean threeColors = transparent != 0;
+        int[] palette = new int[4];
+        int[] best = {c0, c1, 0};
+        long bestError = Long.MAX_VALUE;
+        for(int pass = 0; pass <= REFINE_PASSES; pass++)
+        {
+            int indices = chooseIndices(block, transparent, c0, c1, threeColors, palette);
+            long error = colorError(block, transparent, indices, palette);
+            if(error < bestError)
+            {
+                bestError = error;
+                best[0] = c0;
+                best[1] = c1;
+                best[2] = indices;
+            }
+            if(error == 0 || pass == REFINE_PASSES)
+                break;
+            // least squares endpoints for these indices
+            int[] refined = refine(block, transparent, indices, threeColors);
+            if(refined == null || (refined[0] == c0 && refined[1] == c1))
+                break;
+            c0 = refined[0];
+            c1 = refined[1];
+        }
+
+        c0 = best[0];
+        c1 = best[1];
+        int indices = best[2];
+        // the mode is in the endpoint order: c0 > c1 for 4 colors, c0 <= c1 for 3
+        if(threeColors ? c0 > c1 : c0 < c1)
+        {
+            int swap = c0;
+            c0 = c1;
+            c1 = swap;
+            // 0 and 1 trade places, in 4 color mode 2 and 3 as well, 3 color mode's 2 is the middle
+            indices ^= threeColors ? swapLowIndices(indices) : 0x55555555;
+        }
+        else if(!threeColors && c0 == c1)
+        {
+            // equal endpoints decode as 3 colors, where index 3 is black, only index 0 is safe
+            indices = 0;
+        }
+        writeColor(data, out, c0, c1, indices);
+    }
+
+    // XOR mask that swaps indices 0 and 1 and leaves 2 and 3
+    private static int swapLowIndices(int indices)
+    {
+        int mask = 0;
+        for(int i = 0; i < 16; i++)
+        {
+            if(((indices >>> (i * 2)) & 2) == 0)
+                mask |= 1 << (i * 2);
+        }
+        return mask;
+    }
+
+    private static int chooseIndices(int[] block, int transparent, int c0, int c1, boolean threeColors, int[] palette)
+    {
+        colorPalette(c0, c1, threeColors, palette);
+        int colors = threeColors ? 3 : 4;
+        int indices = 0;
+        for(int i = 0; i < 16; i++)
+        {
+            int index = 3;
+            if((transparent & (1 << i)) == 0)
+            {
+                int bestDistance = Integer.MAX_VALUE;
+                for(int p = 0; p < colors; p++)
+                {
+                    int distance = distance(block[i], palette[p]);
+                    if(distance < bestDistance)
+                    {
+                        bestDistance = distance;
+                        index = p;
+                    }
+                }
+            }
+            indices |= index << (i * 2);
+        }
+        return indices;
+    }
+
+    private static long colorError(int[] block, int transparent, int indices, int[] palette)
+    {
+        long error = 0;
+        for(int i = 0; i < 16; i++)
+        {
+            if((transparent & (1 << i)) == 0)
+                error += distance(block[i], palette[(indices >>> (i * 2)) & 3]);
+        }
+        return error;
+    }
+
+    /**
+     * Endpoints that minimize the squared error for fixed indices, null if the indices don't pin
+     * them down (all texels on one palette entry).
+     */
+    private static int[] refine(int[] block, int transparent, int indices, boolean threeColors)
+    {
+        // texel = a * c0 + b * c1, solve the 2x2 normal equations per channel
+        float aa = 0, ab = 0, bb = 0;
+        float[] ax = new float[3];
+        float[] bx = new float[3];
+        for(int i = 0; i < 16; i++)
+        {
+            if((transparent & (1 << i)) != 0)
+                continue;
+            int index = (indices >>> (i * 2)) & 3;
+            float a = switch(index)
+            {
+                case 0 -> 1;
+                case 1 -> 0;
+                case 2 -> threeColors ? 0.5f : 2 / 3f;
+                default -> 1 / 3f;
+            };
+            float b = 1 - a;
+            aa += a * a;
+            ab += a * b;
+            bb += b * b;
+            int texel = block[i];
+            ax[0] += a * red(texel);
+            ax[1] += a * green(texel);
+            ax[2] += a * blue(texel);
+            bx[0] += b * red(texel);
+            bx[1] += b * green(texel);
+            bx[2] += b * blue(texel);
+        }
+        float determinant = aa * bb - ab * ab;
+        if(Math.abs(determinant) < 1e-6f)
+            return null;
+        float inverse = 1 / determinant;
+        float[] e0 = new float[3];
+        float[] e1 = new float[3];
+        for(int c = 0; c < 3; c++)
+        {
+            e0[c] = (ax[c] * bb - bx[c] * ab) * inverse;
+            e1[c] = (bx[c] * aa - ax[c] * ab) * inverse;
+        }
+        return new int[] {to565(e0[0], e0[1], e0[2]), to565(e1[0], e1[1], e1[2])};
+    }
+
+    private static float[] mean(int[] block, int transparent)
+    {
+        float[] mean = new float[3];
+        int count = 0;
+        for(int i = 0; i < 16; i++)
+        {
+            if((transparent & (1 << i)) != 0)
+                continue;
+            mean[0] += red(block[i]);
+            mean[1] += green(block[i]);
+            mean[2] += blue(block[i]);
+            count++;
+        }
+        for(int c = 0; c < 3; c++)
+            mean[c] /= count;
+        return mean;
+    }
+
+    /**
+     * The direction the block's colors spread the most along, by power iteration on their covariance.
+     */
+    private static float[] principalAxis(int[] block, int transparent)
+    {
+        float[] mean = mean(block, transparent);
+        float rr = 0, rg = 0, rb = 0, gg = 0, gb = 0, bb = 0;
+        for(int i = 0; i < 16; i++)
+        {
+            if((transparent & (1 << i)) != 0)
+                continue;
+            float r = red(block[i]) - mean[0];
+            float g = green(block[i]) - mean[1];
+            float b = blue(block[i]) - mean[2];
+            rr += r * r;
+            rg += r * g;
+            rb += r * b;
+            gg += g * g;
+            gb += g * b;
+            bb += b * b;
+        }
+        float x = 1, y = 1, z = 1;
+        for(int i = 0; i < 8; i++)
+        {
+            float nx = rr * x + rg * y + rb * z;
+            float ny = rg * x + gg * y + gb * z;
+            float nz = rb * x + gb * y + bb * z;
+            float length = Math.max(Math.abs(nx), Math.max(Math.abs(ny), Math.abs(nz)));
+            if(length < 1e-6f)
+                break;
+            x = nx / length;
+            y = ny / length;
+            z = nz / length;
+        }
+        float length = (float) Math.sqrt(x * x + y * y + z * z);
+        return new float[] {x / length, y / length, z / length};
+    }
+
+    private static void colorPalette(int c0, int c1, boolean threeColors, int[] palette)
+    {
+        int p0 = from565(c0);
+        int p1 = from565(c1);
+        palette[0] = p0;
+        palette[1] = p1;
+        if(threeColors)
+        {
+            palette[2] = mix(p0, p1, 1, 1, 2);
+            palette[3] = 0;
+        }
+        else
+        {
+            palette[2] = mix(p0, p1, 2, 1, 3);
+            palette[3] = mix(p0, p1, 1, 2, 3);
+        }
+    }
+
+    private static void decodeColor(byte[] data, int in, int[] block, boolean bc1)
+    {
+        int c0 = (data[in] & 0xFF) | (data[in + 1] & 0xFF) << 8;
+        int c1 = (data[in + 2] & 0xFF) | (data[in + 3] & 0xFF) << 8;
+        int indices = (data[in + 4] & 0xFF) | (data[in + 5] & 0xFF) << 8 | (data[in + 6] & 0xFF) << 16 | (data[in + 7] & 0xFF) << 24;
+        int[] palette = new int[4];
+        boolean threeColors = bc1 && c0 <= c1;
+        colorPalette(c0, c1, threeColors, palette);
+        for(int p = 0; p < 4; p++)
+            palette[p] |= 0xFF000000;
+        if(threeColors)
+            palette[3] = 0;
+        for(int i = 0; i < 16; i++)
+            block[i] = palette[(indices >>> (i * 2)) & 3];
+    }
+
+    private static void writeColor(byte[] data, int out, int c0, int c1, int indices)
+    {
+        data[out] = (byte) c0;
+        data[out + 1] = (byte) (c0 >>> 8);
+        data[out + 2] = (byte) c1;
+        data[out + 3] = (byte) (c1 >>> 8);
+        data[out + 4] = (byte) indices;
+        data[out + 5] = (byte) (indices >>> 8);
+        data[out + 6] = (byte) (indices >>> 16);
+        data[out + 7] = (byte) (indices >>> 24);
+    }
+
+    private static int to565(float r, float g, float b)
+    {
+        int r5 = Math.min(31, Math.max(0, Math.round(r * 31 / 255)));
+        int g6 = Math.min(63, Math.max(0, Math.round(g * 63 / 255)));
+        int b5 = Math.min(31, Math.max(0, Math.round(b * 31 / 255)));
+        return r5 << 11 | g6 << 5 | b5;
+    }
+
+    private static int from565(int color)
+    {
+        int r = (color >>> 11) & 31;
+        int g = (color >>> 5) & 63;
+        int b = color & 31;
+        return (r << 3 | r >>> 2) | (g << 2 | g >>> 4) << 8 | (b << 3 | b >>> 2) << 16;
+    }
+
+    private static int mix(int p0, int p1, int w0, int w1, int divisor)
+    {
+        int result = 0;
+        for(int shift = 0; shift < 24; shift += 8)
+        {
+            int value = (((p0 >>> shift) & 0xFF) * w0 + ((p1 >>> shift) & 0xFF) * w1) / divisor;
+            result |= value << shift;
+        }
+        return result;
+    }
+
+    private static int distance(int a, int b)
+    {
+        int r = red(a) - red(b);
+        int g = green(a) - green(b);
+        int bl = blue(a) - blue(b);
+        return r * r + g * g + bl * bl;
+    }
+
+    private static int red(int pixel)
+    {
+        return pixel & 0xFF;
+    }
+
+    private static int green(int pixel)
+    {
+        return (pixel >>> 8) & 0xFF;
+    }
+
+    private static int blue(int pixel)
+    {
+        return (pixel >>> 16) & 0xFF;
+    }
+
+    // single channel blocks (BC4, the alpha of BC3, each half of BC5)
+
+    private static void encodeChannel(int[] block, int shift, int[] values, byte[] data, int out)
+    {
+        int min = 255;
+        int max = 0;
+        for(int i = 0; i < 16; i++)
+        {
+            values[i] = (block[i] >>> shift) & 0xFF;
+            min = Math.min(min, values[i]);
+            max = Math.max(max, values[i]);
+        }
+        data[out] = (byte) max;
+        data[out + 1] = (byte) min;
+        long indices = 0;
+        if(max > min)
+        {
+            // 8 value mode (a0 > a1): 0 is max, 1 is min, 2 to 7 step from max to min
+            int[] palette = new int[8];
+            channelPalette(max, min, palette);
+            for(int i = 0; i < 16; i++)
+            {
+                int best = 0;
+                int bestDistance = Integer.MAX_VALUE;
+                for(int p = 0; p < 8; p++)
+                {
+                    int distance = Math.abs(values[i] - palette[p]);
+                    if(distance < bestDistance)
+                    {
+                        bestDistance = distance;
+                        best = p;
+                    }
+                }
+                indices |= (long) best << (i * 3);
+            }
+        }
+        for(int i = 0; i < 6; i++)
+            data[out + 2 + i] = (byte) (indices >>> (i * 8));
+    }
+
+    private static void channelPalette(int a0, int a1, int[] palette)
+    {
+        palette[0] = a0;
+        palette[1] = a1;
+        if(a0 > a1)
+        {
+            for(int i = 1; i < 7; i++)
+                palette[i + 1] = ((7 - i) * a0 + i * a1 + 3) / 7;
+        }
+        else
+        {
+            for(int i = 1; i < 5; i++)
+                palette[i + 1] = ((5 - i) * a0 + i * a1 + 2) / 5;
+            palette[6] = 0;
+            palette[7] = 255;
+        }
+    }
+
+    private static void decodeChannel(byte[] data, int in, int[] palette, int[] block, int shift, int keep)
+    {
+        channelPalette(data[in] & 0xFF, data[in + 1] & 0xFF, palette);
+        long indices = 0;
+        for(int i = 0; i < 6; i++)
+            indices |= (long) (data[in + 2 + i] & 0xFF) << (i * 8);
+        for(int i = 0; i < 16; i++)
+            block[i] = (block[i] & keep) | palette[(int) (indices >>> (i * 3)) & 7] << shift;
+    }
+}
@@ -1,65 +1,186 @@
 package framework.textures;
 
-import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
+/**
+ * Maps derived from images and geometry, built with {@link ImageKernels}. Results are
+ * {@link BufferedImage#TYPE_INT_ARGB}, ready for {@link framework.loader.TextureLoader#loadTexture(BufferedImage)}.
+ */
 public final class BufferedImageMapper
 {
+    // channel positions in an ARGB int
+    private static final int BLUE = 0;
+    private static final int GREEN = 8;
+    private static final int RED = 16;
+
+    // texels of edge repeated around every image of an atlas
+    public static final int ATLAS_PADDING = 4;
+
     private BufferedImageMapper() {}
 
+    /**
+     * Red and green are the average of the color (specular and fake lighting), blue is its
+     * brightest channel (bloom), the same layout {@link framework.loader.TextureLoader#generateTexture} uploads.
+     */
     public static BufferedImage generateSpecularMap(BufferedImage image)
     {
-        return null;
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+        float[][] averageAndMax = ImageKernels.averageAndMax(ImageKernels.unpack(pixels, width, height, RED),
+                ImageKernels.unpack(pixels, width, height, GREEN), ImageKernels.unpack(pixels, width, height, BLUE), width, height);
+        return toImage(ImageKernels.pack(width, height, averageAndMax[1], averageAndMax[0], averageAndMax[0], null), width, height);
     }
+
+    /**
+     * A tangent space normal map from the Sobel gradients of the image's luminance.
+     */
     public static BufferedImage generateNormals(BufferedImage image)
     {
-        return null;
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+        float[][] gradients = ImageKernels.sobel(ImageKernels.luminance(pixels, width, height, RED, GREEN, BLUE), width, height);
+        float[][] normals = ImageKernels.normals(gradients[0], gradients[1], width, height);
+        return toImage(ImageKernels.pack(width, height, normals[2], normals[1], normals[0], null), width, height);
     }
 
+    /**
+     * Packs up to {@code rows * rows} images of any size into one {@code 2^powerResolution} square
+     * atlas, see {@link TextureAtlas#pack}. Use {@link #generateAtlas} to also get where each went.
+     */
     public static BufferedImage generateTextureAtlas(List<BufferedImage> images, int rows, int powerResolution)
     {
-        BufferedImage[] references = new BufferedImage[rows * rows];
-        int index = 0;
         if(images == null || images.size() > (rows * rows))
         {
             throw new IllegalArgumentException();
         }
-        else for(BufferedImage image : images)
-        {
-            references[index++] = image;
-        }
-        return generateTextureAtlas(references, rows, powerResolution);
+        int length = 1 << powerResolution;
+        return TextureAtlas.pack(images, ATLAS_PADDING, length, length).getImage();
     }
 
     public static BufferedImage generateTextureAtlas(BufferedImage[] image, int rows, int powerResolution)
     {
-        int index = 0;
-        int length = (int) Math.pow(2   , powerResolution);
-        int textureLength = length / rows;
-        BufferedImage reference = new BufferedImage(length, length, BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g = reference.createGraphics();
-
-        if(image == null || image.length > (rows * rows))
+        if(image == null)
         {
             throw new IllegalArgumentException();
         }
-        else for(BufferedImage i : image)
+        List<BufferedImage> images = new ArrayList<>();
+        for(BufferedImage i : image)
         {
-            // might continue
-            // TODO: do this part when done specular maps
-            // i = i;
+            if(i != null)
+                images.add(i);
         }
-        return null;
+        return generateTextureAtlas(images, rows, powerResolution);
+    }
+
+    /**
+     * Packs the images into the smallest power of two atlas that fits them, at most {@code maxSize}
+     * texels on a side, with a gutter that survives the first {@link #ATLAS_PADDING} mip levels.
+     */
+    public static TextureAtlas generateAtlas(List<BufferedImage> images, int maxSize)
+    {
+        return TextureAtlas.pack(images, ATLAS_PADDING, maxSize);
     }
 
+    /**
+     * A top down grey height map of {@code x, y, z} vertices: square, about one texel per vertex,
+     * spanning their x/z bounds, the highest vertex of a texel wins and black to white is the
+     * lowest to the highest y. Texels no vertex fell into get the blurred heights around them.
+     */
     public static BufferedImage generateHeightMap(float[] vertices)
     {
-        return null;
+        int count = vertices.length / 3;
+        if(count == 0)
+            throw new IllegalArgumentException("No vertices");
+        int size = Math.max(1, (int) Math.ceil(Math.sqrt(count)));
+
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, minZ = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE, maxZ = -Float.MAX_VALUE;
+        for(int i = 0; i < count * 3; i += 3)
+        {
+            minX = Math.min(minX, vertices[i]);
+            maxX = Math.max(maxX, vertices[i]);
+            minY = Math.min(minY, vertices[i + 1]);
+            maxY = Math.max(maxY, vertices[i + 1]);
+            minZ = Math.min(minZ, vertices[i + 2]);
+            maxZ = Math.max(maxZ, vertices[i + 2]);
+        }
+        float scaleX = maxX > minX ? (size - 1) / (maxX - minX) : 0;
+        float scaleZ = maxZ > minZ ? (size - 1) / (maxZ - minZ) : 0;
+        float scaleY = maxY > minY ? 255 / (maxY - minY) : 0;
+
+        float[] heights = new float[size * size];
+        float[] covered = new float[size * size];
+        for(int i = 0; i < count * 3; i += 3)
+        {
+            int texel = Math.round((vertices[i + 2] - minZ) * scaleZ) * size + Math.round((vertices[i] - minX) * scaleX);
+            float height = (vertices[i + 1] - minY) * scaleY;
+            heights[texel] = covered[texel] == 0 ? height : Math.max(heights[texel], height);
+            covered[texel] = 1;
+        }
+
+        // holes: blurred heights divided by the blurred coverage, so only covered texels count
+        float[] kernel = ImageKernels.gaussianKernel(Math.max(1, size / 64f));
+        float[] blurred = ImageKernels.convolve(heights, size, size, kernel, kernel);
+        float[] weights = ImageKernels.convolve(covered, size, size, kernel, kernel);
+        for(int i = 0; i < heights.length; i++)
+        {
+            if(covered[i] == 0)
+                heights[i] = weights[i] > 0 ? blurred[i] / weights[i] : 0;
+        }
+        return toImage(ImageKernels.pack(size, size, heights, heights, heights, null), size, size);
     }
 
     public static BufferedImage generateDistortionMap(int seed)
     {
-        return null;
+        return generateDistortionMap(seed, 256);
+    }
+
+    /**
+     * A du/dv map for water: smooth noise in red and green, each stretched to the full 0 to 255
+     * range so 128 is no distortion on average. The same seed gives the same map.
+     */
+    public static BufferedImage generateDistortionMap(int seed, int size)
+    {
+        Random random = new Random(seed);
+        float[] du = new float[size * size];
+        float[] dv = new float[size * size];
+        for(int i = 0; i < du.length; i++)
+        {
+            du[i] = random.nextFloat();
+            dv[i] = random.nextFloat();
+        }
+        float[] kernel = ImageKernels.gaussianKernel(Math.max(1, size / 64f));
+        du = stretch(ImageKernels.convolve(du, size, size, kernel, kernel));
+        dv = stretch(ImageKernels.convolve(dv, size, size, kernel, kernel));
+        return toImage(ImageKernels.pack(size, size, new float[size * size], dv, du, null), size, size);
+    }
+
+    private static float[] stretch(float[] plane)
+    {
+        float min = Float.MAX_VALUE;
+        float max = -Float.MAX_VALUE;
+        for(float value : plane)
+        {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        float scale = max > min ? 255.999f / (max - min) : 0;
+        for(int i = 0; i < plane.length; i++)
+            plane[i] = (plane[i] - min) * scale;
+        return plane;
+    }
+
+    private static BufferedImage toImage(int[] argb, int width, int height)
+    {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        System.arraycopy(argb, 0, data, 0, argb.length);
+        return image;
     }
 }
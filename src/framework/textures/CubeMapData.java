@@ -0,0 +1,30 @@
+package framework.textures;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The six decoded faces of a cube map in one buffer, RGBA, one face after the other in GL order
+ * ({@code +X, -X, +Y, -Y, +Z, -Z}). Width and height are the ones of a single face.
+ */
+public class CubeMapData extends TextureData
+{
+    public static final int FACES = 6;
+
+    public CubeMapData(ByteBuffer buffer, int width, int height)
+    {
+        super(buffer, width, height);
+    }
+
+    public int getFaceBytes()
+    {
+        return getWidth() * getHeight() * 4;
+    }
+
+    /**
+     * One face as a slice of the buffer.
+     */
+    public ByteBuffer getFace(int face)
+    {
+        return getBuffer().slice(face * getFaceBytes(), getFaceBytes());
+    }
+}
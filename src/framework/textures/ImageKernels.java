@@ -0,0 +1,307 @@
+package framework.textures;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Image filters on channel planes: one {@code float[]} per channel, {@code width * height} values
+ * row by row, usually 0 to 255. Pixels are unpacked into planes once, filtered, and packed back
+ * once at the end.
+ * <p>
+ * Every filter works on bands of rows that run in parallel on the common fork-join pool. Small
+ * images stay on the calling thread. Samples outside the image clamp to the edge. Only the border
+ * columns and rows, as wide as the kernel radius, pay for that, the interior loops have no
+ * bounds checks of their own. Destination planes must not be source planes.
+ */
+public final class ImageKernels
+{
+    // rows of one band scale with the width so every task gets about this many pixels
+    private static final int BAND_PIXELS = 1 << 15;
+
+    public static final float[] SOBEL_SMOOTH = {1, 2, 1};
+    public static final float[] SOBEL_DERIVATIVE = {-1, 0, 1};
+
+    private ImageKernels() {}
+
+    /**
+     * Work on rows {@code y0} (inclusive) to {@code y1} (exclusive).
+     */
+    @FunctionalInterface
+    public interface RowBand
+    {
+        void run(int y0, int y1);
+    }
+
+    /**
+     * Runs {@code band} over every row, split into bands that run in parallel.
+     */
+    public static void forEachBand(int width, int height, RowBand band)
+    {
+        int rows = Math.max(1, BAND_PIXELS / Math.max(1, width));
+        if(height <= rows)
+            band.run(0, height);
+        else
+            ForkJoinPool.commonPool().invoke(new Bands(band, 0, height, rows));
+    }
+
+    // never serialized, the pool only needs it as a task
+    @SuppressWarnings("serial")
+    private static final class Bands extends RecursiveAction
+    {
+        private final RowBand band;
+        private final int y0;
+        private final int y1;
+        private final int rows;
+
+        Bands(RowBand band, int y0, int y1, int rows)
+        {
+            this.band = band;
+            this.y0 = y0;
+            this.y1 = y1;
+            this.rows = rows;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if(y1 - y0 <= rows)
+            {
+                band.run(y0, y1);
+                return;
+            }
+            int middle = (y0 + y1) >>> 1;
+            invokeAll(new Bands(band, y0, middle, rows), new Bands(band, middle, y1, rows));
+        }
+    }
+
+    /**
+     * One 8 bit channel of packed pixels, the one at bit {@code shift}.
+     */
+    public static float[] unpack(int[] pixels, int width, int height, int shift)
+    {
+        float[] plane = new float[width * height];
+        forEachBand(width, height, (y0, y1) -> {
+            for(int i = y0 * width, end = y1 * width; i < end; i++)
+                plane[i] = (pixels[i] >>> shift) & 0xFF;
+        });
+        return plane;
+    }
+
+    /**
+     * Weighted sum of the three channels at bits {@code shiftR}, {@code shiftG} and {@code shiftB}.
+     */
+    public static float[] luminance(int[] pixels, int width, int height, int shiftR, int shiftG, int shiftB)
+    {
+        float[] plane = new float[width * height];
+        forEachBand(width, height, (y0, y1) -> {
+            for(int i = y0 * width, end = y1 * width; i < end; i++)
+            {
+                int pixel = pixels[i];
+                plane[i] = 0.21f * ((pixel >>> shiftR) & 0xFF) + 0.72f * ((pixel >>> shiftG) & 0xFF)
+                        + 0.07f * ((pixel >>> shiftB) & 0xFF);
+            }
+        });
+        return plane;
+    }
+
+    /**
+     * Packs up to four planes into 8 bit channels, {@code c0} into the lowest byte. Values are
+     * truncated and clamped to 0 to 255, a null plane is 255 everywhere.
+     */
+    public static int[] pack(int width, int height, float[] c0, float[] c1, float[] c2, float[] c3)
+    {
+        int[] pixels = new int[width * height];
+        forEachBand(width, height, (y0, y1) -> {
+            for(int i = y0 * width, end = y1 * width; i < end; i++)
+                pixels[i] = channel(c0, i) | channel(c1, i) << 8 | channel(c2, i) << 16 | channel(c3, i) << 24;
+        });
+        return pixels;
+    }
+
+    private static int channel(float[] plane, int i)
+    {
+        return plane == null ? 255 : Math.min(255, Math.max(0, (int) plane[i]));
+    }
+
+    /**
+     * Correlates every row with {@code kernel}, centered (odd length).
+     */
+    public static void convolveHorizontal(float[] source, float[] destination, int width, int height, float[] kernel)
+    {
+        int radius = kernel.length >> 1;
+        int left = Math.min(radius, width);
+        int right = Math.max(left, width - radius);
+        forEachBand(width, height, (y0, y1) -> {
+            for(int y = y0; y < y1; y++)
+            {
+                int row = y * width;
+                clampedRow(source, destination, row, width, 0, left, kernel);
+                // interior, every tap in range
+                for(int x = left; x < right; x++)
+                {
+                    int start = row + x - radius;
+                    float sum = 0;
+                    for(int k = 0; k < kernel.length; k++)
+                        sum += source[start + k] * kernel[k];
+                    destination[row + x] = sum;
+                }
+                clampedRow(source, destination, row, width, right, width, kernel);
+            }
+        });
+    }
+
+    private static void clampedRow(float[] source, float[] destination, int row, int width, int from, int to, float[] kernel)
+    {
+        int radius = kernel.length >> 1;
+        for(int x = from; x < to; x++)
+        {
+            float sum = 0;
+            for(int k = 0; k < kernel.length; k++)
+                sum += source[row + Math.min(width - 1, Math.max(0, x + k - radius))] * kernel[k];
+            destination[row + x] = sum;
+        }
+    }
+
+    /**
+     * Correlates every column with {@code kernel}, centered (odd length).
+     */
+    public static void convolveVertical(float[] source, float[] destination, int width, int height, float[] kernel)
+    {
+        int radius = kernel.length >> 1;
+        forEachBand(width, height, (y0, y1) -> {
+            for(int y = y0; y < y1; y++)
+            {
+                int row = y * width;
+                if(y >= radius && y < height - radius)
+                {
+                    // whole rows at a time, the inner loop runs along memory
+                    int start = (y - radius) * width;
+                    float weight = kernel[0];
+                    for(int x = 0; x < width; x++)
+                        destination[row + x] = source[start + x] * weight;
+                    for(int k = 1; k < kernel.length; k++)
+                    {
+                        int tap = start + k * width;
+                        weight = kernel[k];
+                        for(int x = 0; x < width; x++)
+                            destination[row + x] += source[tap + x] * weight;
+                    }
+                }
+                else
+                {
+                    for(int x = 0; x < width; x++)
+                        destination[row + x] = 0;
+                    for(int k = 0; k < kernel.length; k++)
+                    {
+                        int tap = Math.min(height - 1, Math.max(0, y + k - radius)) * width;
+                        float weight = kernel[k];
+                        for(int x = 0; x < width; x++)
+                            destination[row + x] += source[tap + x] * weight;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * {@code horizontal} along the rows, then {@code vertical} along the columns, into a new plane.
+     */
+    public static float[] convolve(float[] source, int width, int height, float[] horizontal, float[] vertical)
+    {
+        float[] temporary = new float[width * height];
+        float[] result = new float[width * height];
+        convolveHorizontal(source, temporary, width, height, horizontal);
+        convolveVertical(temporary, result, width, height, vertical);
+        return result;
+    }
+
+    /**
+     * The 3x3 Sobel gradients, {@code [0]} along x and {@code [1]} along y (y grows downwards).
+     */
+    public static float[][] sobel(float[] source, int width, int height)
+    {
+        return new float[][] {
+                convolve(source, width, height, SOBEL_DERIVATIVE, SOBEL_SMOOTH),
+                convolve(source, width, height, SOBEL_SMOOTH, SOBEL_DERIVATIVE)
+        };
+    }
+
+    public static float[] boxKernel(int radius)
+    {
+        float[] kernel = new float[radius * 2 + 1];
+        Arrays.fill(kernel, 1f / kernel.length);
+        return kernel;
+    }
+
+    /**
+     * Normalized Gaussian weights out to 3 sigma.
+     */
+    public static float[] gaussianKernel(float sigma)
+    {
+        int radius = Math.max(1, (int) Math.ceil(sigma * 3));
+        float[] kernel = new float[radius * 2 + 1];
+        float sum = 0;
+        for(int i = 0; i < kernel.length; i++)
+        {
+            int x = i - radius;
+            kernel[i] = (float) Math.exp(-(x * x) / (2.0 * sigma * sigma));
+            sum += kernel[i];
+        }
+        for(int i = 0; i < kernel.length; i++)
+            kernel[i] /= sum;
+        return kernel;
+    }
+
+    public static float[] boxBlur(float[] source, int width, int height, int radius)
+    {
+        float[] kernel = boxKernel(radius);
+        return convolve(source, width, height, kernel, kernel);
+    }
+
+    public static float[] gaussianBlur(float[] source, int width, int height, float sigma)
+    {
+        float[] kernel = gaussianKernel(sigma);
+        return convolve(source, width, height, kernel, kernel);
+    }
+
+    /**
+     * Tangent space normals from height gradients as three planes (x, y, z) mapped to 0 to 255,
+     * the way {@link framework.loader.TextureLoader#generateTexture} builds its normal maps.
+     */
+    public static float[][] normals(float[] gradientX, float[] gradientY, int width, int height)
+    {
+        float[] nx = new float[width * height];
+        float[] ny = new float[width * height];
+        float[] nz = new float[width * height];
+        forEachBand(width, height, (y0, y1) -> {
+            for(int i = y0 * width, end = y1 * width; i < end; i++)
+            {
+                float gx = gradientX[i];
+                float gy = gradientY[i];
+                float inverse = 1 / (float) Math.sqrt(gx * gx + gy * gy + 1);
+                nx[i] = (gx * inverse + 1) * 127.5f;
+                ny[i] = (gy * inverse + 1) * 127.5f;
+                nz[i] = inverse * 127.5f;
+            }
+        });
+        return new float[][] {nx, ny, nz};
+    }
+
+    /**
+     * Per pixel average and maximum of three planes, the specular and bloom inputs.
+     */
+    public static float[][] averageAndMax(float[] a, float[] b, float[] c, int width, int height)
+    {
+        float[] average = new float[width * height];
+        float[] max = new float[width * height];
+        forEachBand(width, height, (y0, y1) -> {
+            for(int i = y0 * width, end = y1 * width; i < end; i++)
+            {
+                average[i] = (int) (a[i] + b[i] + c[i]) / 3;
+                max[i] = Math.max(Math.max(a[i], b[i]), c[i]);
+            }
+        });
+        return new float[][] {average, max};
+    }
+}
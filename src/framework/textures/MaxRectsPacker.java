@@ -0,0 +1,145 @@
+package framework.textures;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Packs rectangles into one bin with the MaxRects algorithm (best short side fit, no rotation).
+ * <p>
+ * The bin keeps every maximal free rectangle, they may overlap. A rectangle goes into the free one
+ * where it leaves the smallest leftover on its shorter side, then every free rectangle it overlaps
+ * is split into the up to four parts around it and the ones contained in others are dropped.
+ * Packing bigger rectangles first gives the tightest results, {@link #pack} sorts for that.
+ */
+public final class MaxRectsPacker
+{
+    private final int width;
+    private final int height;
+    private final List<int[]> free = new ArrayList<>();
+
+    public MaxRectsPacker(int width, int height)
+    {
+        this.width = width;
+        this.height = height;
+        free.add(new int[] {0, 0, width, height});
+    }
+
+    /**
+     * Places one rectangle, returns its {@code x, y} or null when it doesn't fit anymore.
+     */
+    public int[] insert(int w, int h)
+    {
+        int[] best = null;
+        int bestShort = Integer.MAX_VALUE;
+        int bestLong = Integer.MAX_VALUE;
+        for(int[] rect : free)
+        {
+            if(rect[2] < w || rect[3] < h)
+                continue;
+            int leftoverX = rect[2] - w;
+            int leftoverY = rect[3] - h;
+            int shortSide = Math.min(leftoverX, leftoverY);
+            int longSide = Math.max(leftoverX, leftoverY);
+            if(shortSide < bestShort || (shortSide == bestShort && longSide < bestLong))
+            {
+                best = rect;
+                bestShort = shortSide;
+                bestLong = longSide;
+            }
+        }
+        if(best == null)
+            return null;
+
+        int[] placed = {best[0], best[1], w, h};
+        List<int[]> split = new ArrayList<>();
+        for(int i = free.size() - 1; i >= 0; i--)
+        {
+            int[] rect = free.get(i);
+            if(!overlaps(rect, placed))
+                continue;
+            free.remove(i);
+            // the parts of rect left, right, above and below the placed one
+            if(placed[0] > rect[0])
+                split.add(new int[] {rect[0], rect[1], placed[0] - rect[0], rect[3]});
+            if(placed[0] + w < rect[0] + rect[2])
+                split.add(new int[] {placed[0] + w, rect[1], rect[0] + rect[2] - placed[0] - w, rect[3]});
+            if(placed[1] > rect[1])
+                split.add(new int[] {rect[0], rect[1], rect[2], placed[1] - rect[1]});
+            if(placed[1] + h < rect[1] + rect[3])
+                split.add(new int[] {rect[0], placed[1] + h, rect[2], rect[1] + rect[3] - placed[1] - h});
+        }
+        free.addAll(split);
+        prune();
+        return new int[] {placed[0], placed[1]};
+    }
+
+    /**
+     * Places all {@code sizes} ({@code w, h} pairs) biggest first. Returns their {@code x, y}
+     * pairs in the given order, or null if not all of them fit.
+     */
+    public static int[] pack(int[] sizes, int width, int height)
+    {
+        int count = sizes.length / 2;
+        Integer[] order = new Integer[count];
+        for(int i = 0; i < count; i++)
+            order[i] = i;
+        Arrays.sort(order, (a, b) -> {
+            int sideA = Math.max(sizes[a * 2], sizes[a * 2 + 1]);
+            int sideB = Math.max(sizes[b * 2], sizes[b * 2 + 1]);
+            return sideA != sideB ? sideB - sideA
+                    : Integer.compare(sizes[b * 2] * sizes[b * 2 + 1], sizes[a * 2] * sizes[a * 2 + 1]);
+        });
+
+        MaxRectsPacker packer = new MaxRectsPacker(width, height);
+        int[] positions = new int[count * 2];
+        for(int i : order)
+        {
+            int[] position = packer.insert(sizes[i * 2], sizes[i * 2 + 1]);
+            if(position == null)
+                return null;
+            positions[i * 2] = position[0];
+            positions[i * 2 + 1] = position[1];
+        }
+        return positions;
+    }
+
+    public int getWidth()
+    {
+        return width;
+    }
+
+    public int getHeight()
+    {
+        return height;
+    }
+
+    private void prune()
+    {
+        for(int i = 0; i < free.size(); i++)
+        {
+            for(int j = i + 1; j < free.size(); j++)
+            {
+                if(contains(free.get(j), free.get(i)))
+                {
+                    free.remove(i--);
+                    break;
+                }
+                if(contains(free.get(i), free.get(j)))
+                    free.remove(j--);
+            }
+        }
+    }
+
+    private static boolean overlaps(int[] a, int[] b)
+    {
+        return a[0] < b[0] + b[2] && b[0] < a[0] + a[2] && a[1] < b[1] + b[3] && b[1] < a[1] + a[3];
+    }
+
+    // whether outer contains inner
+    private static boolean contains(int[] outer, int[] inner)
+    {
+        return inner[0] >= outer[0] && inner[1] >= outer[1]
+                && inner[0] + inner[2] <= outer[0] + outer[2] && inner[1] + inner[3] <= outer[1] + outer[3];
+    }
+}
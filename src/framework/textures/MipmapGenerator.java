@@ -0,0 +1,404 @@
+package framework.textures;
+
+import java.util.Arrays;
+
+/**
+ * Builds mip chains on the CPU for the asset step, so the loaders can upload baked levels
+ * instead of calling {@code glGenerateMipmap} at startup.
+ * <p>
+ * The pixels are packed 8 bit channels in an int with alpha in the top byte (both the RGBA in
+ * memory ints of the loaders and ARGB have it there). The other three channels are filtered the
+ * same way, so their order doesn't matter.
+ * <p>
+ * {@link Filter#KAISER} and {@link Filter#LANCZOS} resample each level from the one before in
+ * linear float, with the color channels decoded from sRGB first when {@code srgb} is set, and
+ * only round to 8 bit at the end. With an alpha cutoff every level's alpha is scaled so that as
+ * many texels pass the alpha test as in level 0, cutout foliage doesn't thin out with distance.
+ * The rows of a level are filtered in parallel bands, see {@link ImageKernels#forEachBand}.
+ */
+public final class MipmapGenerator
+{
+    public enum Filter
+    {
+        /** 2x2 average of the 8 bit values, what {@code glGenerateMipmap} does. */
+        BOX(0.5f),
+        /** Kaiser windowed sinc, 3 texels wide, alpha 4. Sharp with little ringing. */
+        KAISER(3),
+        /** Lanczos 3. Sharpest, rings a bit more on hard edges. */
+        LANCZOS(3);
+
+        private final float support;
+
+        Filter(float support)
+        {
+            this.support = support;
+        }
+
+        /**
+         * The weight at {@code x}, in texels of the smaller level.
+         */
+        public float weight(float x)
+        {
+            x = Math.abs(x);
+            if(x >= support)
+                return 0;
+            switch(this)
+            {
+                case KAISER:
+                    float t = x / support;
+                    return sinc(x) * (float) (bessel0(KAISER_ALPHA * Math.sqrt(1 - t * t)) / bessel0(KAISER_ALPHA));
+                case LANCZOS:
+                    return sinc(x) * sinc(x / support);
+                default:
+                    return 1;
+            }
+        }
+    }
+
+    /** The alpha test threshold cutout textures are assumed to be drawn with. */
+    public static final float CUTOUT_ALPHA = 0.5f;
+
+    private static final double KAISER_ALPHA = 4;
+
+    // sRGB byte to linear, and linear in 1/65535 steps back to the nearest sRGB byte
+    private static final float[] TO_LINEAR = new float[256];
+    private static final byte[] TO_SRGB = new byte[65536];
+
+    static
+    {
+        for(int i = 0; i < 256; i++)
+            TO_LINEAR[i] = (float) toLinear(i / 255.0);
+        for(int i = 0; i < TO_SRGB.length; i++)
+            TO_SRGB[i] = (byte) Math.round(toSrgb(i / 65535.0) * 255);
+    }
+
+    private MipmapGenerator() {}
+
+    public static int levelCount(int width, int height)
+    {
+        return 32 - Integer.numberOfLeadingZeros(Math.max(1, Math.max(width, height)));
+    }
+
+    /**
+     * The full chain down to 1x1 for color textures: Kaiser filtered in linear space, keeping the
+     * coverage at {@link #CUTOUT_ALPHA} when the alpha looks like a cutout (see {@link #isCutout}).
+     * Level 0 is the given array.
+     */
+    public static int[][] generate(int[] pixels, int width, int height)
+    {
+        return generate(pixels, width, height, Filter.KAISER, true, isCutout(pixels) ? CUTOUT_ALPHA : 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Whether the alpha is a mask for an alpha test (leaves, fences): some texels fully
+     * transparent and nearly all of them either fully transparent or opaque.
+     */
+    public static boolean isCutout(int[] pixels)
+    {
+        int transparent = 0;
+        int opaque = 0;
+        for(int pixel : pixels)
+        {
+            int alpha = pixel >>> 24;
+            if(alpha == 0)
+                transparent++;
+            else if(alpha == 255)
+                opaque++;
+        }
+        return transparent > 0 && transparent + opaque >= pixels.length * 0.95;
+    }
+
+    /**
+     * @param srgb whether the color channels are sRGB (color maps) or linear data (normals, masks)
+     * @param alphaCutoff the alpha test threshold (0 to 1) whose coverage every level keeps, 0 for none
+     * @param maxLevels at most this many levels, level 0 included
+     */
+    public static int[][] generate(int[] pixels, int width, int height, Filter filter, boolean srgb, float alphaCutoff, int maxLevels)
+    {
+        int[][] levels = new int[Math.min(levelCount(width, height), Math.max(1, maxLevels))][];
+        levels[0] = pixels;
+        if(filter == Filter.BOX)
+        {
+            for(int i = 1; i < levels.length; i++)
+                levels[i] = downsample(levels[i - 1], Math.max(1, width >> (i - 1)), Math.max(1, height >> (i - 1)));
+            if(alphaCutoff > 0)
+            {
+                for(int i = 1; i < levels.length; i++)
+                    levels[i] = pack(unpack(levels[i], false), false, alphaCutoff, coverage(pixels, alphaCutoff));
+            }
+            return levels;
+        }
+
+        float coverage = alphaCutoff > 0 ? coverage(pixels, alphaCutoff) : 0;
+        float[] level = unpack(pixels, srgb);
+        for(int i = 1; i < levels.length; i++)
+        {
+            int sourceWidth = Math.max(1, width >> (i - 1));
+            int sourceHeight = Math.max(1, height >> (i - 1));
+            int levelWidth = Math.max(1, width >> i);
+            int levelHeight = Math.max(1, height >> i);
+            level = resample(level, sourceWidth, sourceHeight, levelWidth, levelHeight, filter);
+            levels[i] = pack(level, srgb, alphaCutoff, coverage);
+        }
+        return levels;
+    }
+
+    /**
+     * Scales a level of linear RGBA floats to another size with {@code filter}, separably.
+     */
+    public static float[] resample(float[] source, int sourceWidth, int sourceHeight, int width, int height, Filter filter)
+    {
+        Taps columns = new Taps(sourceWidth, width, filter);
+        Taps rows = new Taps(sourceHeight, height, filter);
+
+        // along the rows first, sourceHeight rows of the new width
+        float[] horizontal = new float[width * sourceHeight * 4];
+        ImageKernels.forEachBand(width, sourceHeight, (y0, y1) -> {
+            for(int y = y0; y < y1; y++)
+            {
+                int in = y * sourceWidth * 4;
+                int out = y * width * 4;
+                for(int x = 0; x < width; x++, out += 4)
+                {
+                    float r = 0, g = 0, b = 0, a = 0;
+                    for(int t = x * columns.count, end = t + columns.count; t < end; t++)
+                    {
+                        int i = in + columns.index[t] * 4;
+                        float weight = columns.weight[t];
+                        r += source[i] * weight;
+                        g += source[i + 1] * weight;
+                        b += source[i + 2] * weight;
+                        a += source[i + 3] * weight;
+                    }
+                    horizontal[out] = r;
+                    horizontal[out + 1] = g;
+                    horizontal[out + 2] = b;
+                    horizontal[out + 3] = a;
+                }
+            }
+        });
+
+        // then down the columns, a whole row per tap so the inner loop is contiguous
+        float[] result = new float[width * height * 4];
+        int stride = width * 4;
+        ImageKernels.forEachBand(width, height, (y0, y1) -> {
+            for(int y = y0; y < y1; y++)
+            {
+                int out = y * stride;
+                for(int t = y * rows.count, end = t + rows.count; t < end; t++)
+                {
+                    int in = rows.index[t] * stride;
+                    float weight = rows.weight[t];
+                    for(int x = 0; x < stride; x++)
+                        result[out + x] += horizontal[in + x] * weight;
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * The source texels and normalized weights of every output texel along one axis. Edge taps
+     * are clamped here, so the filter loops never check bounds.
+     */
+    private static final class Taps
+    {
+        final int count;
+        final int[] index;
+        final float[] weight;
+
+        Taps(int sourceSize, int size, Filter filter)
+        {
+            float scale = sourceSize / (float) size;
+            float radius = filter.support * Math.max(1, scale);
+            count = sourceSize == size ? 1 : (int) Math.ceil(radius * 2) + 1;
+            index = new int[size * count];
+            weight = new float[size * count];
+            for(int x = 0; x < size; x++)
+            {
+                int base = x * count;
+                if(sourceSize == size)
+                {
+                    index[base] = x;
+                    weight[base] = 1;
+                    continue;
+                }
+                float center = (x + 0.5f) * scale;
+                int first = (int) Math.floor(center - radius);
+                float sum = 0;
+                for(int t = 0; t < count; t++)
+                {
+                    int texel = first + t;
+                    float w = filter.weight((texel + 0.5f - center) / scale);
+                    index[base + t] = Math.min(sourceSize - 1, Math.max(0, texel));
+                    weight[base + t] = w;
+                    sum += w;
+                }
+                for(int t = 0; t < count; t++)
+                    weight[base + t] /= sum;
+            }
+        }
+    }
+
+    private static float[] unpack(int[] pixels, boolean srgb)
+    {
+        float[] level = new float[pixels.length * 4];
+        for(int i = 0, j = 0; i < pixels.length; i++, j += 4)
+        {
+            int pixel = pixels[i];
+            for(int c = 0; c < 3; c++)
+            {
+                int value = (pixel >>> (c << 3)) & 0xFF;
+                level[j + c] = srgb ? TO_LINEAR[value] : value / 255f;
+            }
+            level[j + 3] = (pixel >>> 24) / 255f;
+        }
+        return level;
+    }
+
+    private static int[] pack(float[] level, boolean srgb, float alphaCutoff, float coverage)
+    {
+        float alphaScale = alphaCutoff > 0 ? alphaScale(level, alphaCutoff, coverage) : 1;
+        int[] pixels = new int[level.length / 4];
+        for(int i = 0, j = 0; i < pixels.length; i++, j += 4)
+        {
+            int pixel = 0;
+            for(int c = 0; c < 3; c++)
+            {
+                float value = Math.min(1, Math.max(0, level[j + c]));
+                pixel |= (srgb ? TO_SRGB[(int) (value * 65535 + 0.5f)] & 0xFF : Math.round(value * 255)) << (c << 3);
+            }
+            pixels[i] = pixel | Math.round(Math.min(1, Math.max(0, level[j + 3] * alphaScale)) * 255) << 24;
+        }
+        return pixels;
+    }
+
+    /**
+     * Fraction of texels that pass an alpha test at {@code cutoff}.
+     */
+    public static float coverage(int[] pixels, float cutoff)
+    {
+        int threshold = (int) Math.ceil(cutoff * 255);
+        int passed = 0;
+        for(int pixel : pixels)
+        {
+            if(pixel >>> 24 >= threshold)
+                passed++;
+        }
+        return passed / (float) pixels.length;
+    }
+
+    /**
+     * The alpha scale that makes the level's coverage closest to {@code coverage}, by bisection
+     * (coverage only grows with the scale).
+     */
+    private static float alphaScale(float[] level, float cutoff, float coverage)
+    {
+        float[] alpha = new float[level.length / 4];
+        for(int i = 0; i < alpha.length; i++)
+            alpha[i] = level[i * 4 + 3];
+        Arrays.sort(alpha);
+
+        float low = 0;
+        float high = 4;
+        float best = 1;
+        float bestError = Float.MAX_VALUE;
+        for(int i = 0; i < 16; i++)
+        {
+            float scale = (low + high) / 2;
+            // texels passing at this scale: alpha * scale >= cutoff, rounded like pack does
+            float passed = (alpha.length - lowerBound(alpha, ((float) Math.ceil(cutoff * 255) - 0.5f) / 255 / scale)) / (float) alpha.length;
+            float error = Math.abs(passed - coverage);
+            if(error < bestError)
+            {
+                bestError = error;
+                best = scale;
+            }
+            if(passed < coverage)
+                low = scale;
+            else
+                high = scale;
+        }
+        return best;
+    }
+
+    private static int lowerBound(float[] sorted, float value)
+    {
+        int low = 0;
+        int high = sorted.length;
+        while(low < high)
+        {
+            int middle = (low + high) >>> 1;
+            if(sorted[middle] < value)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    private static float sinc(float x)
+    {
+        if(x < 1e-5f)
+            return 1;
+        double px = Math.PI * x;
+        return (float) (Math.sin(px) / px);
+    }
+
+    // zeroth order modified Bessel function of the first kind, by its power series
+    private static double bessel0(double x)
+    {
+        double sum = 1;
+        double term = 1;
+        double half = x * x / 4;
+        for(int k = 1; k < 32 && term > sum * 1e-12; k++)
+        {
+            term *= half / (k * k);
+            sum += term;
+        }
+        return sum;
+    }
+
+    private static double toLinear(double srgb)
+    {
+        return srgb <= 0.04045 ? srgb / 12.92 : Math.pow((srgb + 0.055) / 1.055, 2.4);
+    }
+
+    private static double toSrgb(double linear)
+    {
+        return linear <= 0.0031308 ? linear * 12.92 : 1.055 * Math.pow(linear, 1 / 2.4) - 0.055;
+    }
+
+    /**
+     * Halves a level. An odd last row/column is folded into the one before it by clamping.
+     */
+    public static int[] downsample(int[] source, int width, int height)
+    {
+        int w = Math.max(1, width >> 1);
+        int h = Math.max(1, height >> 1);
+        int[] result = new int[w * h];
+        for(int y = 0; y < h; y++)
+        {
+            int y0 = Math.min(y * 2, height - 1) * width;
+            int y1 = Math.min(y * 2 + 1, height - 1) * width;
+            for(int x = 0; x < w; x++)
+            {
+                int x0 = Math.min(x * 2, width - 1);
+                int x1 = Math.min(x * 2 + 1, width - 1);
+                result[y * w + x] = average(source[y0 + x0], source[y0 + x1], source[y1 + x0], source[y1 + x1]);
+            }
+        }
+        return result;
+    }
+
+    private static int average(int a, int b, int c, int d)
+    {
+        int result = 0;
+        for(int shift = 0; shift < 32; shift += 8)
+        {
+            int sum = ((a >>> shift) & 0xFF) + ((b >>> shift) & 0xFF) + ((c >>> shift) & 0xFF) + ((d >>> shift) & 0xFF);
+            result |= ((sum + 2) >> 2) << shift;
+        }
+        return result;
+    }
+}
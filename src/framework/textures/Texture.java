@@ -18,6 +18,8 @@ public class Texture
     private IntBuffer diffuseBuffer;
     private IntBuffer normalBuffer;
     private IntBuffer specularBuffer;
+    // ModelLoader handles of the GL textures behind the maps
+    private int[] handles = {};
 
     public Texture(int id)
     {
@@ -154,4 +156,14 @@ public class Texture
     {
         return specularBuffer;
     }
+
+    public int[] getHandles()
+    {
+        return handles;
+    }
+
+    public void setHandles(int... handles)
+    {
+        this.handles = handles;
+    }
 }
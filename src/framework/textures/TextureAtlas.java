@@ -0,0 +1,180 @@
+package framework.textures;
+
+import framework.io.Mesh;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.List;
+
+/**
+ * Images packed into one texture (see {@link #pack}) and where each of them ended up, so meshes
+ * that used them can sample the atlas instead and share one bind.
+ * <p>
+ * Every image has a gutter of {@code padding} texels around it that repeats its edge texels, so
+ * filtering and the smaller mip levels don't bleed the neighbours in. UVs are remapped with the
+ * table from {@link #getUVTable()}: {@code u' = offsetU + u * scaleU}, the same for v. Only UVs
+ * from 0 to 1 can be remapped, textures that repeat don't belong in an atlas.
+ */
+public final class TextureAtlas
+{
+    private final BufferedImage image;
+    // offsetU, offsetV, scaleU, scaleV per image
+    private final float[] table;
+    // x, y, width, height in texels per image, without the gutter
+    private final int[] regions;
+
+    private TextureAtlas(BufferedImage image, float[] table, int[] regions)
+    {
+        this.image = image;
+        this.table = table;
+        this.regions = regions;
+    }
+
+    /**
+     * Packs the images into the smallest power of two atlas, up to {@code maxSize} on a side.
+     *
+     * @throws IllegalArgumentException if they don't fit into {@code maxSize} x {@code maxSize}
+     */
+    public static TextureAtlas pack(List<BufferedImage> images, int padding, int maxSize)
+    {
+        int[] sizes = new int[images.size() * 2];
+        long area = 0;
+        int side = 1;
+        for(int i = 0; i < images.size(); i++)
+        {
+            sizes[i * 2] = images.get(i).getWidth() + padding * 2;
+            sizes[i * 2 + 1] = images.get(i).getHeight() + padding * 2;
+            area += (long) sizes[i * 2] * sizes[i * 2 + 1];
+            side = Math.max(side, Math.max(sizes[i * 2], sizes[i * 2 + 1]));
+        }
+
+        int width = Integer.highestOneBit(Math.max(1, side - 1)) << 1;
+        int height = width;
+        while((long) width * height < area)
+        {
+            if(height < width)
+                height <<= 1;
+            else
+                width <<= 1;
+        }
+        while(width <= maxSize && height <= maxSize)
+        {
+            int[] positions = MaxRectsPacker.pack(sizes, width, height);
+            if(positions != null)
+                return build(images, positions, padding, width, height);
+            if(height < width)
+                height <<= 1;
+            else
+                width <<= 1;
+        }
+        throw new IllegalArgumentException(images.size() + " images don't fit into a " + maxSize + " atlas");
+    }
+
+    /**
+     * Packs the images into exactly {@code width} x {@code height}.
+     *
+     * @throws IllegalArgumentException if they don't fit
+     */
+    public static TextureAtlas pack(List<BufferedImage> images, int padding, int width, int height)
+    {
+        int[] sizes = new int[images.size() * 2];
+        for(int i = 0; i < images.size(); i++)
+        {
+            sizes[i * 2] = images.get(i).getWidth() + padding * 2;
+            sizes[i * 2 + 1] = images.get(i).getHeight() + padding * 2;
+        }
+        int[] positions = MaxRectsPacker.pack(sizes, width, height);
+        if(positions == null)
+            throw new IllegalArgumentException(images.size() + " images don't fit into " + width + "x" + height);
+        return build(images, positions, padding, width, height);
+    }
+
+    private static TextureAtlas build(List<BufferedImage> images, int[] positions, int padding, int width, int height)
+    {
+        BufferedImage atlas = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        int[] target = ((DataBufferInt) atlas.getRaster().getDataBuffer()).getData();
+        float[] table = new float[images.size() * 4];
+        int[] regions = new int[images.size() * 4];
+
+        for(int i = 0; i < images.size(); i++)
+        {
+            BufferedImage source = images.get(i);
+            int w = source.getWidth();
+            int h = source.getHeight();
+            int x = positions[i * 2] + padding;
+            int y = positions[i * 2 + 1] + padding;
+            int[] pixels = source.getRGB(0, 0, w, h, null, 0, w);
+
+            // the image and its gutter, the gutter clamps to the nearest edge texel
+            for(int ty = -padding; ty < h + padding; ty++)
+            {
+                int row = Math.min(h - 1, Math.max(0, ty)) * w;
+                int out = (y + ty) * width + x;
+                for(int tx = -padding; tx < 0; tx++)
+                    target[out + tx] = pixels[row];
+                System.arraycopy(pixels, row, target, out, w);
+                for(int tx = w; tx < w + padding; tx++)
+                    target[out + tx] = pixels[row + w - 1];
+            }
+
+            regions[i * 4] = x;
+            regions[i * 4 + 1] = y;
+            regions[i * 4 + 2] = w;
+            regions[i * 4 + 3] = h;
+            table[i * 4] = x / (float) width;
+            table[i * 4 + 1] = y / (float) height;
+            table[i * 4 + 2] = w / (float) width;
+            table[i * 4 + 3] = h / (float) height;
+        }
+        return new TextureAtlas(atlas, table, regions);
+    }
+
+    public BufferedImage getImage()
+    {
+        return image;
+    }
+
+    public int size()
+    {
+        return table.length / 4;
+    }
+
+    /**
+     * {@code offsetU, offsetV, scaleU, scaleV} of every image, in the order they were packed in.
+     */
+    public float[] getUVTable()
+    {
+        return table;
+    }
+
+    /**
+     * {@code x, y, width, height} in texels of every image, without the gutter.
+     */
+    public int[] getRegions()
+    {
+        return regions;
+    }
+
+    public float remapU(int index, float u)
+    {
+        return table[index * 4] + Math.min(1, Math.max(0, u)) * table[index * 4 + 2];
+    }
+
+    public float remapV(int index, float v)
+    {
+        return table[index * 4 + 1] + Math.min(1, Math.max(0, v)) * table[index * 4 + 3];
+    }
+
+    /**
+     * Rewrites the mesh's texture coordinates in place to sample image {@code index} of the atlas.
+     */
+    public void remap(Mesh mesh, int index)
+    {
+        float[] textures = mesh.getTextures();
+        for(int i = 0; i + 1 < textures.length; i += 2)
+        {
+            textures[i] = remapU(index, textures[i]);
+            textures[i + 1] = remapV(index, textures[i + 1]);
+        }
+    }
+}
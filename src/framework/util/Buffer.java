@@ -5,12 +5,100 @@ import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 
+/**
+ * Direct buffers for GL. The {@code create} methods allocate a buffer the caller owns and the GC frees,
+ * for data that stays around. Data that is only copied into GL goes through {@code stage}, which
+ * writes it into the {@link FrameArena} of the GL thread and reuses that memory every frame, and
+ * bigger scratch buffers come from {@link #acquire}/{@link #release}.
+ */
 public class Buffer
 {
+    private static final BufferPool pool = new BufferPool();
+    private static final FrameArena arena = new FrameArena(pool);
+    private static long peakDirectMemory;
 
     private Buffer() {
     }
 
+    /**
+     * A copy of the array in frame memory, valid until {@link #endFrame()}. GL thread only.
+     */
+    public static FloatBuffer stageFloats(float[] array) {
+        return arena.allocate(array.length << 2).asFloatBuffer()
+            .put(array)
+            .flip();
+    }
+
+    public static IntBuffer stageInts(int[] array) {
+        return arena.allocate(array.length << 2).asIntBuffer()
+            .put(array)
+            .flip();
+    }
+
+    public static ByteBuffer stageBytes(byte[] array) {
+        return arena.allocate(array.length)
+            .put(array)
+            .flip();
+    }
+
+    /**
+     * Empty frame memory of {@code bytes}, valid until {@link #endFrame()}. GL thread only.
+     */
+    public static ByteBuffer stage(int bytes) {
+        return arena.allocate(bytes);
+    }
+
+    /**
+     * A pooled scratch buffer with its limit at {@code bytes}, give it back with {@link #release}. Any thread.
+     */
+    public static ByteBuffer acquire(int bytes) {
+        return pool.acquire(bytes);
+    }
+
+    public static void release(ByteBuffer buffer) {
+        pool.release(buffer);
+    }
+
+    /**
+     * Frees the frame memory for the next frame. Called by the engine loop after the frame is submitted.
+     */
+    public static void endFrame() {
+        arena.reset();
+        // sampled once a frame, the bean walks every direct buffer pool
+        if ((arena.getFrames() & 63) == 0) {
+            sampleDirectMemory();
+        }
+    }
+
+    /**
+     * Current and peak direct memory of the JVM and what the staging pool and arena hold of it.
+     */
+    public static String getMemoryStats() {
+        long direct = sampleDirectMemory();
+        return String.format("direct %.1f MB (peak %.1f MB), pool %.1f MB (peak %.1f MB, in use %.1f MB, peak %.1f MB, %d hits, %d misses), arena %.1f MB (peak frame %.1f MB)",
+                mb(direct), mb(peakDirectMemory), mb(pool.getAllocated()), mb(pool.getPeakAllocated()),
+                mb(pool.getInUse()), mb(pool.getPeakInUse()), pool.getHits(), pool.getMisses(),
+                mb(arena.getCapacity()), mb(arena.getPeakUsed()));
+    }
+
+    public static BufferPool getPool() {
+        return pool;
+    }
+
+    public static FrameArena getArena() {
+        return arena;
+    }
+
+    private static synchronized long sampleDirectMemory() {
+        long direct = BufferPool.getDirectMemoryUsed();
+        peakDirectMemory = Math.max(peakDirectMemory, direct);
+        return direct;
+    }
+
+    private static double mb(long bytes) {
+        return bytes / 1048576.0;
+    }
+
     public static ByteBuffer createByteBuffer(byte[] array) {
         return ByteBuffer.allocateDirect(array.length).order(ByteOrder.nativeOrder())
             .put(array)
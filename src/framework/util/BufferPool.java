@@ -0,0 +1,167 @@
+package framework.util;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reuses direct buffers in power of two size classes, so staging memory for uploads and decoders is
+ * allocated once instead of on every call and left to the GC.
+ * <p>
+ * {@link #acquire} hands out a cleared native order buffer with at least the asked capacity (limit set
+ * to the asked size), {@link #release} gives it back. At most {@value #MAX_PER_CLASS} free buffers
+ * are kept per class, anything above {@value #MAX_POOLED} bytes isn't pooled at all. Thread safe.
+ */
+public final class BufferPool
+{
+    public static final int MIN_POOLED = 4 << 10;
+    public static final int MAX_POOLED = 64 << 20;
+    public static final int MAX_PER_CLASS = 8;
+
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_POOLED);
+    private static final int CLASSES = Integer.numberOfTrailingZeros(MAX_POOLED) - MIN_SHIFT + 1;
+
+    private final ArrayDeque<ByteBuffer>[] free;
+    private final AtomicLong allocated = new AtomicLong();
+    private final AtomicLong peakAllocated = new AtomicLong();
+    private final AtomicLong inUse = new AtomicLong();
+    private final AtomicLong peakInUse = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public BufferPool()
+    {
+        free = new ArrayDeque[CLASSES];
+        for(int i = 0; i < CLASSES; i++)
+            free[i] = new ArrayDeque<>();
+    }
+
+    public ByteBuffer acquire(int bytes)
+    {
+        int sizeClass = sizeClass(bytes);
+        ByteBuffer buffer = null;
+        if(sizeClass >= 0)
+        {
+            synchronized(free[sizeClass])
+            {
+                buffer = free[sizeClass].pollLast();
+            }
+        }
+
+        if(buffer == null)
+        {
+            misses.incrementAndGet();
+            int capacity = sizeClass >= 0 ? 1 << (sizeClass + MIN_SHIFT) : bytes;
+            buffer = ByteBuffer.allocateDirect(capacity).order(ByteOrder.nativeOrder());
+            max(peakAllocated, allocated.addAndGet(capacity));
+        }
+        else
+        {
+            hits.incrementAndGet();
+        }
+        max(peakInUse, inUse.addAndGet(buffer.capacity()));
+        return buffer.clear().limit(bytes);
+    }
+
+    /**
+     * Returns a buffer from {@link #acquire}. It must not be used afterwards, views of it included.
+     */
+    public void release(ByteBuffer buffer)
+    {
+        inUse.addAndGet(-buffer.capacity());
+        int sizeClass = sizeClass(buffer.capacity());
+        if(sizeClass >= 0 && buffer.capacity() == 1 << (sizeClass + MIN_SHIFT))
+        {
+            synchronized(free[sizeClass])
+            {
+                if(free[sizeClass].size() < MAX_PER_CLASS)
+                {
+                    free[sizeClass].addLast(buffer);
+                    return;
+                }
+            }
+        }
+        // not kept, the GC frees it
+        allocated.addAndGet(-buffer.capacity());
+    }
+
+    /**
+     * Drops every free buffer, for after loading when the staging memory won't be needed again soon.
+     */
+    public void trim()
+    {
+        for(ArrayDeque<ByteBuffer> sizeClass : free)
+        {
+            synchronized(sizeClass)
+            {
+                for(ByteBuffer buffer : sizeClass)
+                    allocated.addAndGet(-buffer.capacity());
+                sizeClass.clear();
+            }
+        }
+    }
+
+    /**
+     * Bytes of direct memory the pool holds, in use or free.
+     */
+    public long getAllocated()
+    {
+        return allocated.get();
+    }
+
+    public long getPeakAllocated()
+    {
+        return peakAllocated.get();
+    }
+
+    public long getInUse()
+    {
+        return inUse.get();
+    }
+
+    public long getPeakInUse()
+    {
+        return peakInUse.get();
+    }
+
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    /**
+     * Direct memory of the whole JVM (pooled or not) as the {@code direct} buffer pool bean reports it.
+     */
+    public static long getDirectMemoryUsed()
+    {
+        for(BufferPoolMXBean bean : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class))
+        {
+            if(bean.getName().equals("direct"))
+                return bean.getMemoryUsed();
+        }
+        return -1;
+    }
+
+    private static int sizeClass(int bytes)
+    {
+        if(bytes > MAX_POOLED)
+            return -1;
+        int shift = 32 - Integer.numberOfLeadingZeros(Math.max(bytes, MIN_POOLED) - 1);
+        return shift - MIN_SHIFT;
+    }
+
+    private static void max(AtomicLong peak, long value)
+    {
+        long current;
+        while(value > (current = peak.get()) && !peak.compareAndSet(current, value));
+    }
+}
@@ -0,0 +1,103 @@
+package framework.util;
+
+import java.util.Arrays;
+
+/**
+ * growable float array, for the loaders that can't know their sizes up front
+ * without boxing every value into a {@code List<Float>}
+ */
+public class FloatList
+{
+    private float[] data;
+    private int size;
+
+    public FloatList()
+    {
+        this(64);
+    }
+
+    public FloatList(int capacity)
+    {
+        data = new float[Math.max(capacity, 4)];
+    }
+
+    public void add(float value)
+    {
+        if(size == data.length)
+            grow(size + 1);
+        data[size++] = value;
+    }
+
+    public void add(float x, float y)
+    {
+        if(size + 2 > data.length)
+            grow(size + 2);
+        data[size++] = x;
+        data[size++] = y;
+    }
+
+    public void add(float x, float y, float z)
+    {
+        if(size + 3 > data.length)
+            grow(size + 3);
+        data[size++] = x;
+        data[size++] = y;
+        data[size++] = z;
+    }
+
+    public void addAll(float[] values, int offset, int length)
+    {
+        if(size + length > data.length)
+            grow(size + length);
+        System.arraycopy(values, offset, data, size, length);
+        size += length;
+    }
+
+    public float get(int index)
+    {
+        if(index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        return data[index];
+    }
+
+    public void set(int index, float value)
+    {
+        if(index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        data[index] = value;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    public void clear()
+    {
+        size = 0;
+    }
+
+    /**
+     * the backing array, valid up to {@link #size()}. it is replaced when the list grows,
+     * so don't hold on to it across an add
+     */
+    public float[] array()
+    {
+        return data;
+    }
+
+    public float[] toArray()
+    {
+        return Arrays.copyOf(data, size);
+    }
+
+    private void grow(int minCapacity)
+    {
+        data = Arrays.copyOf(data, Math.max(minCapacity, data.length + (data.length >> 1)));
+    }
+}
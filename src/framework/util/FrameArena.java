@@ -0,0 +1,105 @@
+package framework.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bump allocator for staging data that only lives until the end of the frame, like the arrays
+ * copied into direct memory right before {@code glBufferData} or {@code glTexImage2D}.
+ * <p>
+ * Allocating is a pointer bump in one big direct block, {@link #reset()} at the end of the frame
+ * makes the whole block free again. When a frame needs more, a bigger block is taken from the
+ * {@link BufferPool} and the old one goes back at the next reset, so the arena settles at the size
+ * the busiest frame needs. Requests above {@value #MAX_BLOCK} bytes get their own pooled buffer.
+ * Not thread safe, it belongs to the GL thread.
+ */
+public final class FrameArena
+{
+    public static final int ALIGNMENT = 16;
+    public static final int MIN_BLOCK = 1 << 20;
+    public static final int MAX_BLOCK = 32 << 20;
+
+    private final BufferPool pool;
+    private ByteBuffer block;
+    private int offset;
+    private final List<ByteBuffer> retired = new ArrayList<>();
+    private long used;
+    private long peakUsed;
+    private long frames;
+
+    public FrameArena(BufferPool pool)
+    {
+        this.pool = pool;
+    }
+
+    /**
+     * A native order buffer of exactly {@code bytes}, valid until the next {@link #reset()}.
+     */
+    public ByteBuffer allocate(int bytes)
+    {
+        used += bytes;
+        if(bytes > MAX_BLOCK)
+        {
+            ByteBuffer own = pool.acquire(bytes);
+            retired.add(own);
+            return own;
+        }
+
+        if(block == null || offset + bytes > block.capacity())
+        {
+            int size = MIN_BLOCK;
+            while(size < bytes || (block != null && size <= block.capacity() && size < MAX_BLOCK))
+                size <<= 1;
+            if(block != null)
+                retired.add(block);
+            block = pool.acquire(Math.min(size, MAX_BLOCK));
+            offset = 0;
+        }
+
+        ByteBuffer slice = block.slice(offset, bytes).order(ByteOrder.nativeOrder());
+        offset = (offset + bytes + ALIGNMENT - 1) & -ALIGNMENT;
+        return slice;
+    }
+
+    /**
+     * Ends the frame, everything handed out since the last reset is invalid afterwards.
+     */
+    public void reset()
+    {
+        for(ByteBuffer buffer : retired)
+            pool.release(buffer);
+        retired.clear();
+        offset = 0;
+        peakUsed = Math.max(peakUsed, used);
+        used = 0;
+        frames++;
+    }
+
+    public int getCapacity()
+    {
+        return block == null ? 0 : block.capacity();
+    }
+
+    /**
+     * Bytes handed out this frame.
+     */
+    public long getUsed()
+    {
+        return used;
+    }
+
+    /**
+     * The most bytes any frame used so far.
+     */
+    public long getPeakUsed()
+    {
+        return Math.max(peakUsed, used);
+    }
+
+    public long getFrames()
+    {
+        return frames;
+    }
+}
@@ -0,0 +1,168 @@
+package framework.util;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Generation checked handles for one kind of GL object (vaos, buffers or textures), kept in
+ * primitive arrays.
+ * <p>
+ * A handle is a slot index in the low {@value #INDEX_BITS} bits and the slot's generation above
+ * them. Releasing a handle bumps the generation right away, so every copy of it turns invalid, and
+ * queues the GL name for deletion. The queue is only flushed {@value #DELETE_DELAY} frames later on
+ * the GL thread, when no frame in flight can still use the object. 0 is never a valid handle.
+ */
+public final class HandleRegistry
+{
+    public static final int INDEX_BITS = 20;
+    public static final int DELETE_DELAY = 3;
+
+    private static final int INDEX_MASK = (1 << INDEX_BITS) - 1;
+    private static final int GENERATION_MASK = (1 << (32 - INDEX_BITS)) - 1;
+
+    private final String kind;
+    private final IntConsumer deleter;
+    private int[] names = new int[64];
+    private int[] generations = new int[64];
+    private int slots;
+    private int live;
+    private final IntList free = new IntList();
+    private final IntList pendingNames = new IntList();
+    private final IntList pendingFrames = new IntList();
+    private int frame;
+
+    /**
+     * @param deleter deletes one GL name, like {@code glDeleteBuffers}
+     */
+    public HandleRegistry(String kind, IntConsumer deleter)
+    {
+        this.kind = kind;
+        this.deleter = deleter;
+    }
+
+    public synchronized int register(int name)
+    {
+        int index;
+        if(!free.isEmpty())
+        {
+            index = free.removeLast();
+        }
+        else
+        {
+            if(slots > INDEX_MASK)
+                throw new IllegalStateException("Too many " + kind + " handles");
+            if(slots == names.length)
+            {
+                names = Arrays.copyOf(names, slots * 2);
+                generations = Arrays.copyOf(generations, slots * 2);
+            }
+            index = slots++;
+            generations[index] = 1;
+        }
+        names[index] = name;
+        live++;
+        return generations[index] << INDEX_BITS | index;
+    }
+
+    public synchronized boolean isValid(int handle)
+    {
+        int index = handle & INDEX_MASK;
+        return handle != 0 && index < slots && generations[index] == handle >>> INDEX_BITS && names[index] != 0;
+    }
+
+    /**
+     * The GL name behind a handle, 0 once it was released.
+     */
+    public synchronized int getName(int handle)
+    {
+        return isValid(handle) ? names[handle & INDEX_MASK] : 0;
+    }
+
+    /**
+     * Invalidates the handle and queues its GL object for deletion. Returns false for a handle
+     * that was already released, so releasing twice is harmless. Any thread.
+     */
+    public synchronized boolean release(int handle)
+    {
+        if(!isValid(handle))
+            return false;
+        int index = handle & INDEX_MASK;
+        pendingNames.add(names[index]);
+        pendingFrames.add(frame);
+        names[index] = 0;
+        // generation 0 would make handle 0 valid
+        int generation = (generations[index] + 1) & GENERATION_MASK;
+        generations[index] = generation == 0 ? 1 : generation;
+        free.add(index);
+        live--;
+        return true;
+    }
+
+    /**
+     * Ends a frame: deletes what was released {@value #DELETE_DELAY} or more frames ago. GL thread only.
+     */
+    public synchronized void flush()
+    {
+        frame++;
+        int kept = 0;
+        for(int i = 0; i < pendingNames.size(); i++)
+        {
+            if(frame - pendingFrames.get(i) >= DELETE_DELAY)
+            {
+                deleter.accept(pendingNames.get(i));
+            }
+            else
+            {
+                pendingNames.set(kept, pendingNames.get(i));
+                pendingFrames.set(kept, pendingFrames.get(i));
+                kept++;
+            }
+        }
+        pendingNames.truncate(kept);
+        pendingFrames.truncate(kept);
+    }
+
+    /**
+     * Deletes every object, live or pending, at once. For shutdown, GL thread only.
+     */
+    public synchronized void destroy()
+    {
+        for(int i = 0; i < pendingNames.size(); i++)
+            deleter.accept(pendingNames.get(i));
+        for(int i = 0; i < slots; i++)
+        {
+            if(names[i] != 0)
+                deleter.accept(names[i]);
+        }
+        pendingNames.clear();
+        pendingFrames.clear();
+        for(int i = 0; i < slots; i++)
+        {
+            if(names[i] != 0)
+            {
+                names[i] = 0;
+                generations[i] = ((generations[i] + 1) & GENERATION_MASK) == 0 ? 1 : (generations[i] + 1) & GENERATION_MASK;
+                free.add(i);
+            }
+        }
+        live = 0;
+    }
+
+    public static int index(int handle)
+    {
+        return handle & INDEX_MASK;
+    }
+
+    /**
+     * Objects that are registered and not released.
+     */
+    public synchronized int size()
+    {
+        return live;
+    }
+
+    public synchronized int getPendingCount()
+    {
+        return pendingNames.size();
+    }
+}
@@ -0,0 +1,120 @@
+package framework.util;
+
+import java.util.Arrays;
+
+/**
+ * growable int array, for the loaders that can't know their sizes up front
+ * without boxing every value into a {@code List<Integer>}
+ */
+public class IntList
+{
+    private int[] data;
+    private int size;
+
+    public IntList()
+    {
+        this(64);
+    }
+
+    public IntList(int capacity)
+    {
+        data = new int[Math.max(capacity, 4)];
+    }
+
+    public void add(int value)
+    {
+        if(size == data.length)
+            grow(size + 1);
+        data[size++] = value;
+    }
+
+    public void add(int x, int y)
+    {
+        if(size + 2 > data.length)
+            grow(size + 2);
+        data[size++] = x;
+        data[size++] = y;
+    }
+
+    public void add(int x, int y, int z)
+    {
+        if(size + 3 > data.length)
+            grow(size + 3);
+        data[size++] = x;
+        data[size++] = y;
+        data[size++] = z;
+    }
+
+    public void addAll(int[] values, int offset, int length)
+    {
+        if(size + length > data.length)
+            grow(size + length);
+        System.arraycopy(values, offset, data, size, length);
+        size += length;
+    }
+
+    public int get(int index)
+    {
+        if(index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        return data[index];
+    }
+
+    public void set(int index, int value)
+    {
+        if(index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        data[index] = value;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    public void clear()
+    {
+        size = 0;
+    }
+
+    public int removeLast()
+    {
+        if(size == 0)
+            throw new IndexOutOfBoundsException("List is empty");
+        return data[--size];
+    }
+
+    /**
+     * drops everything from {@code size} on
+     */
+    public void truncate(int size)
+    {
+        if(size < 0 || size > this.size)
+            throw new IndexOutOfBoundsException("Size: " + size + ", was: " + this.size);
+        this.size = size;
+    }
+
+    /**
+     * the backing array, valid up to {@link #size()}. it is replaced when the list grows,
+     * so don't hold on to it across an add
+     */
+    public int[] array()
+    {
+        return data;
+    }
+
+    public int[] toArray()
+    {
+        return Arrays.copyOf(data, size);
+    }
+
+    private void grow(int minCapacity)
+    {
+        data = Arrays.copyOf(data, Math.max(minCapacity, data.length + (data.length >> 1)));
+    }
+}
@@ -35,7 +35,10 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.CRC32;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
@@ -231,12 +234,20 @@ public class PNGDecoder {
             }
         case COLOR_GREYSCALE:
             switch (fmt) {
+            case ABGR:
+            case RGBA:
+            case BGRA:
             case LUMINANCE:
             case ALPHA: return fmt;
             default: return Format.LUMINANCE;
             }
         case COLOR_GREYALPHA:
-            return Format.LUMINANCE_ALPHA;
+            switch (fmt) {
+            case ABGR:
+            case RGBA:
+            case BGRA: return fmt;
+            default: return Format.LUMINANCE_ALPHA;
+            }
         case COLOR_INDEXED:
             switch (fmt) {
             case ABGR:
@@ -264,75 +275,135 @@ public class PNGDecoder {
     public void decode(ByteBuffer buffer, int stride, Format fmt) throws IOException {
         final int offset = buffer.position();
         final int lineSize = ((width * bitdepth + 7) / 8) * bytesPerPixel;
-        byte[] curLine = new byte[lineSize+1];
-        byte[] prevLine = new byte[lineSize+1];
-        byte[] palLine = (bitdepth < 8) ? new byte[width+1] : null;
-        
-        final Inflater inflater = new Inflater();
+        final int n = lineSize + 1;
+        final boolean le = buffer.order() == ByteOrder.LITTLE_ENDIAN;
+
+        final Scratch scratch = Scratch.acquire(n, width + 1);
+        byte[] curLine = scratch.curLine;
+        byte[] prevLine = scratch.prevLine;
+        byte[] palLine = scratch.palLine;
+        // the first line is filtered against zeros
+        Arrays.fill(prevLine, 0, n, (byte)0);
+        final Inflater inflater = scratch.inflater;
+        int[] lut = null;
         try {
             for(int y=0 ; y<height ; y++) {
-                readChunkUnzip(inflater, curLine, 0, curLine.length);
-                unfilter(curLine, prevLine);
+                readChunkUnzip(inflater, curLine, 0, n);
+                unfilter(curLine, prevLine, n);
 
-                buffer.position(offset + y*stride);
+                int pos = offset + y*stride;
+                buffer.position(pos);
 
                 switch (colorType) {
                 case COLOR_TRUECOLOR:
                     switch (fmt) {
-                    case ABGR: copyRGBtoABGR(buffer, curLine); break;
-                    case RGBA: copyRGBtoRGBA(buffer, curLine); break;
-                    case BGRA: copyRGBtoBGRA(buffer, curLine); break;
-                    case RGB: copy(buffer, curLine); break;
+                    case ABGR: pos = copyRGBto4(buffer, pos, curLine, n, le, 3, 2, 1, 0); break;
+                    case RGBA: pos = copyRGBto4(buffer, pos, curLine, n, le, 0, 1, 2, 3); break;
+                    case BGRA: pos = copyRGBto4(buffer, pos, curLine, n, le, 2, 1, 0, 3); break;
+                    case RGB: pos = copy(buffer, pos, curLine, n); break;
                     default: throw new UnsupportedOperationException("Unsupported format for this image");
                     }
                     break;
                 case COLOR_TRUEALPHA:
                     switch (fmt) {
-                    case ABGR: copyRGBAtoABGR(buffer, curLine); break;
-                    case RGBA: copy(buffer, curLine); break;
-                    case BGRA: copyRGBAtoBGRA(buffer, curLine); break;
-                    case RGB: copyRGBAtoRGB(buffer, curLine); break;
+                    case ABGR: pos = copyRGBAto4(buffer, pos, curLine, n, le, 3, 2, 1, 0); break;
+                    case RGBA: pos = copy(buffer, pos, curLine, n); break;
+                    case BGRA: pos = copyRGBAto4(buffer, pos, curLine, n, le, 2, 1, 0, 3); break;
+                    case RGB: pos = copyRGBAtoRGB(buffer, pos, curLine, n); break;
                     default: throw new UnsupportedOperationException("Unsupported format for this image");
                     }
                     break;
                 case COLOR_GREYSCALE:
                     switch (fmt) {
+                    case ABGR: pos = copyGREYto4(buffer, pos, curLine, n, le, 0); break;
+                    case RGBA:
+                    case BGRA: pos = copyGREYto4(buffer, pos, curLine, n, le, 3); break;
                     case LUMINANCE:
-                    case ALPHA: copy(buffer, curLine); break;
+                    case ALPHA: pos = copy(buffer, pos, curLine, n); break;
                     default: throw new UnsupportedOperationException("Unsupported format for this image");
                     }
                     break;
                 case COLOR_GREYALPHA:
                     switch (fmt) {
-                    case LUMINANCE_ALPHA: copy(buffer, curLine); break;
+                    case ABGR: pos = copyGREYALPHAto4(buffer, pos, curLine, n, le, 0); break;
+                    case RGBA:
+                    case BGRA: pos = copyGREYALPHAto4(buffer, pos, curLine, n, le, 3); break;
+                    case LUMINANCE_ALPHA: pos = copy(buffer, pos, curLine, n); break;
                     default: throw new UnsupportedOperationException("Unsupported format for this image");
                     }
                     break;
                 case COLOR_INDEXED:
+                    byte[] indices;
                     switch(bitdepth) {
-                        case 8: palLine = curLine; break;
-                        case 4: expand4(curLine, palLine); break;
-                        case 2: expand2(curLine, palLine); break;
-                        case 1: expand1(curLine, palLine); break;
+                        case 8: indices = curLine; break;
+                        case 4: expand4(curLine, palLine, width + 1); indices = palLine; break;
+                        case 2: expand2(curLine, palLine, width + 1); indices = palLine; break;
+                        case 1: expand1(curLine, palLine, width + 1); indices = palLine; break;
                         default: throw new UnsupportedOperationException("Unsupported bitdepth for this image");
                     }
-                    switch (fmt) {
-                    case ABGR: copyPALtoABGR(buffer, palLine); break;
-                    case RGBA: copyPALtoRGBA(buffer, palLine); break;
-                    case BGRA: copyPALtoBGRA(buffer, palLine); break;
-                    default: throw new UnsupportedOperationException("Unsupported format for this image");
+                    if (lut == null) {
+                        switch (fmt) {
+                        case ABGR: lut = paletteLookup(le, 3, 2, 1, 0); break;
+                        case RGBA: lut = paletteLookup(le, 0, 1, 2, 3); break;
+                        case BGRA: lut = paletteLookup(le, 2, 1, 0, 3); break;
+                        default: throw new UnsupportedOperationException("Unsupported format for this image");
+                        }
                     }
+                    pos = copyPALto4(buffer, pos, indices, width + 1, lut);
                     break;
                 default:
                     throw new UnsupportedOperationException("Not yet implemented");
                 }
+                buffer.position(pos);
 
                 byte[] tmp = curLine;
                 curLine = prevLine;
                 prevLine = tmp;
             }
         } finally {
-            inflater.end();
+            Scratch.release(scratch);
+        }
+    }
+
+    /**
+     * The per-decode state that is worth keeping: the inflater (its native zlib stream is expensive
+     * to set up) and the line buffers. Pooled across decoders and threads, the arrays only grow.
+     */
+    private static final class Scratch {
+        private static final int MAX_POOLED = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+        private static final ConcurrentLinkedQueue<Scratch> pool = new ConcurrentLinkedQueue<>();
+        private static final AtomicInteger pooled = new AtomicInteger();
+
+        final Inflater inflater = new Inflater();
+        byte[] curLine = new byte[0];
+        byte[] prevLine = new byte[0];
+        byte[] palLine = new byte[0];
+
+        static Scratch acquire(int lineLength, int palLength) {
+            Scratch scratch = pool.poll();
+            if(scratch == null) {
+                scratch = new Scratch();
+            } else {
+                pooled.decrementAndGet();
+                scratch.inflater.reset();
+            }
+            if(scratch.curLine.length < lineLength) {
+                scratch.curLine = new byte[lineLength];
+                scratch.prevLine = new byte[lineLength];
+            }
+            if(scratch.palLine.length < palLength) {
+                scratch.palLine = new byte[palLength];
+            }
+            return scratch;
+        }
+
+        static void release(Scratch scratch) {
+            if(pooled.incrementAndGet() <= MAX_POOLED) {
+                pool.add(scratch);
+            } else {
+                pooled.decrementAndGet();
+                scratch.inflater.end();
+            }
         }
     }
 
@@ -359,162 +430,103 @@ public class PNGDecoder {
         buffer.position(buffer.position() + posDelta);
     }
     
-    private void copy(ByteBuffer buffer, byte[] curLine) {
-        buffer.put(curLine, 1, curLine.length-1);
-    }
+    // the converters write with absolute puts from pos and return the position after the line
 
-    private void copyRGBtoABGR(ByteBuffer buffer, byte[] curLine) {
-        if(transPixel != null) {
-            byte tr = transPixel[1];
-            byte tg = transPixel[3];
-            byte tb = transPixel[5];
-            for(int i=1,n=curLine.length ; i<n ; i+=3) {
-                byte r = curLine[i];
-                byte g = curLine[i+1];
-                byte b = curLine[i+2];
-                byte a = (byte)0xFF;
-                if(r==tr && g==tg && b==tb) {
-                    a = 0;
-                }
-                buffer.put(a).put(b).put(g).put(r);
-            }
-        } else {
-            for(int i=1,n=curLine.length ; i<n ; i+=3) {
-                buffer.put((byte)0xFF).put(curLine[i+2]).put(curLine[i+1]).put(curLine[i]);
-            }
-        }
+    private static int copy(ByteBuffer buffer, int pos, byte[] curLine, int n) {
+        buffer.put(pos, curLine, 1, n-1);
+        return pos + n-1;
     }
 
-    private void copyRGBtoRGBA(ByteBuffer buffer, byte[] curLine) {
-        if(transPixel != null) {
-            byte tr = transPixel[1];
-            byte tg = transPixel[3];
-            byte tb = transPixel[5];
-            for(int i=1,n=curLine.length ; i<n ; i+=3) {
-                byte r = curLine[i];
-                byte g = curLine[i+1];
-                byte b = curLine[i+2];
-                byte a = (byte)0xFF;
-                if(r==tr && g==tg && b==tb) {
-                    a = 0;
-                }
-                buffer.put(r).put(g).put(b).put(a);
-            }
-        } else {
-            for(int i=1,n=curLine.length ; i<n ; i+=3) {
-                buffer.put(curLine[i]).put(curLine[i+1]).put(curLine[i+2]).put((byte)0xFF);
-            }
-        }
+    // pixel has memory byte k in bits 8k, putInt writes it that way round only in little-endian order
+    private static int ordered(int pixel, boolean le) {
+        return le ? pixel : Integer.reverseBytes(pixel);
     }
 
-    private void copyRGBtoBGRA(ByteBuffer buffer, byte[] curLine) {
+    /**
+     * RGB to a 4 byte format, {@code r, g, b, a} are the output slots of the channels.
+     */
+    private int copyRGBto4(ByteBuffer buffer, int pos, byte[] curLine, int n, boolean le, int r, int g, int b, int a) {
+        int tr = -1, tg = -1, tb = -1;
         if(transPixel != null) {
-            byte tr = transPixel[1];
-            byte tg = transPixel[3];
-            byte tb = transPixel[5];
-            for(int i=1,n=curLine.length ; i<n ; i+=3) {
-                byte r = curLine[i];
-                byte g = curLine[i+1];
-                byte b = curLine[i+2];
-                byte a = (byte)0xFF;
-                if(r==tr && g==tg && b==tb) {
-                    a = 0;
-                }
-                buffer.put(b).put(g).put(r).put(a);
-            }
-        } else {
-            for(int i=1,n=curLine.length ; i<n ; i+=3) {
-                buffer.put(curLine[i+2]).put(curLine[i+1]).put(curLine[i]).put((byte)0xFF);
-            }
+            tr = transPixel[1] & 255;
+            tg = transPixel[3] & 255;
+            tb = transPixel[5] & 255;
+        }
+        for(int i=1 ; i<n ; i+=3, pos+=4) {
+            int cr = curLine[i] & 255;
+            int cg = curLine[i+1] & 255;
+            int cb = curLine[i+2] & 255;
+            int ca = (cr==tr && cg==tg && cb==tb) ? 0 : 255;
+            int rgba = cr << (r << 3) | cg << (g << 3) | cb << (b << 3) | ca << (a << 3);
+            buffer.putInt(pos, ordered(rgba, le));
         }
+        return pos;
     }
 
-    private void copyRGBAtoABGR(ByteBuffer buffer, byte[] curLine) {
-        for(int i=1,n=curLine.length ; i<n ; i+=4) {
-            buffer.put(curLine[i+3]).put(curLine[i+2]).put(curLine[i+1]).put(curLine[i]);
+    private static int copyRGBAto4(ByteBuffer buffer, int pos, byte[] curLine, int n, boolean le, int r, int g, int b, int a) {
+        for(int i=1 ; i<n ; i+=4, pos+=4) {
+            int rgba = (curLine[i] & 255) << (r << 3) | (curLine[i+1] & 255) << (g << 3)
+                    | (curLine[i+2] & 255) << (b << 3) | (curLine[i+3] & 255) << (a << 3);
+            buffer.putInt(pos, ordered(rgba, le));
         }
+        return pos;
     }
 
-    private void copyRGBAtoBGRA(ByteBuffer buffer, byte[] curLine) {
-        for(int i=1,n=curLine.length ; i<n ; i+=4) {
-            buffer.put(curLine[i+2]).put(curLine[i+1]).put(curLine[i]).put(curLine[i+3]);
+    /**
+     * Grey to a 4 byte format, the grey value goes into every slot but {@code a}.
+     */
+    private int copyGREYto4(ByteBuffer buffer, int pos, byte[] curLine, int n, boolean le, int a) {
+        int tg = transPixel != null ? transPixel[1] & 255 : -1;
+        int alpha = 255 << (a << 3);
+        for(int i=1 ; i<n ; i++, pos+=4) {
+            int g = curLine[i] & 255;
+            int rgba = (g * 0x01010101 & ~alpha) | (g == tg ? 0 : alpha);
+            buffer.putInt(pos, ordered(rgba, le));
         }
+        return pos;
     }
 
-    private void copyRGBAtoRGB(ByteBuffer buffer, byte[] curLine) {
-        for(int i=1,n=curLine.length ; i<n ; i+=4) {
-            buffer.put(curLine[i]).put(curLine[i+1]).put(curLine[i+2]);
+    private static int copyGREYALPHAto4(ByteBuffer buffer, int pos, byte[] curLine, int n, boolean le, int a) {
+        int alpha = 255 << (a << 3);
+        for(int i=1 ; i<n ; i+=2, pos+=4) {
+            int rgba = ((curLine[i] & 255) * 0x01010101 & ~alpha) | (curLine[i+1] & 255) << (a << 3);
+            buffer.putInt(pos, ordered(rgba, le));
         }
+        return pos;
     }
 
-    private void copyPALtoABGR(ByteBuffer buffer, byte[] curLine) {
-        if(paletteA != null) {
-            for(int i=1,n=curLine.length ; i<n ; i+=1) {
-                int idx = curLine[i] & 255;
-                byte r = palette[idx * 3];
-                byte g = palette[idx*3 + 1];
-                byte b = palette[idx*3 + 2];
-                byte a = paletteA[idx];
-                buffer.put(a).put(b).put(g).put(r);
-            }
-        } else {
-            for(int i=1,n=curLine.length ; i<n ; i+=1) {
-                int idx = curLine[i] & 255;
-                byte r = palette[idx * 3];
-                byte g = palette[idx*3 + 1];
-                byte b = palette[idx*3 + 2];
-                byte a = (byte)0xFF;
-                buffer.put(a).put(b).put(g).put(r);
-            }
+    private static int copyRGBAtoRGB(ByteBuffer buffer, int pos, byte[] curLine, int n) {
+        for(int i=1 ; i<n ; i+=4, pos+=3) {
+            buffer.put(pos, curLine[i]);
+            buffer.put(pos+1, curLine[i+1]);
+            buffer.put(pos+2, curLine[i+2]);
         }
+        return pos;
     }
 
-    private void copyPALtoRGBA(ByteBuffer buffer, byte[] curLine) {
-        if(paletteA != null) {
-            for(int i=1,n=curLine.length ; i<n ; i+=1) {
-                int idx = curLine[i] & 255;
-                byte r = palette[idx * 3];
-                byte g = palette[idx*3 + 1];
-                byte b = palette[idx*3 + 2];
-                byte a = paletteA[idx];
-                buffer.put(r).put(g).put(b).put(a);
-            }
-        } else {
-            for(int i=1,n=curLine.length ; i<n ; i+=1) {
-                int idx = curLine[i] & 255;
-                byte r = palette[idx * 3];
-                byte g = palette[idx*3 + 1];
-                byte b = palette[idx*3 + 2];
-                byte a = (byte)0xFF;
-                buffer.put(r).put(g).put(b).put(a);
-            }
+    /**
+     * The palette converted to output pixels once per image, so every pixel is one lookup.
+     */
+    private int[] paletteLookup(boolean le, int r, int g, int b, int a) {
+        int[] lut = new int[256];
+        for(int idx=0, entries=palette.length/3 ; idx<entries ; idx++) {
+            int ca = paletteA != null ? paletteA[idx] & 255 : 255;
+            int rgba = (palette[idx*3] & 255) << (r << 3) | (palette[idx*3 + 1] & 255) << (g << 3)
+                    | (palette[idx*3 + 2] & 255) << (b << 3) | ca << (a << 3);
+            lut[idx] = ordered(rgba, le);
         }
+        return lut;
     }
 
-    private void copyPALtoBGRA(ByteBuffer buffer, byte[] curLine) {
-        if(paletteA != null) {
-            for(int i=1,n=curLine.length ; i<n ; i+=1) {
-                int idx = curLine[i] & 255;
-                byte r = palette[idx * 3];
-                byte g = palette[idx*3 + 1];
-                byte b = palette[idx*3 + 2];
-                byte a = paletteA[idx];
-                buffer.put(b).put(g).put(r).put(a);
-            }
-        } else {
-            for(int i=1,n=curLine.length ; i<n ; i+=1) {
-                int idx = curLine[i] & 255;
-                byte r = palette[idx * 3];
-                byte g = palette[idx*3 + 1];
-                byte b = palette[idx*3 + 2];
-                byte a = (byte)0xFF;
-                buffer.put(b).put(g).put(r).put(a);
-            }
+    private static int copyPALto4(ByteBuffer buffer, int pos, byte[] curLine, int n, int[] lut) {
+        for(int i=1 ; i<n ; i+=1, pos+=4) {
+            buffer.putInt(pos, lut[curLine[i] & 255]);
         }
+        return pos;
     }
 
-    private void expand4(byte[] src, byte[] dst) {
-        for(int i=1,n=dst.length ; i<n ; i+=2) {
+    private void expand4(byte[] src, byte[] dst, int n) {
+        for(int i=1 ; i<n ; i+=2) {
             int val = src[1 + (i >> 1)] & 255;
             switch(n-i) {
                 default: dst[i+1] = (byte)(val & 15);
@@ -523,8 +535,8 @@ public class PNGDecoder {
         }
     }
 
-    private void expand2(byte[] src, byte[] dst) {
-        for(int i=1,n=dst.length ; i<n ; i+=4) {
+    private void expand2(byte[] src, byte[] dst, int n) {
+        for(int i=1 ; i<n ; i+=4) {
             int val = src[1 + (i >> 2)] & 255;
             switch(n-i) {
                 default: dst[i+3] = (byte)((val     ) & 3);
@@ -535,8 +547,8 @@ public class PNGDecoder {
         }
     }
 
-    private void expand1(byte[] src, byte[] dst) {
-        for(int i=1,n=dst.length ; i<n ; i+=8) {
+    private void expand1(byte[] src, byte[] dst, int n) {
+        for(int i=1 ; i<n ; i+=8) {
             int val = src[1 + (i >> 3)] & 255;
             switch(n-i) {
                 default: dst[i+7] = (byte)((val     ) & 1);
@@ -551,73 +563,77 @@ public class PNGDecoder {
         }
     }
     
-    private void unfilter(byte[] curLine, byte[] prevLine) throws IOException {
+    private void unfilter(byte[] curLine, byte[] prevLine, int n) throws IOException {
         switch (curLine[0]) {
             case 0: // none
                 break;
             case 1:
-                unfilterSub(curLine);
+                unfilterSub(curLine, n);
                 break;
             case 2:
-                unfilterUp(curLine, prevLine);
+                unfilterUp(curLine, prevLine, n);
                 break;
             case 3:
-                unfilterAverage(curLine, prevLine);
+                unfilterAverage(curLine, prevLine, n);
                 break;
             case 4:
-                unfilterPaeth(curLine, prevLine);
+                unfilterPaeth(curLine, prevLine, n);
                 break;
             default:
                 throw new IOException("invalide filter type in scanline: " + curLine[0]);
         }
     }
-    
-    private void unfilterSub(byte[] curLine) {
+
+    // each byte depends on the one bpp before it, so this one can't be vectorized
+    private void unfilterSub(byte[] curLine, int n) {
         final int bpp = this.bytesPerPixel;
-        for(int i=bpp+1,n=curLine.length ; i<n ; ++i) {
+        for(int i=bpp+1 ; i<n ; ++i) {
             curLine[i] += curLine[i-bpp];
         }
     }
-    
-    private void unfilterUp(byte[] curLine, byte[] prevLine) {
-        final int bpp = this.bytesPerPixel;
-        for(int i=1,n=curLine.length ; i<n ; ++i) {
+
+    // no dependency between bytes, C2 turns this into SIMD adds
+    private static void unfilterUp(byte[] curLine, byte[] prevLine, int n) {
+        for(int i=1 ; i<n ; ++i) {
             curLine[i] += prevLine[i];
         }
     }
-    
-    private void unfilterAverage(byte[] curLine, byte[] prevLine) {
+
+    private void unfilterAverage(byte[] curLine, byte[] prevLine, int n) {
         final int bpp = this.bytesPerPixel;
         
         int i;
         for(i=1 ; i<=bpp ; ++i) {
             curLine[i] += (byte)((prevLine[i] & 0xFF) >>> 1);
         }
-        for(int n=curLine.length ; i<n ; ++i) {
+        for( ; i<n ; ++i) {
             curLine[i] += (byte)(((prevLine[i] & 0xFF) + (curLine[i - bpp] & 0xFF)) >>> 1);
         }
     }
-    
-    private void unfilterPaeth(byte[] curLine, byte[] prevLine) {
+
+    /**
+     * Paeth without the data dependent branches of the reference implementation, the predictor is
+     * picked with sign masks. pa, pb and pc are |p-a|, |p-b| and |p-c| for p = a + b - c.
+     */
+    private void unfilterPaeth(byte[] curLine, byte[] prevLine, int n) {
         final int bpp = this.bytesPerPixel;
         
         int i;
         for(i=1 ; i<=bpp ; ++i) {
             curLine[i] += prevLine[i];
         }
-        for(int n=curLine.length ; i<n ; ++i) {
+        for( ; i<n ; ++i) {
             int a = curLine[i - bpp] & 255;
             int b = prevLine[i] & 255;
             int c = prevLine[i - bpp] & 255;
-            int p = a + b - c;
-            int pa = p - a; if(pa < 0) pa = -pa;
-            int pb = p - b; if(pb < 0) pb = -pb;
-            int pc = p - c; if(pc < 0) pc = -pc;
-            if(pa<=pb && pa<=pc)
-                c = a;
-            else if(pb<=pc)
-                c = b;
-            curLine[i] += (byte)c;
+            int pa = Math.abs(b - c);
+            int pb = Math.abs(a - c);
+            int pc = Math.abs(a + b - c - c);
+            // -1 when b or c beats a, then -1 when c beats b
+            int notA = ((pb - pa) | (pc - pa)) >> 31;
+            int useC = (pc - pb) >> 31;
+            int bc = (b & ~useC) | (c & useC);
+            curLine[i] += (byte)((a & ~notA) | (bc & notA));
         }
     }
       
@@ -0,0 +1,71 @@
+package framework.util;
+
+import java.util.Arrays;
+
+/**
+ * LSD radix sort of unsigned 64 bit keys with an int payload each, a byte per pass. Passes over a
+ * byte every key has in common are skipped, so keys that only use their high and low bits cost
+ * little more than the bytes that actually differ. Stable.
+ */
+public final class RadixSort
+{
+    private static final int RADIX = 256;
+    private static final int PASSES = Long.BYTES;
+    /**
+     * The length of the histogram scratch {@link #sort} takes.
+     */
+    public static final int HISTOGRAM_SIZE = PASSES * RADIX;
+
+    private RadixSort() {}
+
+    /**
+     * Sorts the first {@code count} keys ascending, unsigned, moving the values with them. The
+     * scratch arrays need room for {@code count} entries, {@code histograms} for
+     * {@value #HISTOGRAM_SIZE}; kept by the caller, nothing is allocated. Returns true when the sorted
+     * result ended up in the scratch arrays rather than in {@code keys} and {@code values}.
+     */
+    public static boolean sort(long[] keys, int[] values, int count, long[] keyScratch, int[] valueScratch, int[] histograms)
+    {
+        Arrays.fill(histograms, 0, HISTOGRAM_SIZE, 0);
+        for(int i = 0; i < count; i++)
+        {
+            long key = keys[i];
+            for(int pass = 0; pass < PASSES; pass++)
+                histograms[pass * RADIX + (int) (key >>> (pass * 8) & 0xFF)]++;
+        }
+
+        long[] fromKeys = keys, toKeys = keyScratch;
+        int[] fromValues = values, toValues = valueScratch;
+        for(int pass = 0; pass < PASSES; pass++)
+        {
+            int base = pass * RADIX;
+            // every key has the same byte here, the pass wouldn't move anything
+            if(count == 0 || histograms[base + (int) (fromKeys[0] >>> (pass * 8) & 0xFF)] == count)
+                continue;
+
+            int offset = 0;
+            for(int digit = 0; digit < RADIX; digit++)
+            {
+                int size = histograms[base + digit];
+                histograms[base + digit] = offset;
+                offset += size;
+            }
+            int shift = pass * 8;
+            for(int i = 0; i < count; i++)
+            {
+                long key = fromKeys[i];
+                int target = histograms[base + (int) (key >>> shift & 0xFF)]++;
+                toKeys[target] = key;
+                toValues[target] = fromValues[i];
+            }
+
+            long[] keySwap = fromKeys;
+            fromKeys = toKeys;
+            toKeys = keySwap;
+            int[] valueSwap = fromValues;
+            fromValues = toValues;
+            toValues = valueSwap;
+        }
+        return fromKeys != keys;
+    }
+}